@@ -0,0 +1,163 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator;
+
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.serverSide.SProject;
+import jetbrains.buildServer.serverSide.SRunningBuild;
+import jetbrains.buildServer.users.SUser;
+import org.jetbrains.annotations.NotNull;
+
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * In-memory stand-ins for TeamCity and websocket container objects, so the delivery path can run without a server.
+ * Only methods the plugin calls are answered, everything else returns null, zero or false.
+ */
+public final class Fakes {
+    private Fakes() {
+    }
+
+    @NotNull
+    public static <T> T fake(@NotNull Class<T> type, @NotNull Map<String, Function<Object[], Object>> answers) {
+        final InvocationHandler handler = (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+            }
+
+            final Function<Object[], Object> answer = answers.get(method.getName());
+            if (null != answer) {
+                return answer.apply(args);
+            }
+
+            final Class<?> returnType = method.getReturnType();
+            if (returnType == boolean.class) {
+                return false;
+            } else if (returnType == int.class) {
+                return 0;
+            } else if (returnType == long.class) {
+                return 0L;
+            }
+            return null;
+        };
+
+        return type.cast(Proxy.newProxyInstance(Fakes.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    @NotNull
+    public static SUser user(long id) {
+        final Map<String, Function<Object[], Object>> answers = new HashMap<>();
+        answers.put("getId", args -> id);
+        answers.put("getUsername", args -> "user" + id);
+        answers.put("getDescriptiveName", args -> "User " + id);
+        answers.put("getUserGroups", args -> Collections.emptyList());
+        answers.put("getAllUserGroups", args -> Collections.emptyList());
+        return fake(SUser.class, answers);
+    }
+
+    @NotNull
+    public static SProject project(@NotNull String id, @NotNull String name) {
+        final Map<String, Function<Object[], Object>> answers = new HashMap<>();
+        answers.put("getProjectId", args -> id);
+        answers.put("getExternalId", args -> id);
+        answers.put("getName", args -> name);
+        answers.put("getFullName", args -> name);
+        final SProject[] self = new SProject[1];
+        answers.put("getProjectPath", args -> Collections.singletonList(self[0]));
+        self[0] = fake(SProject.class, answers);
+        return self[0];
+    }
+
+    @NotNull
+    public static SBuildType buildType(@NotNull SProject project, @NotNull String id, @NotNull String name) {
+        final Map<String, Function<Object[], Object>> answers = new HashMap<>();
+        answers.put("getBuildTypeId", args -> id);
+        answers.put("getInternalId", args -> id);
+        answers.put("getExternalId", args -> id);
+        answers.put("getName", args -> name);
+        answers.put("getFullName", args -> project.getFullName() + " :: " + name);
+        answers.put("getProject", args -> project);
+        answers.put("getProjectId", args -> project.getProjectId());
+        return fake(SBuildType.class, answers);
+    }
+
+    @NotNull
+    public static SRunningBuild build(@NotNull SBuildType buildType, long id, @NotNull String number) {
+        final Map<String, Function<Object[], Object>> answers = new HashMap<>();
+        answers.put("getBuildId", args -> id);
+        answers.put("getBuildNumber", args -> number);
+        answers.put("getFullName", args -> buildType.getFullName());
+        answers.put("getBuildType", args -> buildType);
+        answers.put("getBuildTypeId", args -> buildType.getBuildTypeId());
+        answers.put("getBuildTypeExternalId", args -> buildType.getExternalId());
+        answers.put("getProjectId", args -> buildType.getProjectId());
+        answers.put("getProjectExternalId", args -> buildType.getProject().getExternalId());
+        return fake(SRunningBuild.class, answers);
+    }
+
+    /**
+     * Websocket session whose asynchronous writes complete immediately.
+     * @param id - session id.
+     * @param sink - receives every text written to the session.
+     */
+    @NotNull
+    public static Session session(@NotNull String id, @NotNull Consumer<String> sink) {
+        final Map<String, Function<Object[], Object>> asyncAnswers = new HashMap<>();
+        asyncAnswers.put("sendText", args -> {
+            sink.accept((String) args[0]);
+            if (args.length > 1 && args[1] instanceof SendHandler) {
+                ((SendHandler) args[1]).onResult(new SendResult());
+            }
+            return null;
+        });
+        final RemoteEndpoint.Async async = fake(RemoteEndpoint.Async.class, asyncAnswers);
+
+        final Map<String, Object> userProperties = new ConcurrentHashMap<>();
+        final Map<String, Function<Object[], Object>> answers = new HashMap<>();
+        answers.put("getId", args -> id);
+        answers.put("isOpen", args -> true);
+        answers.put("getAsyncRemote", args -> async);
+        answers.put("getUserProperties", args -> userProperties);
+        answers.put("getRequestParameterMap", args -> Collections.emptyMap());
+        answers.put("getNegotiatedExtensions", args -> Collections.emptyList());
+        return fake(Session.class, answers);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.notifier;
+
+import com.github.grundic.browser.notificator.Fakes;
+import com.github.grundic.browser.notificator.MessageBean;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.serverSide.SProject;
+import jetbrains.buildServer.serverSide.SRunningBuild;
+import jetbrains.buildServer.serverSide.mute.MuteInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning a single TeamCity event into a {@link MessageBean}, including the dedupe tag.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBenchmark {
+    private SRunningBuild build;
+    private SBuildType buildType;
+    private SProject project;
+    private MuteInfo muteInfo;
+
+    @Setup
+    public void setUp() {
+        project = Fakes.project("Backend_Services", "Backend :: Services");
+        buildType = Fakes.buildType(project, "Backend_Services_IntegrationTests", "Integration Tests");
+        build = Fakes.build(buildType, 123456L, "1.4.2-rc.1789");
+        muteInfo = Fakes.fake(MuteInfo.class, Collections.singletonMap("getProject", args -> project));
+    }
+
+    @Benchmark
+    public MessageBean build() {
+        return MessageTemplate.BUILD_FAILED.render(build);
+    }
+
+    @Benchmark
+    public MessageBean buildType() {
+        return MessageTemplate.RESPONSIBLE_CHANGED.render(buildType);
+    }
+
+    @Benchmark
+    public MessageBean project() {
+        return MessageTemplate.TESTS_RESPONSIBLE_CHANGED.render(project, 12);
+    }
+
+    @Benchmark
+    public MessageBean muteInfo() {
+        return MessageTemplate.TESTS_MUTED.render(muteInfo, 3);
+    }
+
+    @Benchmark
+    public String buildTag() {
+        return NotificationTag.of(EventType.BUILD_FAILED, build.getBuildId());
+    }
+
+    @Benchmark
+    public String buildTypeTag() {
+        return NotificationTag.of(EventType.RESPONSIBLE_CHANGED, buildType.getBuildTypeId());
+    }
+}
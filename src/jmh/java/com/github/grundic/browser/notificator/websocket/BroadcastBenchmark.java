@@ -0,0 +1,138 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.websocket;
+
+import com.github.grundic.browser.notificator.Constants;
+import com.github.grundic.browser.notificator.Fakes;
+import com.github.grundic.browser.notificator.MessageBean;
+import com.github.grundic.browser.notificator.WireFormat;
+import com.github.grundic.browser.notificator.metrics.DeliveryMetrics;
+import com.github.grundic.browser.notificator.notifier.BuildDetails;
+import com.github.grundic.browser.notificator.notifier.EventScope;
+import com.github.grundic.browser.notificator.notifier.EventType;
+import com.github.grundic.browser.notificator.notifier.NotificationTag;
+import com.github.grundic.browser.notificator.notifier.PreferencesCache;
+import jetbrains.buildServer.serverSide.SBuildServer;
+import jetbrains.buildServer.users.SUser;
+import jetbrains.buildServer.users.UserModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fan-out of one notification through {@link NotificationEndpoint#broadcast(MessageBean, EventScope, Set)} to in-memory
+ * sessions whose writes complete immediately, so the numbers cover serialization, sequencing, replay and queueing
+ * but not the network.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+    @Param({"1", "100", "1000", "10000"})
+    private int recipients;
+
+    @Param({"1", "10"})
+    private int sessionsPerUser;
+
+    private SessionRegistry sessionRegistry;
+    private DeliveryMetrics metrics;
+    private NotificationEndpoint endpoint;
+    private Set<SUser> users;
+    private MessageBean message;
+    private long bytesWritten;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final UserModel userModel = Fakes.fake(UserModel.class, Collections.emptyMap());
+        sessionRegistry = new SessionRegistry();
+        final ReplayBuffer replayBuffer = new ReplayBuffer(sessionRegistry);
+        final PreferencesCache preferences = new PreferencesCache(userModel);
+        metrics = new DeliveryMetrics(sessionRegistry, preferences, new BuildDetails(Fakes.fake(SBuildServer.class, Collections.emptyMap())));
+        endpoint = new NotificationEndpoint(sessionRegistry, replayBuffer, preferences, metrics);
+
+        final OutboxSettings settings = new OutboxSettings(
+                Constants.DEFAULT_OUTBOX_CAPACITY,
+                OverflowPolicy.DROP_OLDEST,
+                Constants.DEFAULT_OUTBOX_MAX_LAG,
+                Constants.DEFAULT_OUTBOX_LOW_MAX_AGE,
+                Constants.DEFAULT_BATCH_MAX_BYTES,
+                Constants.DEFAULT_BATCH_DELAY
+        );
+        users = new HashSet<>(recipients);
+        for (long userId = 1; userId <= recipients; userId++) {
+            final SUser user = Fakes.user(userId);
+            users.add(user);
+            replayBuffer.track(userId);
+            for (int i = 0; i < sessionsPerUser; i++) {
+                final String id = userId + "-" + i;
+                sessionRegistry.register(new SessionOutbox(
+                        new WebSocketTransport(Fakes.session(id, text -> bytesWritten += text.length())),
+                        user,
+                        WireFormat.VERBOSE,
+                        id,
+                        settings,
+                        metrics
+                ));
+            }
+        }
+
+        message = new MessageBean();
+        message.title = "Build failed";
+        message.body = "Backend :: Services :: Integration Tests [1.4.2-rc.1789]";
+        message.icon = "failed.png";
+        message.url = "/viewType.html?buildTypeId=Backend_Services_IntegrationTests";
+        message.tag = NotificationTag.of(EventType.BUILD_FAILED, 123456L);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        metrics.destroy();
+        sessionRegistry.destroy();
+    }
+
+    @Benchmark
+    public long broadcast() {
+        endpoint.broadcast(message, null, users);
+        return bytesWritten;
+    }
+}
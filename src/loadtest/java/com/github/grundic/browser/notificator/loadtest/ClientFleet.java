@@ -0,0 +1,180 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.loadtest;
+
+import com.github.grundic.browser.notificator.metrics.LatencyHistogram;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import org.glassfish.tyrus.client.ClientManager;
+import org.glassfish.tyrus.client.ClientProperties;
+import org.jetbrains.annotations.NotNull;
+
+import javax.websocket.ClientEndpointConfig;
+import javax.websocket.CloseReason;
+import javax.websocket.DeploymentException;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.MessageHandler;
+import javax.websocket.Session;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+
+/**
+ * Browser pages of a load test: opens a websocket per page and times every notification it receives. Runs in a
+ * process of its own, started by {@link LoadTest}, and answers commands on standard input:
+ * <ul>
+ * <li>{@code count} - number of notifications received since the last report;</li>
+ * <li>{@code report} - JSON with that number, latency percentiles in microseconds and connections closed by the
+ * server, then starts counting anew;</li>
+ * <li>{@code exit} - closes the connections.</li>
+ * </ul>
+ * Latency is measured against the raise time in the notification, both processes read the same monotonic clock of
+ * the machine.
+ */
+public final class ClientFleet {
+    private static final long WELCOME_TIMEOUT_SECONDS = 30;
+
+    private final LoadTestSettings settings;
+    private final URI uri;
+    private final List<Session> sessions = new ArrayList<>();
+    private final AtomicReference<LatencyHistogram> latency = new AtomicReference<>(new LatencyHistogram());
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong closed = new AtomicLong();
+
+    private ClientFleet(@NotNull LoadTestSettings settings, @NotNull URI uri) {
+        this.settings = settings;
+        this.uri = uri;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final ClientFleet fleet = new ClientFleet(LoadTestSettings.load(), URI.create(args[0]));
+        fleet.connect();
+        System.out.println("ready " + fleet.sessions.size());
+
+        final BufferedReader commands = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        String command;
+        while (null != (command = commands.readLine())) {
+            switch (command) {
+                case "count":
+                    System.out.println(fleet.delivered.get());
+                    break;
+                case "report":
+                    System.out.println(fleet.report());
+                    break;
+                case "exit":
+                    fleet.close();
+                    return;
+            }
+        }
+        fleet.close();
+    }
+
+    /**
+     * Pages are opened one by one, each after the previous one was welcomed: handshake properties live on the
+     * endpoint configuration shared by all connections, so concurrent handshakes could mix up users.
+     */
+    private void connect() throws DeploymentException, IOException, InterruptedException {
+        final ClientManager client = ClientManager.createClient();
+        // one selector and worker pool for all connections instead of a pool each
+        client.getProperties().put(ClientProperties.SHARED_CONTAINER, true);
+        final ClientEndpointConfig config = ClientEndpointConfig.Builder.create().build();
+
+        for (int i = 0; i < settings.sockets; i++) {
+            final URI page = URI.create(uri + "?format=compact&browserId=lt-" + i + "&user=" + settings.userOf(i));
+            final Page endpoint = new Page();
+            sessions.add(client.connectToServer(endpoint, config, page));
+            if (!endpoint.welcomed.await(WELCOME_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                throw new IOException("Connection " + i + " was not welcomed");
+            }
+        }
+    }
+
+    @NotNull
+    private String report() {
+        final LatencyHistogram histogram = latency.getAndSet(new LatencyHistogram());
+        final JsonObject report = new JsonObject();
+        report.addProperty("delivered", delivered.getAndSet(0));
+        report.addProperty("closed", closed.getAndSet(0));
+        report.add("latency", new Gson().toJsonTree(histogram.getSummary()));
+        return report.toString();
+    }
+
+    private void close() {
+        for (Session session : sessions) {
+            try {
+                session.close();
+            } catch (IOException ignored) {
+                // the server is gone already
+            }
+        }
+    }
+
+    private final class Page extends Endpoint {
+        private final CountDownLatch welcomed = new CountDownLatch(1);
+
+        @Override
+        public void onOpen(Session session, EndpointConfig config) {
+            // anonymous class, Tyrus reads the message type from its generic interface
+            session.addMessageHandler(new MessageHandler.Whole<String>() {
+                @Override
+                public void onMessage(String text) {
+                    receive(text);
+                }
+            });
+        }
+
+        @Override
+        public void onClose(Session session, CloseReason closeReason) {
+            closed.incrementAndGet();
+        }
+
+        private void receive(@NotNull String text) {
+            final long now = System.nanoTime();
+            final Matcher matcher = EventGenerator.MARKER.matcher(text);
+            final LatencyHistogram histogram = latency.get();
+            int found = 0;
+            while (matcher.find()) {
+                histogram.record(TimeUnit.NANOSECONDS.toMicros(now - Long.parseLong(matcher.group(1))));
+                found++;
+            }
+
+            if (found > 0) {
+                delivered.addAndGet(found);
+            } else if (text.contains("\"welcome\"")) {
+                welcomed.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.loadtest;
+
+import com.github.grundic.browser.notificator.Constants;
+import com.github.grundic.browser.notificator.Fakes;
+import com.github.grundic.browser.notificator.metrics.DeliveryMetrics;
+import com.github.grundic.browser.notificator.notifier.BrowserNotifier;
+import com.github.grundic.browser.notificator.notifier.BuildDetails;
+import com.github.grundic.browser.notificator.notifier.EventCoalescer;
+import com.github.grundic.browser.notificator.notifier.NotificationPipeline;
+import com.github.grundic.browser.notificator.notifier.PreferencesCache;
+import com.github.grundic.browser.notificator.websocket.EndpointConfigurator;
+import com.github.grundic.browser.notificator.websocket.HandshakeThrottle;
+import com.github.grundic.browser.notificator.websocket.NotificationEndpoint;
+import com.github.grundic.browser.notificator.websocket.ReplayBuffer;
+import com.github.grundic.browser.notificator.websocket.SessionRegistry;
+import jetbrains.buildServer.notification.NotificatorRegistry;
+import jetbrains.buildServer.serverSide.SBuildServer;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.users.SUser;
+import jetbrains.buildServer.users.UserModel;
+import org.glassfish.tyrus.server.Server;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import javax.servlet.http.HttpSession;
+import javax.websocket.CloseReason;
+import javax.websocket.DeploymentException;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.HandshakeResponse;
+import javax.websocket.MessageHandler;
+import javax.websocket.PongMessage;
+import javax.websocket.Session;
+import javax.websocket.server.HandshakeRequest;
+import javax.websocket.server.ServerApplicationConfig;
+import javax.websocket.server.ServerEndpointConfig;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Plugin delivery path wired the way the Spring descriptor does it, behind a standalone Tyrus websocket server.
+ * TeamCity parts are replaced with {@link Fakes}, and the http session TeamCity keeps the user in is faked from the
+ * {@code user} parameter of the handshake.
+ * <p>
+ * Unlike Tomcat, Tyrus only deploys {@link Endpoint} subclasses from a programmatic configuration, so the annotated
+ * endpoint is driven through an {@link Adapter}.
+ */
+final class EmbeddedServer {
+    private static final String PATH = "/browserNotifier/notify.html";
+
+    // Tyrus instantiates application configs itself
+    private static volatile ServerEndpointConfig endpointConfig;
+
+    private final Map<Long, SUser> users = new HashMap<>();
+    private final SessionRegistry sessionRegistry;
+    private final DeliveryMetrics metrics;
+    private final EventCoalescer eventCoalescer;
+    private final NotificationPipeline pipeline;
+    private final BrowserNotifier notifier;
+    private final int port;
+    private Server server;
+
+    EmbeddedServer(@NotNull LoadTestSettings settings) throws IOException {
+        for (long userId = 1; userId <= settings.users; userId++) {
+            users.put(userId, Fakes.user(userId));
+        }
+
+        sessionRegistry = new SessionRegistry();
+        final ReplayBuffer replayBuffer = new ReplayBuffer(sessionRegistry);
+        final PreferencesCache preferences = new PreferencesCache(Fakes.fake(UserModel.class, Collections.emptyMap()));
+        metrics = new DeliveryMetrics(sessionRegistry, preferences, new BuildDetails(Fakes.fake(SBuildServer.class, Collections.emptyMap())));
+        final NotificationEndpoint endpoint = new NotificationEndpoint(sessionRegistry, replayBuffer, preferences, metrics);
+        eventCoalescer = new EventCoalescer(endpoint, metrics);
+        pipeline = new NotificationPipeline(eventCoalescer, endpoint, metrics);
+        notifier = new BrowserNotifier(Fakes.fake(NotificatorRegistry.class, Collections.emptyMap()), pipeline);
+
+        final StaticListableBeanFactory beans = new StaticListableBeanFactory();
+        beans.addBean("notificationEndpoint", new Adapter(endpoint));
+        endpointConfig = ServerEndpointConfig.Builder
+                .create(Adapter.class, PATH)
+                .configurator(new Configurator(beans))
+                .build();
+
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+    }
+
+    void start() throws DeploymentException {
+        server = new Server("localhost", port, "/", Collections.emptyMap(), Application.class);
+        server.start();
+    }
+
+    void stop() {
+        if (null != server) {
+            server.stop();
+        }
+        pipeline.destroy();
+        eventCoalescer.destroy();
+        metrics.destroy();
+        sessionRegistry.destroy();
+    }
+
+    @NotNull
+    URI getUri() {
+        return URI.create("ws://localhost:" + port + PATH);
+    }
+
+    @NotNull
+    SUser getUser(long userId) {
+        return users.get(userId);
+    }
+
+    @NotNull
+    BrowserNotifier getNotifier() {
+        return notifier;
+    }
+
+    @NotNull
+    SessionRegistry getSessionRegistry() {
+        return sessionRegistry;
+    }
+
+    @NotNull
+    DeliveryMetrics getMetrics() {
+        return metrics;
+    }
+
+    private final class Configurator extends EndpointConfigurator {
+        Configurator(@NotNull StaticListableBeanFactory beans) {
+            super(beans, new HandshakeThrottle(), TeamCityProperties.getBooleanOrTrue(Constants.DEFLATE_ENABLED));
+        }
+
+        @Override
+        public void modifyHandshake(ServerEndpointConfig sec, HandshakeRequest request, HandshakeResponse response) {
+            super.modifyHandshake(sec, request, response);
+
+            final List<String> ids = request.getParameterMap().get("user");
+            final SUser user = (null == ids || ids.isEmpty()) ? null : users.get(Long.parseLong(ids.get(0)));
+            // whatever attribute TeamCity keeps the user under
+            final HttpSession session = Fakes.fake(HttpSession.class, Collections.singletonMap("getAttribute", args -> user));
+            sec.getUserProperties().put(HttpSession.class.getName(), session);
+        }
+    }
+
+    public static final class Adapter extends Endpoint {
+        private final NotificationEndpoint endpoint;
+
+        Adapter(@NotNull NotificationEndpoint endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        @Override
+        public void onOpen(Session session, EndpointConfig config) {
+            // anonymous classes, Tyrus reads the message type from their generic interface
+            session.addMessageHandler(new MessageHandler.Whole<String>() {
+                @Override
+                public void onMessage(String text) {
+                    endpoint.onMessage(text, session);
+                }
+            });
+            session.addMessageHandler(new MessageHandler.Whole<PongMessage>() {
+                @Override
+                public void onMessage(PongMessage pong) {
+                    endpoint.onPong(pong, session);
+                }
+            });
+            endpoint.onOpen(session, config);
+        }
+
+        @Override
+        public void onClose(Session session, CloseReason closeReason) {
+            endpoint.onClose(session);
+        }
+
+        @Override
+        public void onError(Session session, Throwable error) {
+            endpoint.onError(session, error);
+        }
+    }
+
+    public static final class Application implements ServerApplicationConfig {
+        @Override
+        public Set<ServerEndpointConfig> getEndpointConfigs(Set<Class<? extends Endpoint>> endpointClasses) {
+            return Collections.singleton(endpointConfig);
+        }
+
+        @Override
+        public Set<Class<?>> getAnnotatedEndpointClasses(Set<Class<?>> scanned) {
+            return Collections.emptySet();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.loadtest;
+
+import com.github.grundic.browser.notificator.Fakes;
+import com.github.grundic.browser.notificator.notifier.BrowserNotifier;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.serverSide.SProject;
+import jetbrains.buildServer.serverSide.SRunningBuild;
+import jetbrains.buildServer.users.SUser;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Synthetic build events fed to {@link BrowserNotifier}, as TeamCity would call it. Each event goes to a run of
+ * consecutive users, and the build number carries the time the event was raised, so clients can measure delivery
+ * latency from the notification body alone.
+ */
+final class EventGenerator {
+    /**
+     * Finds raise times in notification text, whatever the wire format and batching.
+     */
+    static final Pattern MARKER = Pattern.compile("\\[lt-(\\d+)]");
+
+    private static final int PROJECTS = 50;
+    private static final int BUILD_TYPES_PER_PROJECT = 10;
+
+    private final LoadTestSettings settings;
+    private final EmbeddedServer server;
+    private final SBuildType[] buildTypes = new SBuildType[PROJECTS * BUILD_TYPES_PER_PROJECT];
+    private final Random random = new Random(42);
+    private long buildId;
+
+    EventGenerator(@NotNull LoadTestSettings settings, @NotNull EmbeddedServer server) {
+        this.settings = settings;
+        this.server = server;
+        for (int p = 0; p < PROJECTS; p++) {
+            final SProject project = Fakes.project("Project" + p, "Project " + p);
+            for (int b = 0; b < BUILD_TYPES_PER_PROJECT; b++) {
+                buildTypes[p * BUILD_TYPES_PER_PROJECT + b] = Fakes.buildType(project, "Project" + p + "_Build" + b, "Build " + b);
+            }
+        }
+    }
+
+    /**
+     * Raise an event. Only called from one thread.
+     * @param index - number of the event in the scenario, picks the kind of event.
+     * @return - number of notifications clients should receive for it.
+     */
+    long fire(int index) {
+        final SBuildType buildType = buildTypes[random.nextInt(buildTypes.length)];
+        final int first = random.nextInt(settings.users);
+        final Set<SUser> recipients = new HashSet<>(settings.recipients * 2);
+        long expected = 0;
+        for (int i = 0; i < settings.recipients; i++) {
+            final long userId = (first + i) % settings.users + 1;
+            recipients.add(server.getUser(userId));
+            expected += settings.socketsOf(userId);
+        }
+
+        final SRunningBuild build = Fakes.build(buildType, ++buildId, "lt-" + System.nanoTime());
+        final BrowserNotifier notifier = server.getNotifier();
+        switch (index % 4) {
+            case 0:
+                notifier.notifyBuildStarted(build, recipients);
+                break;
+            case 1:
+                notifier.notifyBuildSuccessful(build, recipients);
+                break;
+            case 2:
+                notifier.notifyBuildFailing(build, recipients);
+                break;
+            default:
+                notifier.notifyBuildFailed(build, recipients);
+        }
+        return expected;
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.loadtest;
+
+import com.github.grundic.browser.notificator.Constants;
+import com.github.grundic.browser.notificator.metrics.DeliveryMetrics;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end load test of notification delivery without TeamCity: synthetic build events go through
+ * {@code BrowserNotifier} and the websocket endpoint, served by an embedded container, to thousands of real
+ * websocket clients. For every scenario it reports delivery latency percentiles, notifications that never arrived,
+ * and heap and CPU use of the server.
+ * <p>
+ * Clients run in a separate JVM, so they don't add to the server numbers. Coalescing and admission control are
+ * off unless configured, every event has to reach the clients to be timed and all of them connect up front.
+ */
+public final class LoadTest {
+    private static final long DRAIN_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final long STALL_MILLIS = TimeUnit.SECONDS.toMillis(3);
+    private static final long POLL_MILLIS = 200;
+
+    private final LoadTestSettings settings;
+    private final EmbeddedServer server;
+    private final EventGenerator generator;
+    private PrintWriter fleetInput;
+    private BufferedReader fleetOutput;
+
+    private LoadTest(@NotNull LoadTestSettings settings) throws IOException {
+        this.settings = settings;
+        this.server = new EmbeddedServer(settings);
+        this.generator = new EventGenerator(settings, server);
+    }
+
+    public static void main(String[] args) throws Exception {
+        setDefault(Constants.COALESCE_WINDOW, "0");
+        setDefault(Constants.HANDSHAKE_RATE, "0");
+
+        final LoadTestSettings settings = LoadTestSettings.load();
+        final LoadTest loadTest = new LoadTest(settings);
+        final JsonArray results = loadTest.run();
+
+        if (null != settings.results) {
+            final File file = new File(settings.results);
+            Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+            try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+                new GsonBuilder().setPrettyPrinting().create().toJson(results, writer);
+            }
+            System.out.println("Results are written to " + file);
+        }
+        System.exit(0);
+    }
+
+    private static void setDefault(@NotNull String property, @NotNull String value) {
+        if (null == System.getProperty(property)) {
+            System.setProperty(property, value);
+        }
+    }
+
+    @NotNull
+    private JsonArray run() throws Exception {
+        server.start();
+        final Process fleet = startFleet();
+        try {
+            System.out.printf("Opening %d connections of %d users%n", settings.sockets, settings.users);
+            final String ready = fleetOutput.readLine();
+            if (null == ready || !ready.startsWith("ready ")) {
+                throw new IOException("Client process failed to connect, see its output above");
+            }
+            System.out.printf("%d connections open on the server%n", server.getSessionRegistry().getSessionCount());
+
+            final JsonArray results = new JsonArray();
+            for (Scenario scenario : settings.scenarios) {
+                System.out.printf("Running %s for %d s%n", scenario.name().toLowerCase(Locale.ENGLISH), settings.durationSeconds);
+                final JsonObject result = run(scenario);
+                results.add(result);
+                print(result);
+            }
+            fleetInput.println("exit");
+            return results;
+        } finally {
+            fleet.destroy();
+            server.stop();
+        }
+    }
+
+    @NotNull
+    private Process startFleet() throws IOException {
+        final List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        command.addAll(Arrays.asList(settings.clientJvmArgs.trim().split("\\s+")));
+        command.addAll(settings.toJvmArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ClientFleet.class.getName());
+        command.add(server.getUri().toString());
+
+        final Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        fleetInput = new PrintWriter(process.getOutputStream(), true);
+        fleetOutput = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        return process;
+    }
+
+    @NotNull
+    private String ask(@NotNull String command) throws IOException {
+        fleetInput.println(command);
+        final String answer = fleetOutput.readLine();
+        if (null == answer) {
+            throw new IOException("Client process exited");
+        }
+        return answer;
+    }
+
+    @NotNull
+    private JsonObject run(@NotNull Scenario scenario) throws Exception {
+        final DeliveryMetrics metrics = server.getMetrics();
+        final long droppedBefore = metrics.getDroppedMessages() + sum(metrics.getExpiredByPriority().values());
+        final long evictedBefore = metrics.getEvictedSessions();
+        ask("report");
+
+        final ServerSampler sampler = new ServerSampler();
+        sampler.start();
+
+        final int events = (int) ((long) settings.eventsPerMinute * settings.durationSeconds / 60);
+        final long started = System.currentTimeMillis();
+        long expected = 0;
+        for (int i = 0; i < events; i++) {
+            final long wait = started + scenario.offsetMillis(i, settings.eventsPerMinute) - System.currentTimeMillis();
+            if (wait > 0) {
+                Thread.sleep(wait);
+            }
+            expected += generator.fire(i);
+        }
+
+        // let queues drain, stop early when all arrived or nothing moves any more
+        final long drainUntil = System.currentTimeMillis() + DRAIN_MILLIS;
+        long received = -1;
+        long progressAt = System.currentTimeMillis();
+        while (System.currentTimeMillis() < drainUntil) {
+            Thread.sleep(POLL_MILLIS);
+            final long count = Long.parseLong(ask("count"));
+            if (count >= expected) {
+                break;
+            }
+            if (count != received) {
+                received = count;
+                progressAt = System.currentTimeMillis();
+            } else if (System.currentTimeMillis() - progressAt > STALL_MILLIS) {
+                break;
+            }
+        }
+        sampler.stop();
+
+        final JsonObject clients = new JsonParser().parse(ask("report")).getAsJsonObject();
+        final long delivered = clients.get("delivered").getAsLong();
+
+        final JsonObject result = new JsonObject();
+        result.addProperty("scenario", scenario.name().toLowerCase(Locale.ENGLISH));
+        result.addProperty("users", settings.users);
+        result.addProperty("connections", settings.sockets);
+        result.addProperty("events", events);
+        result.addProperty("expected", expected);
+        result.addProperty("delivered", delivered);
+        result.addProperty("missing", expected - delivered);
+        result.addProperty("droppedByServer", metrics.getDroppedMessages() + sum(metrics.getExpiredByPriority().values()) - droppedBefore);
+        result.addProperty("evicted", metrics.getEvictedSessions() - evictedBefore);
+        result.addProperty("closed", clients.get("closed").getAsLong());
+        result.add("latencyMicros", clients.get("latency"));
+        result.addProperty("cpuCores", sampler.getCpuCores());
+        result.addProperty("gcMillis", sampler.getGcMillis());
+        result.addProperty("peakHeapBytes", sampler.getPeakHeap());
+        result.addProperty("liveHeapBytes", sampler.getLiveHeap());
+        return result;
+    }
+
+    private static long sum(@NotNull Iterable<Long> values) {
+        long total = 0;
+        for (Long value : values) {
+            total += value;
+        }
+        return total;
+    }
+
+    private static void print(@NotNull JsonObject result) {
+        final JsonObject latency = result.getAsJsonObject("latencyMicros");
+        System.out.printf(Locale.ENGLISH,
+                "%s: %d events, %d of %d notifications delivered, %d missing (%d dropped by server, %d connections evicted)%n" +
+                        "  latency ms: p50 %.1f, p90 %.1f, p99 %.1f, p99.9 %.1f, max %.1f%n" +
+                        "  server: %.2f cores, GC %d ms, heap peak %d MB, live %d MB%n",
+                result.get("scenario").getAsString(), result.get("events").getAsLong(),
+                result.get("delivered").getAsLong(), result.get("expected").getAsLong(), result.get("missing").getAsLong(),
+                result.get("droppedByServer").getAsLong(), result.get("evicted").getAsLong(),
+                millis(latency, "p50"), millis(latency, "p90"), millis(latency, "p99"), millis(latency, "p999"), millis(latency, "max"),
+                result.get("cpuCores").getAsDouble(), result.get("gcMillis").getAsLong(),
+                result.get("peakHeapBytes").getAsLong() >> 20, result.get("liveHeapBytes").getAsLong() >> 20);
+    }
+
+    private static double millis(@NotNull JsonObject latency, @NotNull String key) {
+        return latency.get(key).getAsLong() / 1000.0;
+    }
+}
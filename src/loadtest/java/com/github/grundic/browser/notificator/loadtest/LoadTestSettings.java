@@ -0,0 +1,96 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.loadtest;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Size of a load test run, read from {@code loadtest.*} system properties. Defaults match a large installation:
+ * 3000 users with 8000 open pages, 500 events a minute.
+ */
+final class LoadTestSettings {
+    private static final String PREFIX = "loadtest.";
+
+    final int users;
+    final int sockets;
+    final int recipients;
+    final int eventsPerMinute;
+    final int durationSeconds;
+    final List<Scenario> scenarios;
+    final String clientJvmArgs;
+    final String results;
+
+    private LoadTestSettings() {
+        users = Math.max(1, Integer.getInteger(PREFIX + "users", 3000));
+        sockets = Math.max(1, Integer.getInteger(PREFIX + "sockets", 8000));
+        recipients = Math.min(users, Math.max(1, Integer.getInteger(PREFIX + "recipients", 200)));
+        eventsPerMinute = Math.max(1, Integer.getInteger(PREFIX + "eventsPerMinute", 500));
+        durationSeconds = Math.max(1, Integer.getInteger(PREFIX + "durationSeconds", 120));
+        clientJvmArgs = System.getProperty(PREFIX + "clientJvmArgs", "-Xmx2g");
+        results = System.getProperty(PREFIX + "results");
+
+        scenarios = new ArrayList<>();
+        for (String name : System.getProperty(PREFIX + "scenarios", "steady,burst").split(",")) {
+            if (!name.trim().isEmpty()) {
+                scenarios.add(Scenario.valueOf(name.trim().toUpperCase(Locale.ENGLISH)));
+            }
+        }
+    }
+
+    @NotNull
+    static LoadTestSettings load() {
+        return new LoadTestSettings();
+    }
+
+    /**
+     * @return - id of the user whose page opened the given socket, sockets are spread evenly over users.
+     */
+    long userOf(int socket) {
+        return socket % users + 1;
+    }
+
+    /**
+     * @return - number of sockets opened by the user.
+     */
+    int socketsOf(long userId) {
+        return sockets / users + (userId - 1 < sockets % users ? 1 : 0);
+    }
+
+    /**
+     * @return - system properties passing these settings to the client process.
+     */
+    @NotNull
+    List<String> toJvmArguments() {
+        return Arrays.asList(
+                "-D" + PREFIX + "users=" + users,
+                "-D" + PREFIX + "sockets=" + sockets
+        );
+    }
+}
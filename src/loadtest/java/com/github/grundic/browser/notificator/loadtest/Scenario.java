@@ -0,0 +1,61 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.loadtest;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How events of a scenario are spread over time.
+ */
+enum Scenario {
+    /**
+     * Events of every minute evenly spaced.
+     */
+    STEADY {
+        @Override
+        long offsetMillis(int index, int eventsPerMinute) {
+            return (index / eventsPerMinute) * MINUTE + (index % eventsPerMinute) * MINUTE / eventsPerMinute;
+        }
+    },
+
+    /**
+     * All events of a minute fired at its start, as when a large build chain finishes.
+     */
+    BURST {
+        @Override
+        long offsetMillis(int index, int eventsPerMinute) {
+            return (index / eventsPerMinute) * MINUTE;
+        }
+    };
+
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * @param index - number of the event in the scenario.
+     * @param eventsPerMinute - rate of events.
+     * @return - time of the event since the start of the scenario.
+     */
+    abstract long offsetMillis(int index, int eventsPerMinute);
+}
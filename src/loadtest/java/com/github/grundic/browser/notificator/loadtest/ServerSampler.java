@@ -0,0 +1,120 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.loadtest;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heap and CPU use of the server process while a scenario runs. Clients live in a process of their own, so
+ * everything measured here is the server and the event source.
+ */
+final class ServerSampler implements Runnable {
+    private static final long INTERVAL_MILLIS = 100;
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final Thread thread = new Thread(this, "Load test sampler");
+    private volatile boolean running = true;
+
+    private long startedAt;
+    private long cpuAtStart;
+    private long gcAtStart;
+    private volatile long peakHeap;
+
+    private long wallNanos;
+    private long cpuNanos;
+    private long gcMillis;
+
+    void start() {
+        startedAt = System.nanoTime();
+        cpuAtStart = getProcessCpuTime();
+        gcAtStart = getGcTime();
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void stop() throws InterruptedException {
+        running = false;
+        thread.join();
+        wallNanos = System.nanoTime() - startedAt;
+        cpuNanos = (cpuAtStart < 0) ? -1 : getProcessCpuTime() - cpuAtStart;
+        gcMillis = getGcTime() - gcAtStart;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            peakHeap = Math.max(peakHeap, memory.getHeapMemoryUsage().getUsed());
+            try {
+                Thread.sleep(INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return - average number of cores busy, or a negative value if the JVM doesn't report process CPU time.
+     */
+    double getCpuCores() {
+        return (cpuNanos < 0 || 0 == wallNanos) ? -1 : (double) cpuNanos / wallNanos;
+    }
+
+    long getPeakHeap() {
+        return peakHeap;
+    }
+
+    long getGcMillis() {
+        return gcMillis;
+    }
+
+    /**
+     * @return - heap still in use after a full collection, i.e. what the open connections and buffers hold.
+     */
+    long getLiveHeap() throws InterruptedException {
+        System.gc();
+        TimeUnit.MILLISECONDS.sleep(INTERVAL_MILLIS);
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private static long getProcessCpuTime() {
+        final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return -1;
+    }
+
+    private static long getGcTime() {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, collector.getCollectionTime());
+        }
+        return total;
+    }
+}
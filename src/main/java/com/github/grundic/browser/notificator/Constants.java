@@ -33,5 +33,109 @@ public class Constants {
     public static final String PLUGIN_TYPE = "browserNotifier";
     public static final String PLUGIN_NAME = "Browser Notifier";
     public static final String NOTIFICATION_TIMEOUT = "NOTIFICATION_TIMEOUT";
+    public static final String PUSH_SUBSCRIPTIONS = "PUSH_SUBSCRIPTIONS";
     public static final int DEFAULT_TIMEOUT = 10;
+
+    // Internal properties, configurable via <TeamCity data directory>/config/internal.properties
+    public static final String PROPERTY_PREFIX = "teamcity.browserNotifier.";
+
+    public static final String OUTBOX_CAPACITY = PROPERTY_PREFIX + "outbox.capacity";
+    public static final int DEFAULT_OUTBOX_CAPACITY = 64;
+    public static final String OUTBOX_OVERFLOW_POLICY = PROPERTY_PREFIX + "outbox.overflowPolicy";
+    public static final String OUTBOX_MAX_LAG = PROPERTY_PREFIX + "outbox.maxLagMillis";
+    public static final long DEFAULT_OUTBOX_MAX_LAG = 30000;
+    public static final String OUTBOX_LOW_MAX_AGE = PROPERTY_PREFIX + "outbox.lowPriorityMaxAgeMillis";
+    public static final long DEFAULT_OUTBOX_LOW_MAX_AGE = 10000;
+    public static final String BATCH_MAX_BYTES = PROPERTY_PREFIX + "batch.maxBytes";
+    public static final int DEFAULT_BATCH_MAX_BYTES = 16384;
+    public static final String BATCH_DELAY = PROPERTY_PREFIX + "batch.delayMillis";
+    public static final long DEFAULT_BATCH_DELAY = 0;
+
+    public static final String PRIORITY_HIGH = PROPERTY_PREFIX + "priority.high";
+    public static final String PRIORITY_LOW = PROPERTY_PREFIX + "priority.low";
+
+    public static final String DEFLATE_ENABLED = PROPERTY_PREFIX + "deflate.enabled";
+
+    public static final String EVENT_STREAM_TIMEOUT = PROPERTY_PREFIX + "eventStream.timeoutMillis";
+    public static final long DEFAULT_EVENT_STREAM_TIMEOUT = 5 * 60 * 1000;
+    public static final String EVENT_STREAM_RETRY = PROPERTY_PREFIX + "eventStream.retryMillis";
+    public static final long DEFAULT_EVENT_STREAM_RETRY = 5000;
+
+    public static final String SESSIONS_PER_USER = PROPERTY_PREFIX + "sessions.maxPerUser";
+    public static final int DEFAULT_SESSIONS_PER_USER = 32;
+    public static final String HEARTBEAT_INTERVAL = PROPERTY_PREFIX + "heartbeat.intervalMillis";
+    public static final long DEFAULT_HEARTBEAT_INTERVAL = 30000;
+
+    public static final String HANDSHAKE_RATE = PROPERTY_PREFIX + "handshake.ratePerSecond";
+    public static final int DEFAULT_HANDSHAKE_RATE = 50;
+    public static final String HANDSHAKE_BURST = PROPERTY_PREFIX + "handshake.burst";
+    public static final int DEFAULT_HANDSHAKE_BURST = 100;
+    public static final String HANDSHAKE_MAX_RETRY = PROPERTY_PREFIX + "handshake.maxRetryMillis";
+    public static final long DEFAULT_HANDSHAKE_MAX_RETRY = 60000;
+
+    public static final String PREFERENCES_CACHE_SIZE = PROPERTY_PREFIX + "preferences.cacheSize";
+    public static final int DEFAULT_PREFERENCES_CACHE_SIZE = 10000;
+
+    public static final String DETAIL_CACHE_SIZE = PROPERTY_PREFIX + "detail.cacheSize";
+    public static final int DEFAULT_DETAIL_CACHE_SIZE = 1000;
+    public static final String DETAIL_CACHE_TTL = PROPERTY_PREFIX + "detail.cacheTtlMillis";
+    public static final long DEFAULT_DETAIL_CACHE_TTL = 60000;
+    public static final String DETAIL_MAX_TESTS = PROPERTY_PREFIX + "detail.maxTests";
+    public static final int DEFAULT_DETAIL_MAX_TESTS = 5;
+
+    public static final String REPLAY_SIZE = PROPERTY_PREFIX + "replay.size";
+    public static final int DEFAULT_REPLAY_SIZE = 50;
+    public static final String REPLAY_MAX_USERS = PROPERTY_PREFIX + "replay.maxUsers";
+    public static final int DEFAULT_REPLAY_MAX_USERS = 10000;
+    public static final String REPLAY_RETENTION = PROPERTY_PREFIX + "replay.retentionMillis";
+    public static final long DEFAULT_REPLAY_RETENTION = 10 * 60 * 1000;
+
+    public static final String PRESENCE_TIMEOUT = PROPERTY_PREFIX + "presence.timeoutMillis";
+    public static final long DEFAULT_PRESENCE_TIMEOUT = 3 * 60 * 1000;
+
+    public static final String INBOX_ENABLED = PROPERTY_PREFIX + "inbox.enabled";
+    public static final String INBOX_SEGMENT_BYTES = PROPERTY_PREFIX + "inbox.segmentBytes";
+    public static final int DEFAULT_INBOX_SEGMENT_BYTES = 32 * 1024 * 1024;
+    public static final String INBOX_RETENTION = PROPERTY_PREFIX + "inbox.retentionMillis";
+    public static final long DEFAULT_INBOX_RETENTION = 7 * 24 * 60 * 60 * 1000L;
+    public static final String INBOX_MAX_BYTES = PROPERTY_PREFIX + "inbox.maxBytes";
+    public static final long DEFAULT_INBOX_MAX_BYTES = 1024L * 1024 * 1024;
+    public static final String INBOX_QUEUE_SIZE = PROPERTY_PREFIX + "inbox.queueSize";
+    public static final int DEFAULT_INBOX_QUEUE_SIZE = 10000;
+
+    public static final String RELAY_ENABLED = PROPERTY_PREFIX + "relay.enabled";
+    public static final String RELAY_NODE_ID = PROPERTY_PREFIX + "relay.nodeId";
+    public static final String RELAY_DIRECTORY = PROPERTY_PREFIX + "relay.directory";
+    public static final String RELAY_POLL_INTERVAL = PROPERTY_PREFIX + "relay.pollMillis";
+    public static final long DEFAULT_RELAY_POLL_INTERVAL = 200;
+    public static final String RELAY_PRESENCE_INTERVAL = PROPERTY_PREFIX + "relay.presenceMillis";
+    public static final long DEFAULT_RELAY_PRESENCE_INTERVAL = 5000;
+    public static final String RELAY_BATCH_SIZE = PROPERTY_PREFIX + "relay.batchSize";
+    public static final int DEFAULT_RELAY_BATCH_SIZE = 500;
+
+    public static final String PIPELINE_RING_SIZE = PROPERTY_PREFIX + "pipeline.ringSize";
+    public static final int DEFAULT_PIPELINE_RING_SIZE = 1024;
+    public static final String PIPELINE_CONSUMERS = PROPERTY_PREFIX + "pipeline.consumers";
+    public static final int DEFAULT_PIPELINE_CONSUMERS = 2;
+    public static final String PIPELINE_WAIT_STRATEGY = PROPERTY_PREFIX + "pipeline.waitStrategy";
+
+    public static final String COALESCE_WINDOW = PROPERTY_PREFIX + "coalesce.windowMillis";
+    public static final long DEFAULT_COALESCE_WINDOW = 2000;
+    public static final String COALESCE_BYPASS = PROPERTY_PREFIX + "coalesce.bypass";
+
+    public static final String PUSH_ENABLED = PROPERTY_PREFIX + "push.enabled";
+    public static final String PUSH_SUBJECT = PROPERTY_PREFIX + "push.subject";
+    public static final String PUSH_FLUSH_INTERVAL = PROPERTY_PREFIX + "push.flushMillis";
+    public static final long DEFAULT_PUSH_FLUSH_INTERVAL = 1000;
+    public static final String PUSH_TTL = PROPERTY_PREFIX + "push.ttlSeconds";
+    public static final int DEFAULT_PUSH_TTL = 3600;
+    public static final String PUSH_THREADS = PROPERTY_PREFIX + "push.threads";
+    public static final int DEFAULT_PUSH_THREADS = 4;
+    public static final String PUSH_QUEUE_SIZE = PROPERTY_PREFIX + "push.queueSize";
+    public static final int DEFAULT_PUSH_QUEUE_SIZE = 10000;
+    public static final String PUSH_SUBSCRIPTIONS_PER_USER = PROPERTY_PREFIX + "push.maxSubscriptionsPerUser";
+    public static final int DEFAULT_PUSH_SUBSCRIPTIONS_PER_USER = 10;
+    public static final String PUSH_ALLOWED_HOSTS = PROPERTY_PREFIX + "push.allowedHosts";
+    public static final String DEFAULT_PUSH_ALLOWED_HOSTS =
+            "fcm.googleapis.com,*.push.services.mozilla.com,*.notify.windows.com,*.push.apple.com";
 }
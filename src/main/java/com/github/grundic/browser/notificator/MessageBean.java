@@ -24,9 +24,6 @@
 
 package com.github.grundic.browser.notificator;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-
 /**
  * User: g.chernyshev
  * Date: 09/10/16
@@ -37,20 +34,9 @@ public class MessageBean {
     public String body;
     public String tag;
     public String icon;
-    public int timeout;
     public String url;
-
-    public void md5Tag(){
-        try {
-            MessageDigest md = MessageDigest.getInstance("MD5");
-            String hash = this.title + this.body;
-            md.update(hash.getBytes());
-            byte[] enc = md.digest();
-
-            this.tag = new sun.misc.BASE64Encoder().encode(enc);
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-            this.tag = this.title + this.body;
-        }
-    }
+    /**
+     * Key to fetch details of a failed build on demand, see {@link com.github.grundic.browser.notificator.web.DetailController}.
+     */
+    public String detail;
 }
@@ -0,0 +1,245 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator;
+
+import com.github.grundic.browser.notificator.notifier.EventScope;
+import com.google.gson.Gson;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Immutable, already serialized notification.
+ * <p>
+ * The message is encoded to JSON once. The only per-user part, display timeout, is spliced into the encoded text,
+ * and every distinct variant is cached, so fan-out to any number of recipients costs one encoding per distinct
+ * timeout value instead of one per user. The {@link WireFormat#COMPACT} encoding is made from the message on first
+ * use.
+ */
+public final class NotificationFrame {
+    private static final Gson GSON = new Gson();
+
+    // encoded message without closing brace
+    private final String prefix;
+    private final long sequence;
+    private final long createdAt;
+    private final EventScope scope;
+    // null if the frame was restored from JSON
+    private final MessageBean message;
+    private final ConcurrentMap<Integer, String> variants = new ConcurrentHashMap<>(4);
+
+    private volatile String compactPrefix;
+    private final ConcurrentMap<Integer, String> compactVariants = new ConcurrentHashMap<>(4);
+
+    private NotificationFrame(@NotNull String prefix, @Nullable EventScope scope, @Nullable MessageBean message) {
+        this(prefix, 0, System.nanoTime(), scope, message);
+    }
+
+    private NotificationFrame(
+            @NotNull String prefix,
+            long sequence,
+            long createdAt,
+            @Nullable EventScope scope,
+            @Nullable MessageBean message
+    ) {
+        this.prefix = prefix;
+        this.sequence = sequence;
+        this.createdAt = createdAt;
+        this.scope = scope;
+        this.message = message;
+    }
+
+    @NotNull
+    public static NotificationFrame of(@NotNull MessageBean message) {
+        return of(message, null);
+    }
+
+    /**
+     * @param message - notification, must not be changed afterwards.
+     * @param scope - what the notification is about, for matching subscriptions; not sent to clients.
+     * @return - frame.
+     */
+    @NotNull
+    public static NotificationFrame of(@NotNull MessageBean message, @Nullable EventScope scope) {
+        final String encoded = GSON.toJson(message);
+
+        return new NotificationFrame(encoded.substring(0, encoded.length() - 1), scope, message);
+    }
+
+    /**
+     * Restore frame from {@link #toJson()} output, e.g. one received from another node.
+     * @param json - encoded message without timeout.
+     * @return - frame.
+     */
+    @NotNull
+    public static NotificationFrame fromJson(@NotNull String json) {
+        return fromJson(json, null);
+    }
+
+    /**
+     * Restore frame from {@link #toJson()} output, e.g. one received from another node.
+     * @param json - encoded message without timeout.
+     * @param scope - what the notification is about, if known.
+     * @return - frame.
+     */
+    @NotNull
+    public static NotificationFrame fromJson(@NotNull String json, @Nullable EventScope scope) {
+        final String trimmed = json.trim();
+        if (!trimmed.startsWith("{") || !trimmed.endsWith("}")) {
+            throw new IllegalArgumentException("Not a JSON object: " + json);
+        }
+
+        return new NotificationFrame(trimmed.substring(0, trimmed.length() - 1), scope, null);
+    }
+
+    /**
+     * @param sequence - position of the message in the stream of messages of this node.
+     * @return - copy of the frame carrying the sequence number.
+     */
+    @NotNull
+    public NotificationFrame withSequence(long sequence) {
+        final StringBuilder builder = appendField(new StringBuilder(prefix.length() + 24), prefix, WireFormat.VERBOSE.getSequenceKey());
+        return new NotificationFrame(builder.append(sequence).toString(), sequence, createdAt, scope, message);
+    }
+
+    /**
+     * @return - sequence number, or 0 if the frame was not sequenced.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return - what the notification is about, null if not known.
+     */
+    @Nullable
+    public EventScope getScope() {
+        return scope;
+    }
+
+    /**
+     * @return - {@link System#nanoTime()} when the frame was encoded, or received from another node.
+     */
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * @return - encoded message without the per-user part.
+     */
+    @NotNull
+    public String toJson() {
+        return prefix + '}';
+    }
+
+    /**
+     * @param timeout - display timeout of the recipient, in seconds.
+     * @return - JSON text of the message, shared between all recipients with the same timeout.
+     */
+    @NotNull
+    public String getText(int timeout) {
+        return getText(WireFormat.VERBOSE, timeout);
+    }
+
+    /**
+     * @param format - encoding requested by the recipient.
+     * @param timeout - display timeout of the recipient, in seconds.
+     * @return - JSON text of the message, shared between all recipients with the same format and timeout.
+     */
+    @NotNull
+    public String getText(@NotNull WireFormat format, int timeout) {
+        final ConcurrentMap<Integer, String> cache = (WireFormat.COMPACT == format) ? compactVariants : variants;
+        String text = cache.get(timeout);
+        if (null == text) {
+            text = encode(format, timeout);
+            final String existing = cache.putIfAbsent(timeout, text);
+            if (null != existing) {
+                text = existing;
+            }
+        }
+
+        return text;
+    }
+
+    /**
+     * @param text - text to measure.
+     * @return - length of the text encoded as UTF-8, as it goes to the wire.
+     */
+    public static int utf8Length(@NotNull CharSequence text) {
+        final int length = text.length();
+        int bytes = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+
+        return bytes;
+    }
+
+    @NotNull
+    private String encode(@NotNull WireFormat format, int timeout) {
+        final String base = (WireFormat.COMPACT == format) ? getCompactPrefix() : prefix;
+        return appendField(new StringBuilder(base.length() + 16), base, format.getTimeoutKey()).append(timeout).append('}').toString();
+    }
+
+    @NotNull
+    private String getCompactPrefix() {
+        String compact = compactPrefix;
+        if (null == compact) {
+            final MessageBean source = (null == message) ? GSON.fromJson(toJson(), MessageBean.class) : message;
+            final String encoded = WireFormat.compact(source);
+            compact = encoded.substring(0, encoded.length() - 1);
+            if (0 != sequence) {
+                final StringBuilder builder = new StringBuilder(compact.length() + 24);
+                compact = appendField(builder, compact, WireFormat.COMPACT.getSequenceKey()).append(sequence).toString();
+            }
+            compactPrefix = compact;
+        }
+
+        return compact;
+    }
+
+    @NotNull
+    private static StringBuilder appendField(@NotNull StringBuilder builder, @NotNull String base, @NotNull String name) {
+        builder.append(base);
+        if (base.length() > 1) {
+            builder.append(',');
+        }
+
+        return builder.append('"').append(name).append("\":");
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Encoding of notifications sent to the client.
+ * <p>
+ * {@link #VERBOSE} is the plain JSON of {@link MessageBean}. {@link #COMPACT} uses one letter keys, sends icons as
+ * {@link Icon} ordinals and links as a {@link UrlTemplate} ordinal with the argument; the client gets the lookup
+ * tables from {@link #dictionary()} when it connects.
+ */
+public enum WireFormat {
+    VERBOSE("timeout", "seq"),
+    COMPACT("o", "s");
+
+    private static final Gson GSON = new Gson();
+
+    private final String timeoutKey;
+    private final String sequenceKey;
+
+    WireFormat(@NotNull String timeoutKey, @NotNull String sequenceKey) {
+        this.timeoutKey = timeoutKey;
+        this.sequenceKey = sequenceKey;
+    }
+
+    @NotNull
+    public String getTimeoutKey() {
+        return timeoutKey;
+    }
+
+    @NotNull
+    public String getSequenceKey() {
+        return sequenceKey;
+    }
+
+    @NotNull
+    public static WireFormat parse(String value) {
+        return "compact".equalsIgnoreCase(value) ? COMPACT : VERBOSE;
+    }
+
+    /**
+     * Encode message in compact form, without timeout and sequence number.
+     * @param message - notification.
+     * @return - compact encoding.
+     */
+    @NotNull
+    public static String compact(@NotNull MessageBean message) {
+        final JsonObject target = new JsonObject();
+        if (null != message.title) {
+            target.addProperty("t", message.title);
+        }
+        if (null != message.body) {
+            target.addProperty("b", message.body);
+        }
+        if (null != message.tag) {
+            target.addProperty("g", message.tag);
+        }
+        if (null != message.icon) {
+            final Icon icon = Icon.fromFileName(message.icon);
+            if (null == icon) {
+                target.addProperty("icon", message.icon);
+            } else {
+                target.addProperty("i", icon.ordinal());
+            }
+        }
+        if (null != message.url) {
+            target.add("u", compactUrl(message.url));
+        }
+        if (null != message.detail) {
+            target.addProperty("d", message.detail);
+        }
+
+        return GSON.toJson(target);
+    }
+
+    /**
+     * @return - lookup tables the client needs to decode compact messages.
+     */
+    @NotNull
+    public static JsonObject dictionary() {
+        final JsonArray icons = new JsonArray();
+        for (Icon icon : Icon.values()) {
+            icons.add(icon.getFileName());
+        }
+
+        final JsonArray urls = new JsonArray();
+        for (UrlTemplate template : UrlTemplate.values()) {
+            urls.add(template.getPrefix());
+        }
+
+        final JsonObject dictionary = new JsonObject();
+        dictionary.add("icons", icons);
+        dictionary.add("urls", urls);
+        return dictionary;
+    }
+
+    @NotNull
+    private static JsonElement compactUrl(@NotNull String url) {
+        for (UrlTemplate template : UrlTemplate.values()) {
+            if (url.startsWith(template.getPrefix())) {
+                final JsonArray compact = new JsonArray();
+                compact.add(template.ordinal());
+                compact.add(url.substring(template.getPrefix().length()));
+                return compact;
+            }
+        }
+
+        return new JsonPrimitive(url);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.inbox;
+
+import com.github.grundic.browser.notificator.notifier.EventType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * Notification as stored in the inbox.
+ */
+public final class InboxEntry {
+    private final long offset;
+    private final long createdAt;
+    private final EventType type;
+    private final List<String> projects;
+    private final String json;
+
+    InboxEntry(long offset, long createdAt, @Nullable EventType type, @NotNull List<String> projects, @NotNull String json) {
+        this.offset = offset;
+        this.createdAt = createdAt;
+        this.type = type;
+        this.projects = projects;
+        this.json = json;
+    }
+
+    /**
+     * @return - position in the log, also the cursor for the page after this entry.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return - time the notification was sent, in milliseconds since epoch.
+     */
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * @return - kind of the event, null for notifications not about an event, e.g. test ones.
+     */
+    @Nullable
+    public EventType getType() {
+        return type;
+    }
+
+    /**
+     * @return - external ids of the project of the event and all its parents.
+     */
+    @NotNull
+    public List<String> getProjects() {
+        return projects;
+    }
+
+    /**
+     * @return - the notification in the verbose wire format, without sequence number and timeout.
+     */
+    @NotNull
+    public String getJson() {
+        return json;
+    }
+}
@@ -0,0 +1,495 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.inbox;
+
+import com.github.grundic.browser.notificator.notifier.EventType;
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of notifications, split into memory-mapped segment files of fixed size.
+ * <p>
+ * A notification is stored once together with ids of all its recipients, and the position of every record is kept
+ * in a per-user index of primitive offsets, newest last, so reading an inbox touches only the user's records. The
+ * index is not persisted, it is rebuilt by scanning the segments when the log is opened. Records carry a checksum,
+ * and the scan stops at the first record that doesn't match, e.g. one torn by a crash; appends continue from there.
+ * Old records are dropped a whole segment at a time.
+ * <p>
+ * Appends and deletion of segments are done by a single thread; reads are safe from any thread. The directory is
+ * locked while the log is open, so another process can't write to the same segments.
+ */
+final class InboxLog {
+    private static final Logger LOG = Logger.getInstance(InboxLog.class.getName());
+
+    private static final String SUFFIX = ".log";
+    private static final String LOCK = ".lock";
+    // record length and checksum
+    private static final int HEADER = 8;
+
+    private final File directory;
+    private final int segmentBytes;
+    private final ConcurrentNavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<Long, UserIndex> users = new ConcurrentHashMap<>();
+    private final CRC32 crc = new CRC32();
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private Segment active;
+
+    InboxLog(@NotNull File directory, int segmentBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create inbox directory " + directory);
+        }
+
+        this.lockChannel = new RandomAccessFile(new File(directory, LOCK), "rw").getChannel();
+        FileLock acquired;
+        try {
+            acquired = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            acquired = null;
+        }
+        if (null == acquired) {
+            lockChannel.close();
+            throw new IOException("Inbox directory " + directory + " is used by another server process");
+        }
+        this.lock = acquired;
+
+        try {
+            load();
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void load() throws IOException {
+        final File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (null != files) {
+            Arrays.sort(files);
+            for (File file : files) {
+                final long base;
+                try {
+                    base = Long.parseLong(file.getName().substring(0, file.getName().length() - SUFFIX.length()));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                final Segment segment = new Segment(base, file, Math.max(segmentBytes, (int) Math.min(file.length(), Integer.MAX_VALUE)));
+                recover(segment);
+                segments.put(base, segment);
+                active = segment;
+            }
+        }
+    }
+
+    /**
+     * @param createdAt - time the notification was sent.
+     * @param type - kind of the event, if known.
+     * @param projects - external ids of the project of the event and its parents.
+     * @param json - the notification.
+     * @param recipients - ids of users who got the notification.
+     * @return - offset of the record, or -1 if it is too large for a segment.
+     */
+    long append(long createdAt, @Nullable EventType type, @NotNull List<String> projects, @NotNull String json, @NotNull long[] recipients) throws IOException {
+        final byte[][] strings = new byte[projects.size() + 2][];
+        strings[0] = (null == type) ? new byte[0] : type.name().getBytes(StandardCharsets.UTF_8);
+        strings[1] = json.getBytes(StandardCharsets.UTF_8);
+        int length = 8 + 4 + strings[0].length + 4 + strings[1].length + 4 + 8 * recipients.length + 4;
+        for (int i = 0; i < projects.size(); i++) {
+            strings[i + 2] = projects.get(i).getBytes(StandardCharsets.UTF_8);
+            length += 4 + strings[i + 2].length;
+        }
+        if (HEADER + length > segmentBytes) {
+            return -1;
+        }
+
+        final ByteBuffer body = ByteBuffer.allocate(length);
+        body.putLong(createdAt);
+        putBytes(body, strings[0]);
+        putBytes(body, strings[1]);
+        body.putInt(recipients.length);
+        for (long recipient : recipients) {
+            body.putLong(recipient);
+        }
+        body.putInt(projects.size());
+        for (int i = 2; i < strings.length; i++) {
+            putBytes(body, strings[i]);
+        }
+
+        if (null == active || active.size + HEADER + length > active.capacity) {
+            roll();
+        }
+
+        crc.reset();
+        crc.update(body.array(), 0, length);
+        final Segment segment = active;
+        final int position = segment.size;
+        final ByteBuffer target = segment.writer;
+        target.position(position);
+        target.putInt(length);
+        target.putInt((int) crc.getValue());
+        target.put(body.array(), 0, length);
+        segment.lastCreatedAt = createdAt;
+        segment.size = position + HEADER + length;
+
+        final long offset = segment.base + position;
+        for (long recipient : recipients) {
+            users.computeIfAbsent(recipient, id -> new UserIndex()).add(offset);
+        }
+        return offset;
+    }
+
+    /**
+     * @param userId - id of the user.
+     * @param query - filter and page.
+     * @param maxScanned - maximum number of records to look at, bounds the cost of a very selective filter.
+     * @return - matching notifications, newest first.
+     */
+    @NotNull
+    InboxPage read(long userId, @NotNull InboxQuery query, int maxScanned) {
+        final UserIndex index = users.get(userId);
+        if (null == index) {
+            return new InboxPage(Collections.<InboxEntry>emptyList(), -1);
+        }
+
+        final List<InboxEntry> entries = new ArrayList<>(Math.min(query.getLimit(), 64));
+        long cursor = query.getBefore();
+        for (int scanned = 0; entries.size() < query.getLimit(); scanned++) {
+            if (scanned >= maxScanned) {
+                return new InboxPage(entries, cursor);
+            }
+
+            final long offset = index.previous(cursor);
+            if (offset < 0) {
+                return new InboxPage(entries, -1);
+            }
+            cursor = offset;
+
+            final InboxEntry entry = decode(offset);
+            if (null == entry) {
+                continue;
+            }
+            if (entry.getCreatedAt() < query.getFrom()) {
+                // records are in time order
+                return new InboxPage(entries, -1);
+            }
+            if (query.matches(entry)) {
+                entries.add(entry);
+            }
+        }
+
+        return new InboxPage(entries, (index.previous(cursor) < 0) ? -1 : cursor);
+    }
+
+    /**
+     * Delete the oldest segments while they only hold records older than the cutoff or the log is over its size
+     * limit. The segment being appended to is never deleted.
+     * @param cutoff - records created before this time may be deleted.
+     * @param maxBytes - maximum total size of segment files.
+     */
+    void deleteOld(long cutoff, long maxBytes) {
+        long total = 0;
+        for (Segment segment : segments.values()) {
+            total += segment.capacity;
+        }
+
+        final Iterator<Segment> iterator = segments.values().iterator();
+        boolean deleted = false;
+        while (iterator.hasNext()) {
+            final Segment segment = iterator.next();
+            if (segment == active || (segment.lastCreatedAt >= cutoff && total <= maxBytes)) {
+                break;
+            }
+
+            iterator.remove();
+            total -= segment.capacity;
+            deleted = true;
+            // the mapping goes away with the buffer, where that keeps the file open the deletion is retried later
+            if (!segment.file.delete()) {
+                LOG.debug("Inbox segment " + segment.file + " can't be deleted yet");
+            }
+        }
+
+        if (deleted) {
+            final Map.Entry<Long, Segment> first = segments.firstEntry();
+            final long start = (null == first) ? Long.MAX_VALUE : first.getKey();
+            users.values().removeIf(index -> index.trim(start));
+        }
+
+        deleteOrphans();
+    }
+
+    /**
+     * Write changes of the active segment to disk.
+     */
+    void force() {
+        if (null != active) {
+            active.buffer.force();
+        }
+    }
+
+    /**
+     * Write changes to disk and let other processes open the directory.
+     */
+    void close() {
+        force();
+        try {
+            lock.release();
+            lockChannel.close();
+        } catch (IOException e) {
+            LOG.debug("Failed to unlock inbox directory " + directory, e);
+        }
+    }
+
+    long getSize() {
+        long size = 0;
+        for (Segment segment : segments.values()) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    /**
+     * @return - time of the newest record, or 0 if the log is empty.
+     */
+    long getLastCreatedAt() {
+        return (null == active) ? 0 : active.lastCreatedAt;
+    }
+
+    int getUserCount() {
+        return users.size();
+    }
+
+    private void roll() throws IOException {
+        final long base = (null == active) ? 0 : active.base + active.size;
+        if (null != active) {
+            active.buffer.force();
+        }
+
+        final Segment segment = new Segment(base, new File(directory, String.format("%020d", base) + SUFFIX), segmentBytes);
+        segments.put(base, segment);
+        active = segment;
+    }
+
+    private void recover(@NotNull Segment segment) {
+        final ByteBuffer buffer = segment.buffer.duplicate();
+        final CRC32 checksum = new CRC32();
+        int position = 0;
+        while (position + HEADER <= segment.capacity) {
+            final int length = buffer.getInt(position);
+            if (length <= 0 || position + HEADER + length > segment.capacity) {
+                break;
+            }
+
+            final byte[] body = new byte[length];
+            buffer.position(position + HEADER);
+            buffer.get(body);
+            checksum.reset();
+            checksum.update(body, 0, length);
+            if ((int) checksum.getValue() != buffer.getInt(position + 4)) {
+                LOG.warn(String.format("Inbox segment %s is damaged at %d, later records are lost", segment.file, position));
+                break;
+            }
+
+            final ByteBuffer record = ByteBuffer.wrap(body);
+            final long createdAt = record.getLong();
+            skipBytes(record);
+            skipBytes(record);
+            final long offset = segment.base + position;
+            final int recipients = record.getInt();
+            for (int i = 0; i < recipients; i++) {
+                users.computeIfAbsent(record.getLong(), id -> new UserIndex()).add(offset);
+            }
+
+            segment.lastCreatedAt = createdAt;
+            position += HEADER + length;
+        }
+        segment.size = position;
+    }
+
+    @Nullable
+    private InboxEntry decode(long offset) {
+        final Map.Entry<Long, Segment> found = segments.floorEntry(offset);
+        if (null == found) {
+            return null;
+        }
+
+        final Segment segment = found.getValue();
+        final int position = (int) (offset - segment.base);
+        if (position >= segment.size) {
+            return null;
+        }
+
+        final ByteBuffer record = segment.buffer.duplicate();
+        record.position(position + HEADER);
+        final long createdAt = record.getLong();
+        final String typeName = getString(record);
+        final String json = getString(record);
+        final int recipients = record.getInt();
+        record.position(record.position() + 8 * recipients);
+        final int projectCount = record.getInt();
+        final List<String> projects = new ArrayList<>(projectCount);
+        for (int i = 0; i < projectCount; i++) {
+            projects.add(getString(record));
+        }
+
+        EventType type = null;
+        if (!typeName.isEmpty()) {
+            try {
+                type = EventType.valueOf(typeName);
+            } catch (IllegalArgumentException e) {
+                // written by a version with other event types
+            }
+        }
+        return new InboxEntry(offset, createdAt, type, projects, json);
+    }
+
+    private void deleteOrphans() {
+        final File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (null == files) {
+            return;
+        }
+
+        final Map.Entry<Long, Segment> first = segments.firstEntry();
+        for (File file : files) {
+            if (null == first || file.getName().compareTo(first.getValue().file.getName()) < 0) {
+                if (!file.delete()) {
+                    LOG.debug("Inbox segment " + file + " can't be deleted yet");
+                }
+            }
+        }
+    }
+
+    private static void putBytes(@NotNull ByteBuffer buffer, @NotNull byte[] bytes) {
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static void skipBytes(@NotNull ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        buffer.position(buffer.position() + length);
+    }
+
+    @NotNull
+    private static String getString(@NotNull ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class Segment {
+        private final long base;
+        private final File file;
+        private final int capacity;
+        private final MappedByteBuffer buffer;
+        // used by the appending thread only
+        private final ByteBuffer writer;
+        private volatile int size;
+        private volatile long lastCreatedAt;
+
+        Segment(long base, @NotNull File file, int capacity) throws IOException {
+            this.base = base;
+            this.file = file;
+            this.capacity = capacity;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+                this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            }
+            this.writer = buffer.duplicate();
+        }
+    }
+
+    /**
+     * Offsets of records of one user, in ascending order.
+     */
+    private static final class UserIndex {
+        private long[] offsets = new long[8];
+        private int size;
+
+        synchronized void add(long offset) {
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            offsets[size++] = offset;
+        }
+
+        /**
+         * @return - the greatest offset below the cursor, or -1 if there is none.
+         */
+        synchronized long previous(long cursor) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                final int middle = (low + high) >>> 1;
+                if (offsets[middle] < cursor) {
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return (high >= 0) ? offsets[high] : -1;
+        }
+
+        /**
+         * Drop offsets of deleted segments.
+         * @return - true if nothing is left.
+         */
+        synchronized boolean trim(long start) {
+            int first = 0;
+            while (first < size && offsets[first] < start) {
+                first++;
+            }
+            if (first > 0) {
+                size -= first;
+                System.arraycopy(offsets, first, offsets, 0, size);
+                if (size < offsets.length / 4 && offsets.length > 8) {
+                    offsets = Arrays.copyOf(offsets, Math.max(8, size * 2));
+                }
+            }
+            return 0 == size;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.inbox;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * One page of an inbox read.
+ */
+public final class InboxPage {
+    private final List<InboxEntry> entries;
+    private final long next;
+
+    InboxPage(@NotNull List<InboxEntry> entries, long next) {
+        this.entries = entries;
+        this.next = next;
+    }
+
+    /**
+     * @return - matching notifications, newest first.
+     */
+    @NotNull
+    public List<InboxEntry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return - cursor of the next page, or -1 if there are no older notifications.
+     */
+    public long getNext() {
+        return next;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.inbox;
+
+import com.github.grundic.browser.notificator.notifier.EventType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Filter and page of an inbox read. Time bounds are inclusive, in milliseconds since epoch.
+ */
+public final class InboxQuery {
+    private final String project;
+    private final Set<EventType> types;
+    private final long from;
+    private final long to;
+    private final long before;
+    private final int limit;
+
+    /**
+     * @param project - external id of a project, notifications of its subprojects match too; null for any.
+     * @param types - event types to return, empty for any.
+     * @param from - oldest notification to return.
+     * @param to - newest notification to return.
+     * @param before - cursor from the previous page, {@link Long#MAX_VALUE} to start from the newest notification.
+     * @param limit - maximum number of notifications to return.
+     */
+    public InboxQuery(@Nullable String project, @NotNull Set<EventType> types, long from, long to, long before, int limit) {
+        this.project = project;
+        this.types = types;
+        this.from = from;
+        this.to = to;
+        this.before = before;
+        this.limit = limit;
+    }
+
+    /**
+     * @return - the newest notifications of any kind.
+     */
+    @NotNull
+    public static InboxQuery latest(int limit) {
+        return new InboxQuery(null, Collections.<EventType>emptySet(), 0, Long.MAX_VALUE, Long.MAX_VALUE, limit);
+    }
+
+    public long getFrom() {
+        return from;
+    }
+
+    public long getBefore() {
+        return before;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    boolean matches(@NotNull InboxEntry entry) {
+        if (entry.getCreatedAt() > to) {
+            return false;
+        }
+
+        if (!types.isEmpty() && (null == entry.getType() || !types.contains(entry.getType()))) {
+            return false;
+        }
+
+        return null == project || entry.getProjects().contains(project);
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.inbox;
+
+import com.github.grundic.browser.notificator.Constants;
+import com.github.grundic.browser.notificator.NotificationFrame;
+import com.github.grundic.browser.notificator.metrics.DeliveryMetrics;
+import com.github.grundic.browser.notificator.notifier.EventScope;
+import com.github.grundic.browser.notificator.websocket.BroadcastListener;
+import com.github.grundic.browser.notificator.websocket.NotificationEndpoint;
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.serverSide.ServerPaths;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.users.SUser;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps every notification sent from this node, so users can look through ones they missed.
+ * <p>
+ * Notifications are stored in an {@link InboxLog} in the plugin data directory and survive server restarts. Nodes of
+ * a multi-node installation share that directory, so each one keeps its inbox in a subdirectory named by
+ * {@link Constants#RELAY_NODE_ID}; a node that finds the directory locked by another process keeps no inbox. The
+ * broadcast path only puts notifications into a bounded queue, a background thread writes them in batches; when the
+ * queue is full notifications are not stored and counted as dropped. Notifications older than
+ * {@link Constants#INBOX_RETENTION} are deleted. Enabled unless {@link Constants#INBOX_ENABLED} is set to false.
+ */
+public class NotificationInbox implements BroadcastListener, DisposableBean {
+    private static final Logger LOG = Logger.getInstance(NotificationInbox.class.getName());
+
+    private static final long FLUSH_MILLIS = 200;
+    private static final long RETENTION_CHECK_MILLIS = 60 * 60 * 1000;
+    // bounds the cost of a page when few notifications match the filter
+    private static final int MAX_SCANNED = 10000;
+
+    private final DeliveryMetrics metrics;
+    private final File directory;
+    private final int segmentBytes;
+    private final long retentionMillis;
+    private final long maxBytes;
+    private final BlockingQueue<Pending> queue;
+    private final ScheduledExecutorService writer;
+
+    private volatile InboxLog log;
+    private long lastCreatedAt;
+
+    public NotificationInbox(
+            @NotNull NotificationEndpoint notificationEndpoint,
+            @NotNull ServerPaths serverPaths,
+            @NotNull DeliveryMetrics metrics
+    ) {
+        this.metrics = metrics;
+        final File root = new File(serverPaths.getPluginDataDirectory(), Constants.PLUGIN_TYPE + File.separator + "inbox");
+        final String nodeId = TeamCityProperties.getPropertyOrNull(Constants.RELAY_NODE_ID);
+        this.directory = (null == nodeId) ? root : new File(root, nodeId.replaceAll("[^A-Za-z0-9._-]", "_"));
+        this.segmentBytes = Math.max(64 * 1024, TeamCityProperties.getInteger(Constants.INBOX_SEGMENT_BYTES, Constants.DEFAULT_INBOX_SEGMENT_BYTES));
+        this.retentionMillis = TeamCityProperties.getLong(Constants.INBOX_RETENTION, Constants.DEFAULT_INBOX_RETENTION);
+        this.maxBytes = TeamCityProperties.getLong(Constants.INBOX_MAX_BYTES, Constants.DEFAULT_INBOX_MAX_BYTES);
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, TeamCityProperties.getInteger(Constants.INBOX_QUEUE_SIZE, Constants.DEFAULT_INBOX_QUEUE_SIZE)));
+
+        if (!TeamCityProperties.getBooleanOrTrue(Constants.INBOX_ENABLED)) {
+            this.writer = null;
+            return;
+        }
+
+        this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Browser notifier inbox");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // reading existing segments can take a while, don't hold up server startup
+        writer.execute(this::open);
+        writer.scheduleWithFixedDelay(this::flush, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+        writer.scheduleWithFixedDelay(this::deleteOld, RETENTION_CHECK_MILLIS, RETENTION_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+
+        notificationEndpoint.addBroadcastListener(this);
+    }
+
+    @Override
+    public void onBroadcast(@NotNull NotificationFrame frame, @NotNull Set<SUser> users) {
+        if (users.isEmpty()) {
+            return;
+        }
+
+        final long[] recipients = new long[users.size()];
+        int count = 0;
+        for (SUser user : users) {
+            recipients[count++] = user.getId();
+        }
+
+        if (!queue.offer(new Pending(System.currentTimeMillis(), frame, recipients))) {
+            metrics.recordInboxDropped();
+        }
+    }
+
+    /**
+     * @param userId - id of the user.
+     * @param query - filter and page.
+     * @return - notifications sent to the user, newest first.
+     */
+    @NotNull
+    public InboxPage read(long userId, @NotNull InboxQuery query) {
+        final InboxLog current = log;
+        return (null == current)
+                ? new InboxPage(Collections.<InboxEntry>emptyList(), -1)
+                : current.read(userId, query, MAX_SCANNED);
+    }
+
+    public boolean isEnabled() {
+        return null != writer;
+    }
+
+    @Override
+    public void destroy() {
+        if (null == writer) {
+            return;
+        }
+
+        writer.shutdown();
+        try {
+            if (writer.awaitTermination(5, TimeUnit.SECONDS)) {
+                flush();
+                if (null != log) {
+                    log.close();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void open() {
+        try {
+            final long started = System.currentTimeMillis();
+            final InboxLog opened = new InboxLog(directory, segmentBytes);
+            opened.deleteOld(System.currentTimeMillis() - retentionMillis, maxBytes);
+            lastCreatedAt = opened.getLastCreatedAt();
+            log = opened;
+            LOG.info(String.format("Browser notifier inbox of %d users is loaded in %d ms",
+                    opened.getUserCount(), System.currentTimeMillis() - started));
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Failed to open browser notifier inbox in " + directory + ", notifications will not be kept", e);
+        }
+    }
+
+    private void flush() {
+        final List<Pending> batch = new ArrayList<>();
+        queue.drainTo(batch);
+        if (null == log) {
+            // not opened yet or failed to, nothing can be kept anyway
+            return;
+        }
+
+        for (Pending pending : batch) {
+            final EventScope scope = pending.frame.getScope();
+            // offsets are ordered by time, so reads can stop at the start of the requested range
+            final long createdAt = Math.max(pending.createdAt, lastCreatedAt);
+            try {
+                final long offset = log.append(
+                        createdAt,
+                        (null == scope) ? null : scope.getType(),
+                        (null == scope) ? Collections.<String>emptyList() : scope.getProjects(),
+                        // encoded by the writer, off the broadcast path
+                        pending.frame.toJson(),
+                        pending.recipients
+                );
+                if (offset < 0) {
+                    metrics.recordInboxDropped();
+                    LOG.warn(String.format("Notification for %d users doesn't fit into an inbox segment of %d bytes",
+                            pending.recipients.length, segmentBytes));
+                }
+                lastCreatedAt = createdAt;
+            } catch (IOException | RuntimeException e) {
+                metrics.recordInboxDropped();
+                LOG.warn("Failed to write notification to the inbox", e);
+            }
+        }
+    }
+
+    private void deleteOld() {
+        if (null != log) {
+            log.deleteOld(System.currentTimeMillis() - retentionMillis, maxBytes);
+        }
+    }
+
+    private static final class Pending {
+        private final long createdAt;
+        private final NotificationFrame frame;
+        private final long[] recipients;
+
+        Pending(long createdAt, @NotNull NotificationFrame frame, @NotNull long[] recipients) {
+            this.createdAt = createdAt;
+            this.frame = frame;
+            this.recipients = recipients;
+        }
+
+    }
+}
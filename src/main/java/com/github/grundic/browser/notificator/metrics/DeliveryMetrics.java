@@ -0,0 +1,578 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.metrics;
+
+import com.github.grundic.browser.notificator.notifier.BuildDetails;
+import com.github.grundic.browser.notificator.notifier.EventType;
+import com.github.grundic.browser.notificator.notifier.PreferencesCache;
+import com.github.grundic.browser.notificator.websocket.Priority;
+import com.github.grundic.browser.notificator.websocket.SessionRegistry;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.DisposableBean;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms of notification delivery, since server start.
+ * <p>
+ * Published as JMX bean {@value #OBJECT_NAME} and as JSON by {@link com.github.grundic.browser.notificator.web.MetricsController}. Recording is lock-free
+ * and never allocates, so it is safe on the broadcast path.
+ */
+public class DeliveryMetrics implements DeliveryMetricsMXBean, DisposableBean {
+    private final Logger LOG = Logger.getInstance(DeliveryMetrics.class.getName());
+
+    public static final String OBJECT_NAME = "com.github.grundic.browser.notificator:type=DeliveryMetrics";
+
+    private final SessionRegistry sessionRegistry;
+    private final PreferencesCache preferences;
+    private final BuildDetails buildDetails;
+
+    private final AtomicLongArray events = new AtomicLongArray(EventType.values().length);
+    private final AtomicLongArray summaries = new AtomicLongArray(EventType.values().length);
+    private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+    private final LatencyHistogram[] laneLatency = new LatencyHistogram[Priority.values().length];
+    private final AtomicLongArray laneDropped = new AtomicLongArray(Priority.values().length);
+    private final AtomicLongArray laneExpired = new AtomicLongArray(Priority.values().length);
+    private final LatencyHistogram broadcastDuration = new LatencyHistogram();
+    private final LatencyHistogram pipelineOccupancy = new LatencyHistogram();
+
+    private final AtomicLong pipelinePublished = new AtomicLong();
+    private final AtomicLong pipelineReleased = new AtomicLong();
+    private final AtomicLong pipelineStalls = new AtomicLong();
+    private final AtomicLong messagesSent = new AtomicLong();
+    private final AtomicLong framesSent = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+    private final AtomicLong sendFailures = new AtomicLong();
+    private final AtomicLong droppedMessages = new AtomicLong();
+    private final AtomicLong evictedSessions = new AtomicLong();
+    private final AtomicLong rejectedSessions = new AtomicLong();
+    private final AtomicLong throttledSessions = new AtomicLong();
+    private final AtomicLong socketErrors = new AtomicLong();
+    private final AtomicLong listenerFailures = new AtomicLong();
+    private final AtomicLong inboxDropped = new AtomicLong();
+    private final AtomicLong relayFailures = new AtomicLong();
+    private final AtomicLong presenceSkipped = new AtomicLong();
+    private final AtomicLong pushesSent = new AtomicLong();
+    private final AtomicLong pushBytesSent = new AtomicLong();
+    private final AtomicLong pushFailures = new AtomicLong();
+    private final AtomicLong pushSubscriptionsGone = new AtomicLong();
+    private final AtomicLong pushOversized = new AtomicLong();
+    private final AtomicLong pushDropped = new AtomicLong();
+
+    private ObjectName objectName;
+
+    public DeliveryMetrics(
+            @NotNull SessionRegistry sessionRegistry,
+            @NotNull PreferencesCache preferences,
+            @NotNull BuildDetails buildDetails
+    ) {
+        this.sessionRegistry = sessionRegistry;
+        this.preferences = preferences;
+        this.buildDetails = buildDetails;
+        for (int i = 0; i < laneLatency.length; i++) {
+            laneLatency[i] = new LatencyHistogram();
+        }
+
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+                objectName = name;
+            }
+        } catch (JMException e) {
+            LOG.warn("Failed to register Browser Notifier metrics in JMX", e);
+        }
+    }
+
+    public void recordEvent(@NotNull EventType type) {
+        events.incrementAndGet(type.ordinal());
+    }
+
+    public void recordSummary(@NotNull EventType type) {
+        summaries.incrementAndGet(type.ordinal());
+    }
+
+    /**
+     * @param priority - lane the notification went through.
+     * @param nanos - time from creation of the notification until its write to a socket completed.
+     */
+    public void recordDelivery(@NotNull Priority priority, long nanos) {
+        final long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        deliveryLatency.record(micros);
+        laneLatency[priority.ordinal()].record(micros);
+    }
+
+    /**
+     * @param nanos - time spent queueing one notification to all its recipients.
+     */
+    public void recordBroadcast(long nanos) {
+        broadcastDuration.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    /**
+     * @param occupancy - events in the pipeline ring, including the one just published.
+     */
+    public void recordPipelinePublished(long occupancy) {
+        pipelinePublished.incrementAndGet();
+        pipelineOccupancy.record(occupancy);
+    }
+
+    /**
+     * All pipeline consumers are done with an event.
+     */
+    public void recordPipelineReleased() {
+        pipelineReleased.incrementAndGet();
+    }
+
+    /**
+     * A notificator callback had to wait, because the pipeline ring was full.
+     */
+    public void recordPipelineStall() {
+        pipelineStalls.incrementAndGet();
+    }
+
+    /**
+     * @param messages - number of messages packed in the frame.
+     * @param bytes - payload size of the frame.
+     */
+    public void recordSent(int messages, long bytes) {
+        messagesSent.addAndGet(messages);
+        framesSent.incrementAndGet();
+        bytesSent.addAndGet(bytes);
+    }
+
+    /**
+     * @param sessions - connections of a user that didn't get a notification, because the user was active in another.
+     */
+    public void recordPresenceSkipped(int sessions) {
+        presenceSkipped.addAndGet(sessions);
+    }
+
+    public void recordSaved(long bytes) {
+        bytesSaved.addAndGet(bytes);
+    }
+
+    public void recordSendFailure() {
+        sendFailures.incrementAndGet();
+    }
+
+    /**
+     * @param priority - lane of the message discarded because the queue was full.
+     */
+    public void recordDropped(@NotNull Priority priority) {
+        droppedMessages.incrementAndGet();
+        laneDropped.incrementAndGet(priority.ordinal());
+    }
+
+    /**
+     * @param priority - lane of the message discarded because it waited for too long.
+     */
+    public void recordExpired(@NotNull Priority priority) {
+        laneExpired.incrementAndGet(priority.ordinal());
+    }
+
+    public void recordEviction() {
+        evictedSessions.incrementAndGet();
+    }
+
+    public void recordRejected() {
+        rejectedSessions.incrementAndGet();
+    }
+
+    public void recordThrottled() {
+        throttledSessions.incrementAndGet();
+    }
+
+    public void recordSocketError() {
+        socketErrors.incrementAndGet();
+    }
+
+    public void recordListenerFailure() {
+        listenerFailures.incrementAndGet();
+    }
+
+    public void recordInboxDropped() {
+        inboxDropped.incrementAndGet();
+    }
+
+    /**
+     * Batch of notifications could not be handed over to another node; it is retried on the next exchange.
+     */
+    public void recordRelayFailure() {
+        relayFailures.incrementAndGet();
+    }
+
+    /**
+     * @param bytes - encrypted payload accepted by a push service.
+     */
+    public void recordPush(long bytes) {
+        pushesSent.incrementAndGet();
+        pushBytesSent.addAndGet(bytes);
+    }
+
+    public void recordPushFailure() {
+        pushFailures.incrementAndGet();
+    }
+
+    /**
+     * Push service reported that the subscription no longer exists.
+     */
+    public void recordPushSubscriptionGone() {
+        pushSubscriptionsGone.incrementAndGet();
+    }
+
+    /**
+     * Notification did not fit into a push message and was not pushed.
+     */
+    public void recordPushOversized() {
+        pushOversized.incrementAndGet();
+    }
+
+    /**
+     * Push request was not queued, as too many are waiting for a push service already.
+     */
+    public void recordPushDropped() {
+        pushDropped.incrementAndGet();
+    }
+
+    @Override
+    public int getSessionCount() {
+        return sessionRegistry.getSessionCount();
+    }
+
+    @Override
+    public int getPeakSessionCount() {
+        return sessionRegistry.getPeakSessionCount();
+    }
+
+    @Override
+    public int getUserCount() {
+        return sessionRegistry.getUserCount();
+    }
+
+    @Override
+    public Map<String, Long> getEventCounts() {
+        return byEventType(events);
+    }
+
+    @Override
+    public Map<String, Long> getSummaryCounts() {
+        return byEventType(summaries);
+    }
+
+    @Override
+    public Map<String, Long> getDeliveryLatency() {
+        return deliveryLatency.getSummary();
+    }
+
+    @Override
+    public Map<String, Long> getHighPriorityLatency() {
+        return laneLatency[Priority.HIGH.ordinal()].getSummary();
+    }
+
+    @Override
+    public Map<String, Long> getNormalPriorityLatency() {
+        return laneLatency[Priority.NORMAL.ordinal()].getSummary();
+    }
+
+    @Override
+    public Map<String, Long> getLowPriorityLatency() {
+        return laneLatency[Priority.LOW.ordinal()].getSummary();
+    }
+
+    @Override
+    public Map<String, Long> getDroppedByPriority() {
+        return byPriority(laneDropped);
+    }
+
+    @Override
+    public Map<String, Long> getExpiredByPriority() {
+        return byPriority(laneExpired);
+    }
+
+    @Override
+    public Map<String, Long> getBroadcastDuration() {
+        return broadcastDuration.getSummary();
+    }
+
+    @Override
+    public long getPipelineBacklog() {
+        return pipelinePublished.get() - pipelineReleased.get();
+    }
+
+    @Override
+    public Map<String, Long> getPipelineOccupancy() {
+        return pipelineOccupancy.getSummary();
+    }
+
+    @Override
+    public long getPipelineStalls() {
+        return pipelineStalls.get();
+    }
+
+    @Override
+    public long getMessagesSent() {
+        return messagesSent.get();
+    }
+
+    @Override
+    public long getFramesSent() {
+        return framesSent.get();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    @Override
+    public long getBytesSaved() {
+        return bytesSaved.get();
+    }
+
+    @Override
+    public long getSendFailures() {
+        return sendFailures.get();
+    }
+
+    @Override
+    public long getDroppedMessages() {
+        return droppedMessages.get();
+    }
+
+    @Override
+    public long getEvictedSessions() {
+        return evictedSessions.get();
+    }
+
+    @Override
+    public long getRejectedSessions() {
+        return rejectedSessions.get();
+    }
+
+    @Override
+    public long getThrottledSessions() {
+        return throttledSessions.get();
+    }
+
+    @Override
+    public long getSocketErrors() {
+        return socketErrors.get();
+    }
+
+    @Override
+    public long getListenerFailures() {
+        return listenerFailures.get();
+    }
+
+    @Override
+    public long getPresenceSkipped() {
+        return presenceSkipped.get();
+    }
+
+    @Override
+    public long getInboxDropped() {
+        return inboxDropped.get();
+    }
+
+    @Override
+    public long getRelayFailures() {
+        return relayFailures.get();
+    }
+
+    @Override
+    public long getPushesSent() {
+        return pushesSent.get();
+    }
+
+    @Override
+    public long getPushBytesSent() {
+        return pushBytesSent.get();
+    }
+
+    @Override
+    public long getPushFailures() {
+        return pushFailures.get();
+    }
+
+    @Override
+    public long getPushSubscriptionsGone() {
+        return pushSubscriptionsGone.get();
+    }
+
+    @Override
+    public long getPushOversized() {
+        return pushOversized.get();
+    }
+
+    @Override
+    public long getPushDropped() {
+        return pushDropped.get();
+    }
+
+    @Override
+    public long getPreferencesCacheHits() {
+        return preferences.getHits();
+    }
+
+    @Override
+    public long getPreferencesCacheMisses() {
+        return preferences.getMisses();
+    }
+
+    @Override
+    public long getDetailCacheHits() {
+        return buildDetails.getHits();
+    }
+
+    @Override
+    public long getDetailCacheMisses() {
+        return buildDetails.getMisses();
+    }
+
+    /**
+     * @return - all metrics as one JSON object.
+     */
+    @NotNull
+    public JsonObject toJson() {
+        final Gson gson = new Gson();
+
+        JsonObject sessions = new JsonObject();
+        sessions.addProperty("live", getSessionCount());
+        sessions.addProperty("peak", getPeakSessionCount());
+        sessions.addProperty("users", getUserCount());
+        sessions.addProperty("evicted", getEvictedSessions());
+        sessions.addProperty("rejected", getRejectedSessions());
+        sessions.addProperty("throttled", getThrottledSessions());
+
+        JsonObject pipeline = new JsonObject();
+        pipeline.addProperty("backlog", getPipelineBacklog());
+        pipeline.add("occupancy", gson.toJsonTree(getPipelineOccupancy()));
+        pipeline.addProperty("stalls", getPipelineStalls());
+
+        JsonObject traffic = new JsonObject();
+        traffic.addProperty("messagesSent", getMessagesSent());
+        traffic.addProperty("framesSent", getFramesSent());
+        traffic.addProperty("bytesSent", getBytesSent());
+        traffic.addProperty("bytesSaved", getBytesSaved());
+        traffic.addProperty("skippedByPresence", getPresenceSkipped());
+
+        JsonObject failures = new JsonObject();
+        failures.addProperty("send", getSendFailures());
+        failures.addProperty("dropped", getDroppedMessages());
+        failures.addProperty("socket", getSocketErrors());
+        failures.addProperty("listener", getListenerFailures());
+        failures.addProperty("inbox", getInboxDropped());
+        failures.addProperty("relay", getRelayFailures());
+
+        JsonObject lanes = new JsonObject();
+        for (Priority priority : Priority.values()) {
+            JsonObject lane = new JsonObject();
+            lane.add("latencyMicros", gson.toJsonTree(laneLatency[priority.ordinal()].getSummary()));
+            lane.addProperty("dropped", laneDropped.get(priority.ordinal()));
+            lane.addProperty("expired", laneExpired.get(priority.ordinal()));
+            lanes.add(priority.name(), lane);
+        }
+
+        JsonObject push = new JsonObject();
+        push.addProperty("sent", getPushesSent());
+        push.addProperty("bytesSent", getPushBytesSent());
+        push.addProperty("failures", getPushFailures());
+        push.addProperty("subscriptionsGone", getPushSubscriptionsGone());
+        push.addProperty("oversized", getPushOversized());
+        push.addProperty("dropped", getPushDropped());
+
+        JsonObject cache = new JsonObject();
+        cache.addProperty("hits", getPreferencesCacheHits());
+        cache.addProperty("misses", getPreferencesCacheMisses());
+
+        JsonObject detailCache = new JsonObject();
+        detailCache.addProperty("size", buildDetails.getSize());
+        detailCache.addProperty("hits", getDetailCacheHits());
+        detailCache.addProperty("misses", getDetailCacheMisses());
+
+        JsonObject json = new JsonObject();
+        json.add("sessions", sessions);
+        json.add("events", gson.toJsonTree(getEventCounts()));
+        json.add("summaries", gson.toJsonTree(getSummaryCounts()));
+        json.add("deliveryLatencyMicros", gson.toJsonTree(getDeliveryLatency()));
+        json.add("broadcastDurationMicros", gson.toJsonTree(getBroadcastDuration()));
+        json.add("pipeline", pipeline);
+        json.add("lanes", lanes);
+        json.add("traffic", traffic);
+        json.add("failures", failures);
+        json.add("push", push);
+        json.add("preferencesCache", cache);
+        json.add("detailCache", detailCache);
+
+        return json;
+    }
+
+    @NotNull
+    private static Map<String, Long> byEventType(@NotNull AtomicLongArray counters) {
+        final Map<String, Long> counts = new LinkedHashMap<>();
+        for (EventType type : EventType.values()) {
+            counts.put(type.name(), counters.get(type.ordinal()));
+        }
+
+        return counts;
+    }
+
+    @NotNull
+    private static Map<String, Long> byPriority(@NotNull AtomicLongArray counters) {
+        final Map<String, Long> counts = new LinkedHashMap<>();
+        for (Priority priority : Priority.values()) {
+            counts.put(priority.name(), counters.get(priority.ordinal()));
+        }
+
+        return counts;
+    }
+
+    @Override
+    public void destroy() {
+        if (null == objectName) {
+            return;
+        }
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            LOG.debug(e);
+        }
+    }
+}
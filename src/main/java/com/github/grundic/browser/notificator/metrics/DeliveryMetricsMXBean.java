@@ -0,0 +1,116 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.metrics;
+
+import java.util.Map;
+
+/**
+ * Browser Notifier delivery statistics, as seen in JMX consoles. Durations are in microseconds.
+ */
+public interface DeliveryMetricsMXBean {
+    int getSessionCount();
+
+    int getPeakSessionCount();
+
+    int getUserCount();
+
+    Map<String, Long> getEventCounts();
+
+    Map<String, Long> getSummaryCounts();
+
+    Map<String, Long> getDeliveryLatency();
+
+    Map<String, Long> getHighPriorityLatency();
+
+    Map<String, Long> getNormalPriorityLatency();
+
+    Map<String, Long> getLowPriorityLatency();
+
+    Map<String, Long> getDroppedByPriority();
+
+    Map<String, Long> getExpiredByPriority();
+
+    Map<String, Long> getBroadcastDuration();
+
+    /**
+     * @return - events handed over by notificator callbacks and not yet delivered.
+     */
+    long getPipelineBacklog();
+
+    /**
+     * @return - distribution of the number of events in the pipeline ring, sampled as events are published.
+     */
+    Map<String, Long> getPipelineOccupancy();
+
+    long getPipelineStalls();
+
+    long getMessagesSent();
+
+    long getFramesSent();
+
+    long getBytesSent();
+
+    long getBytesSaved();
+
+    long getPresenceSkipped();
+
+    long getSendFailures();
+
+    long getDroppedMessages();
+
+    long getEvictedSessions();
+
+    long getRejectedSessions();
+
+    long getThrottledSessions();
+
+    long getSocketErrors();
+
+    long getListenerFailures();
+
+    long getInboxDropped();
+
+    long getRelayFailures();
+
+    long getPushesSent();
+
+    long getPushBytesSent();
+
+    long getPushFailures();
+
+    long getPushSubscriptionsGone();
+
+    long getPushOversized();
+
+    long getPushDropped();
+
+    long getPreferencesCacheHits();
+
+    long getPreferencesCacheMisses();
+
+    long getDetailCacheHits();
+
+    long getDetailCacheMisses();
+}
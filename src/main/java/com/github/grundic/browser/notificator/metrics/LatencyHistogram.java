@@ -0,0 +1,132 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations in microseconds, with buckets laid out the way HdrHistogram does it: values
+ * below 128 are counted exactly, larger values go to one of 64 linear sub-buckets of their power of two, which
+ * keeps every percentile within 1.6% of the recorded value. Values above one hour are counted as one hour.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1;
+    private static final long MAX_VALUE = TimeUnit.HOURS.toMicros(1);
+
+    private final AtomicLongArray buckets = new AtomicLongArray(indexOf(MAX_VALUE) + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param micros - measured duration.
+     */
+    public void record(long micros) {
+        final long value = Math.max(0, Math.min(micros, MAX_VALUE));
+        buckets.incrementAndGet(indexOf(value));
+        sum.addAndGet(value);
+        max.accumulateAndGet(value, Math::max);
+        count.incrementAndGet();
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getMean() {
+        final long total = count.get();
+        return (0 == total) ? 0 : sum.get() / total;
+    }
+
+    /**
+     * @param percentile - percentile to compute, from 0 to 100.
+     * @return - highest value of the bucket holding the percentile, 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        final long total = count.get();
+        if (0 == total) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValueAt(i), max.get());
+            }
+        }
+
+        return max.get();
+    }
+
+    /**
+     * @return - count, mean, common percentiles and maximum, in microseconds.
+     */
+    @NotNull
+    public Map<String, Long> getSummary() {
+        final Map<String, Long> summary = new LinkedHashMap<>();
+        summary.put("count", getCount());
+        summary.put("mean", getMean());
+        summary.put("p50", getValueAtPercentile(50));
+        summary.put("p90", getValueAtPercentile(90));
+        summary.put("p99", getValueAtPercentile(99));
+        summary.put("p999", getValueAtPercentile(99.9));
+        summary.put("max", getMax());
+
+        return summary;
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+
+        final int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKET_HALF + (int) (value >>> shift);
+    }
+
+    static long highestValueAt(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        final int shift = index / SUB_BUCKET_HALF - 1;
+        final long lowest = (long) (index - shift * SUB_BUCKET_HALF) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
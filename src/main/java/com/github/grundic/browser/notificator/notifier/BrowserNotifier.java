@@ -25,8 +25,6 @@
 package com.github.grundic.browser.notificator.notifier;
 
 import com.github.grundic.browser.notificator.Constants;
-import com.github.grundic.browser.notificator.MessageBean;
-import com.github.grundic.browser.notificator.websocket.NotificationEndpoint;
 import jetbrains.buildServer.Build;
 import jetbrains.buildServer.notification.Notificator;
 import jetbrains.buildServer.notification.NotificatorRegistry;
@@ -53,80 +51,19 @@ import java.util.Set;
  */
 public class BrowserNotifier implements Notificator {
 
-    private final NotificationEndpoint notificationEndpoint;
-
-    private enum Icon {
-        ABORTED,
-        FAILED,
-        HANGING,
-        MUTE,
-        RESPONSIBILITY_CHANGED,
-        STARTED,
-        SUCCESSFUL,
-        UNMUTE,
-        YOU_ARE_RESPONSIBLE
-    }
+    private final NotificationPipeline pipeline;
 
     public BrowserNotifier(
             @NotNull NotificatorRegistry notificatorRegistry,
-            @NotNull NotificationEndpoint notificationEndpoint
+            @NotNull NotificationPipeline pipeline
     ) {
         ArrayList<UserPropertyInfo> userProps = new ArrayList<>();
         userProps.add(new UserPropertyInfo(Constants.NOTIFICATION_TIMEOUT, "Notification timeout."));
 
-        this.notificationEndpoint = notificationEndpoint;
+        this.pipeline = pipeline;
         notificatorRegistry.register(this, userProps);
     }
 
-    private String getIcon(Icon icon) {
-        return icon.toString().toLowerCase().replace('_', '-') + ".png";
-    }
-
-    private MessageBean getMessage(@NotNull String status, @NotNull Icon icon, @NotNull Build build) {
-        MessageBean message = new MessageBean();
-        message.title = status;
-        message.icon = getIcon(icon);
-        message.body = String.format("%s [%s]", build.getFullName(), build.getBuildNumber());
-        message.md5Tag();
-        message.url = String.format("/viewType.html?buildTypeId=%s", build.getBuildTypeExternalId());
-
-        return message;
-    }
-
-    private MessageBean getMessage(@NotNull String status, @NotNull Icon icon, @NotNull SBuildType buildType) {
-        MessageBean message = new MessageBean();
-        message.title = status;
-        message.icon = getIcon(icon);
-        message.body = String.format("%s", buildType.getFullName());
-        message.md5Tag();
-        message.url = String.format("/viewType.html?buildTypeId=%s", buildType.getExternalId());
-
-        return message;
-    }
-
-    private MessageBean getMessage(@NotNull String status, @NotNull Icon icon, @NotNull SProject project) {
-        MessageBean message = new MessageBean();
-        message.title = status;
-        message.icon = getIcon(icon);
-        message.body = String.format("%s", project.getFullName());
-        message.md5Tag();
-        message.url = String.format("/project.html?projectId=%s", project.getExternalId());
-
-        return message;
-    }
-
-    private MessageBean getMessage(@NotNull String status, @NotNull Icon icon, @NotNull MuteInfo muteInfo) {
-        MessageBean message = new MessageBean();
-        message.title = status;
-        message.icon = getIcon(icon);
-        SProject project = muteInfo.getProject();
-        message.body = (null == project) ? "<unknown>" : project.getFullName();
-        message.md5Tag();
-        message.url = (null == project) ? "/" : String.format("/project.html?projectId=%s", project.getExternalId());
-
-        return message;
-    }
-
     @NotNull
     @Override
     public String getNotificatorType() {
@@ -141,56 +78,47 @@ public class BrowserNotifier implements Notificator {
 
     @Override
     public void notifyBuildStarted(@NotNull SRunningBuild build, @NotNull Set<SUser> users) {
-        final MessageBean message = getMessage("Build started", Icon.STARTED, build);
-        notificationEndpoint.broadcast(message, users);
+        pipeline.publish(MessageTemplate.BUILD_STARTED, build, users);
     }
 
     @Override
     public void notifyBuildSuccessful(@NotNull SRunningBuild build, @NotNull Set<SUser> users) {
-        final MessageBean message = getMessage("Build successful", Icon.SUCCESSFUL, build);
-        notificationEndpoint.broadcast(message, users);
+        pipeline.publish(MessageTemplate.BUILD_SUCCESSFUL, build, users);
     }
 
     @Override
     public void notifyBuildFailed(@NotNull SRunningBuild build, @NotNull Set<SUser> users) {
-        final MessageBean message = getMessage("Build failed", Icon.FAILED, build);
-        notificationEndpoint.broadcast(message, users);
+        pipeline.publish(MessageTemplate.BUILD_FAILED, build, users);
     }
 
     @Override
     public void notifyBuildFailedToStart(@NotNull SRunningBuild build, @NotNull Set<SUser> users) {
-        final MessageBean message = getMessage("Build failed to start", Icon.ABORTED, build);
-        notificationEndpoint.broadcast(message, users);
+        pipeline.publish(MessageTemplate.BUILD_FAILED_TO_START, build, users);
     }
 
     @Override
     public void notifyLabelingFailed(@NotNull Build build, @NotNull VcsRoot root, @NotNull Throwable exception, @NotNull Set<SUser> users) {
-        final MessageBean message = getMessage("Labeling failed", Icon.ABORTED, build);
-        notificationEndpoint.broadcast(message, users);
+        pipeline.publish(MessageTemplate.LABELING_FAILED, build, users);
     }
 
     @Override
     public void notifyBuildFailing(@NotNull SRunningBuild build, @NotNull Set<SUser> users) {
-        final MessageBean message = getMessage("Build is failing", Icon.FAILED, build);
-        notificationEndpoint.broadcast(message, users);
+        pipeline.publish(MessageTemplate.BUILD_FAILING, build, users);
     }
 
     @Override
     public void notifyBuildProbablyHanging(@NotNull SRunningBuild build, @NotNull Set<SUser> users) {
-        final MessageBean message = getMessage("Build probably hanging", Icon.HANGING, build);
-        notificationEndpoint.broadcast(message, users);
+        pipeline.publish(MessageTemplate.BUILD_HANGING, build, users);
     }
 
     @Override
     public void notifyResponsibleChanged(@NotNull SBuildType buildType, @NotNull Set<SUser> users) {
-        final MessageBean message = getMessage("Responsibility for configuration changed", Icon.RESPONSIBILITY_CHANGED, buildType);
-        notificationEndpoint.broadcast(message, users);
+        pipeline.publish(MessageTemplate.RESPONSIBLE_CHANGED, buildType, users);
     }
 
     @Override
     public void notifyResponsibleAssigned(@NotNull SBuildType buildType, @NotNull Set<SUser> users) {
-        final MessageBean message = getMessage("You were assigned as responsible for build", Icon.YOU_ARE_RESPONSIBLE, buildType);
-        notificationEndpoint.broadcast(message, users);
+        pipeline.publish(MessageTemplate.RESPONSIBLE_ASSIGNED, buildType, users);
     }
 
     @Override
@@ -200,8 +128,7 @@ public class BrowserNotifier implements Notificator {
             @NotNull SProject project,
             @NotNull Set<SUser> users
     ) {
-        final MessageBean message = getMessage("Responsibility for test changed", Icon.RESPONSIBILITY_CHANGED, project);
-        notificationEndpoint.broadcast(message, users);
+        pipeline.publish(MessageTemplate.TEST_RESPONSIBLE_CHANGED, project, 0, users);
     }
 
     @Override
@@ -211,8 +138,7 @@ public class BrowserNotifier implements Notificator {
             @NotNull SProject project,
             @NotNull Set<SUser> users
     ) {
-        final MessageBean message = getMessage("You were assigned as responsible for test", Icon.YOU_ARE_RESPONSIBLE, project);
-        notificationEndpoint.broadcast(message, users);
+        pipeline.publish(MessageTemplate.TEST_RESPONSIBLE_ASSIGNED, project, 0, users);
     }
 
     @Override
@@ -222,8 +148,7 @@ public class BrowserNotifier implements Notificator {
             @NotNull SProject project,
             @NotNull Set<SUser> users
     ) {
-        final MessageBean message = getMessage(String.format("Responsibility for %d tests changed", testNames.size()), Icon.RESPONSIBILITY_CHANGED, project);
-        notificationEndpoint.broadcast(message, users);
+        pipeline.publish(MessageTemplate.TESTS_RESPONSIBLE_CHANGED, project, testNames.size(), users);
     }
 
     @Override
@@ -233,8 +158,7 @@ public class BrowserNotifier implements Notificator {
             @NotNull SProject project,
             @NotNull Set<SUser> users
     ) {
-        final MessageBean message = getMessage(String.format("You were assigned as responsible for %d tests", testNames.size()), Icon.YOU_ARE_RESPONSIBLE, project);
-        notificationEndpoint.broadcast(message, users);
+        pipeline.publish(MessageTemplate.TESTS_RESPONSIBLE_ASSIGNED, project, testNames.size(), users);
     }
 
     @Override
@@ -244,8 +168,7 @@ public class BrowserNotifier implements Notificator {
             @NotNull SProject project,
             @NotNull Set<SUser> users
     ) {
-        final MessageBean message = getMessage(String.format("Responsibility for %d build problems is assigned", buildProblems.size()), Icon.RESPONSIBILITY_CHANGED, project);
-        notificationEndpoint.broadcast(message, users);
+        pipeline.publish(MessageTemplate.BUILD_PROBLEM_RESPONSIBLE_ASSIGNED, project, buildProblems.size(), users);
     }
 
     @Override
@@ -255,8 +178,7 @@ public class BrowserNotifier implements Notificator {
             @NotNull SProject project,
             @NotNull Set<SUser> users
     ) {
-        final MessageBean message = getMessage(String.format("Responsibility for %d build problems is changed", buildProblems.size()), Icon.RESPONSIBILITY_CHANGED, project);
-        notificationEndpoint.broadcast(message, users);
+        pipeline.publish(MessageTemplate.BUILD_PROBLEM_RESPONSIBLE_CHANGED, project, buildProblems.size(), users);
     }
 
     @Override
@@ -265,8 +187,7 @@ public class BrowserNotifier implements Notificator {
             @NotNull MuteInfo muteInfo,
             @NotNull Set<SUser> users
     ) {
-        final MessageBean message = getMessage(String.format("%d tests are muted", tests.size()), Icon.MUTE, muteInfo);
-        notificationEndpoint.broadcast(message, users);
+        pipeline.publish(MessageTemplate.TESTS_MUTED, muteInfo, tests.size(), users);
     }
 
     @Override
@@ -276,8 +197,7 @@ public class BrowserNotifier implements Notificator {
             @Nullable SUser user,
             @NotNull Set<SUser> users
     ) {
-        final MessageBean message = getMessage(String.format("%d tests are unmuted", tests.size()), Icon.UNMUTE, muteInfo);
-        notificationEndpoint.broadcast(message, users);
+        pipeline.publish(MessageTemplate.TESTS_UNMUTED, muteInfo, tests.size(), users);
     }
 
     @Override
@@ -286,8 +206,7 @@ public class BrowserNotifier implements Notificator {
             @NotNull MuteInfo muteInfo,
             @NotNull Set<SUser> users
     ) {
-        final MessageBean message = getMessage(String.format("%d problems are muted", buildProblems.size()), Icon.MUTE, muteInfo);
-        notificationEndpoint.broadcast(message, users);
+        pipeline.publish(MessageTemplate.BUILD_PROBLEMS_MUTED, muteInfo, buildProblems.size(), users);
     }
 
     @Override
@@ -297,8 +216,7 @@ public class BrowserNotifier implements Notificator {
             @Nullable SUser user,
             @NotNull Set<SUser> users
     ) {
-        final MessageBean message = getMessage(String.format("%d problems are unmuted", buildProblems.size()), Icon.UNMUTE, muteInfo);
-        notificationEndpoint.broadcast(message, users);
+        pipeline.publish(MessageTemplate.BUILD_PROBLEMS_UNMUTED, muteInfo, buildProblems.size(), users);
     }
 
 }
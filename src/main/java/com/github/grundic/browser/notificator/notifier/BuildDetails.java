@@ -0,0 +1,240 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.notifier;
+
+import com.github.grundic.browser.notificator.Constants;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import jetbrains.buildServer.Build;
+import jetbrains.buildServer.StatusDescriptor;
+import jetbrains.buildServer.serverSide.BuildStatistics;
+import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.serverSide.SBuildServer;
+import jetbrains.buildServer.serverSide.STestRun;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.users.SUser;
+import jetbrains.buildServer.vcs.SelectPrevBuildPolicy;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Failure reason, first failing tests and committers of a build, computed when someone opens a notification rather
+ * than for every recipient of it.
+ * <p>
+ * Notifications carry only the key from {@link #keyOf(Build)}. Computed details are cached by build id for a limited
+ * time, which also bounds how stale details of a running build get, and up to a limited number of builds, least
+ * recently used first out. Details of a build are computed once even if many recipients open it at the same time.
+ */
+public class BuildDetails {
+    private final SBuildServer buildServer;
+    // guarded by itself, completes with null if the build is gone
+    private final Map<Long, CompletableFuture<Detail>> cache;
+    private final int maxSize;
+    private final long ttlMillis;
+    private final int maxTests;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public BuildDetails(@NotNull SBuildServer buildServer) {
+        this.buildServer = buildServer;
+        this.maxSize = Math.max(1, TeamCityProperties.getInteger(Constants.DETAIL_CACHE_SIZE, Constants.DEFAULT_DETAIL_CACHE_SIZE));
+        this.ttlMillis = TeamCityProperties.getLong(Constants.DETAIL_CACHE_TTL, Constants.DEFAULT_DETAIL_CACHE_TTL);
+        this.maxTests = Math.max(0, TeamCityProperties.getInteger(Constants.DETAIL_MAX_TESTS, Constants.DEFAULT_DETAIL_MAX_TESTS));
+        this.cache = new LinkedHashMap<Long, CompletableFuture<Detail>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CompletableFuture<Detail>> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @param build - build the notification is about.
+     * @return - opaque key clients send back to get the details.
+     */
+    @NotNull
+    public static String keyOf(@NotNull Build build) {
+        return String.valueOf(build.getBuildId());
+    }
+
+    /**
+     * @param key - key from a notification.
+     * @return - details, or null if the key is malformed or the build is gone.
+     */
+    @Nullable
+    public Detail get(@NotNull String key) {
+        final long buildId;
+        try {
+            buildId = Long.parseLong(key);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        final long now = System.currentTimeMillis();
+        CompletableFuture<Detail> cached;
+        final CompletableFuture<Detail> loading = new CompletableFuture<>();
+        synchronized (cache) {
+            cached = cache.get(buildId);
+            if (null != cached && cached.isDone() && !isFresh(cached, now)) {
+                cached = null;
+            }
+            if (null == cached) {
+                cache.put(buildId, loading);
+            }
+        }
+
+        if (null != cached) {
+            // fresh, or being computed by another request
+            hits.incrementAndGet();
+            return await(cached);
+        }
+
+        misses.incrementAndGet();
+        try {
+            final SBuild build = buildServer.findBuildInstanceById(buildId);
+            final Detail detail = (null == build) ? null : compute(build, now + ttlMillis);
+            loading.complete(detail);
+            if (null == detail) {
+                forget(buildId, loading);
+            }
+            return detail;
+        } catch (RuntimeException e) {
+            loading.completeExceptionally(e);
+            forget(buildId, loading);
+            throw e;
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int getSize() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    @NotNull
+    private Detail compute(@NotNull SBuild build, long expiresAt) {
+        final JsonObject json = new JsonObject();
+        final StatusDescriptor status = build.getStatusDescriptor();
+        if (null != status && null != status.getText()) {
+            json.addProperty("status", status.getText());
+        }
+
+        final BuildStatistics statistics = build.getFullStatistics();
+        final int failedTestCount = statistics.getFailedTestCount();
+        if (failedTestCount > 0) {
+            final JsonArray tests = new JsonArray();
+            final List<STestRun> failedTests = statistics.getFailedTests();
+            for (int i = 0; i < failedTests.size() && i < maxTests; i++) {
+                tests.add(failedTests.get(i).getTest().getName().getAsString());
+            }
+            json.addProperty("failedTestCount", failedTestCount);
+            json.add("failedTests", tests);
+        }
+
+        final JsonArray committers = new JsonArray();
+        for (SUser user : build.getCommitters(SelectPrevBuildPolicy.SINCE_LAST_BUILD).getUsers()) {
+            committers.add(user.getDescriptiveName());
+        }
+        json.add("committers", committers);
+
+        return new Detail(build.getProjectId(), json.toString(), expiresAt);
+    }
+
+    private static boolean isFresh(@NotNull CompletableFuture<Detail> future, long now) {
+        if (future.isCompletedExceptionally()) {
+            return false;
+        }
+
+        final Detail detail = future.getNow(null);
+        return null != detail && detail.expiresAt > now;
+    }
+
+    @Nullable
+    private static Detail await(@NotNull CompletableFuture<Detail> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private void forget(long buildId, @NotNull CompletableFuture<Detail> future) {
+        synchronized (cache) {
+            cache.remove(buildId, future);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BuildDetails{size=%d, hits=%d, misses=%d}", getSize(), getHits(), getMisses());
+    }
+
+    public static final class Detail {
+        private final String projectId;
+        private final String json;
+        private final long expiresAt;
+
+        Detail(@NotNull String projectId, @NotNull String json, long expiresAt) {
+            this.projectId = projectId;
+            this.json = json;
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * @return - internal id of the project of the build, for checking permissions.
+         */
+        @NotNull
+        public String getProjectId() {
+            return projectId;
+        }
+
+        /**
+         * @return - encoded details, shared by everyone who asks.
+         */
+        @NotNull
+        public String getJson() {
+            return json;
+        }
+    }
+}
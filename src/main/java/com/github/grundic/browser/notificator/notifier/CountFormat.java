@@ -0,0 +1,53 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.notifier;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Message pattern with at most one {@code %d} placeholder, split once so formatting is a plain concatenation.
+ */
+final class CountFormat {
+    private static final String PLACEHOLDER = "%d";
+
+    private final String prefix;
+    private final String suffix;
+
+    CountFormat(@NotNull String pattern) {
+        final int index = pattern.indexOf(PLACEHOLDER);
+        if (index < 0) {
+            this.prefix = pattern;
+            this.suffix = null;
+        } else {
+            this.prefix = pattern.substring(0, index);
+            this.suffix = pattern.substring(index + PLACEHOLDER.length());
+        }
+    }
+
+    @NotNull
+    String format(int count) {
+        return (null == suffix) ? prefix : prefix + count + suffix;
+    }
+}
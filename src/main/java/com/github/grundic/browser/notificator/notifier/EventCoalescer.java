@@ -0,0 +1,237 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.notifier;
+
+import com.github.grundic.browser.notificator.Constants;
+import com.github.grundic.browser.notificator.MessageBean;
+import com.github.grundic.browser.notificator.UrlTemplate;
+import com.github.grundic.browser.notificator.metrics.DeliveryMetrics;
+import com.github.grundic.browser.notificator.websocket.NotificationEndpoint;
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.serverSide.SProject;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.users.SUser;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collapses bursts of similar events into summary notifications.
+ * <p>
+ * The first event of a kind in a project is delivered to each user right away and opens a time window. Further
+ * events of the same kind and project that reach the same user within the window are only counted, and when the
+ * window closes the user gets one summary, e.g. "42 builds started". Event types configured as bypass (failures by
+ * default) are always delivered immediately.
+ */
+public class EventCoalescer implements DisposableBean {
+    private final Logger LOG = Logger.getInstance(EventCoalescer.class.getName());
+
+    private final NotificationEndpoint notificationEndpoint;
+    private final DeliveryMetrics metrics;
+    private final long windowMillis;
+    private final Set<EventType> bypass;
+
+    private final ConcurrentMap<WindowKey, Window> windows = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Browser notifier coalescer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public EventCoalescer(@NotNull NotificationEndpoint notificationEndpoint, @NotNull DeliveryMetrics metrics) {
+        this.notificationEndpoint = notificationEndpoint;
+        this.metrics = metrics;
+        this.windowMillis = TeamCityProperties.getLong(Constants.COALESCE_WINDOW, Constants.DEFAULT_COALESCE_WINDOW);
+        this.bypass = EventType.parseSet(TeamCityProperties.getProperty(Constants.COALESCE_BYPASS), EventType.failures());
+    }
+
+    /**
+     * Pick recipients who get the message now, for the others it is counted into the current window of its kind.
+     * @param scope - kind of the event and what it is about.
+     * @param project - project the event belongs to, events without project are never collapsed.
+     * @param message - notification.
+     * @param users - recipients.
+     * @return - recipients to deliver the message to right away.
+     */
+    @NotNull
+    public Set<SUser> admit(@NotNull EventScope scope, @Nullable SProject project, @NotNull MessageBean message, @NotNull Set<SUser> users) {
+        final EventType type = scope.getType();
+        if (windowMillis <= 0 || null == project || bypass.contains(type)) {
+            return users;
+        }
+
+        final WindowKey key = new WindowKey(type, project.getProjectId());
+        Set<SUser> immediate;
+        do {
+            final Window window = windows.computeIfAbsent(key, k -> new Window(type, project));
+            immediate = window.add(message, users);
+            if (window.isNew()) {
+                scheduler.schedule(() -> flush(key, window), windowMillis, TimeUnit.MILLISECONDS);
+            }
+        } while (null == immediate);
+
+        return immediate;
+    }
+
+    private void flush(@NotNull WindowKey key, @NotNull Window window) {
+        windows.remove(key, window);
+
+        final Map<Integer, Set<SUser>> byCount = new HashMap<>();
+        for (Tally tally : window.close()) {
+            if (tally.count > 1) {
+                byCount.computeIfAbsent(tally.count, c -> new HashSet<>()).add(tally.user);
+            }
+        }
+
+        final EventScope scope = EventScope.of(window.type, window.project);
+        for (Map.Entry<Integer, Set<SUser>> entry : byCount.entrySet()) {
+            try {
+                metrics.recordSummary(window.type);
+                notificationEndpoint.broadcast(window.summary(entry.getKey()), scope, entry.getValue());
+            } catch (RuntimeException e) {
+                LOG.warn("Failed to deliver summary notification", e);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+    }
+
+    private static final class WindowKey {
+        private final EventType type;
+        private final String projectId;
+
+        WindowKey(@NotNull EventType type, @NotNull String projectId) {
+            this.type = type;
+            this.projectId = projectId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof WindowKey)) return false;
+            WindowKey other = (WindowKey) o;
+            return type == other.type && projectId.equals(other.projectId);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * type.hashCode() + projectId.hashCode();
+        }
+    }
+
+    private static final class Tally {
+        private final SUser user;
+        private int count = 1;
+
+        Tally(@NotNull SUser user) {
+            this.user = user;
+        }
+    }
+
+    private static final class Window {
+        private final EventType type;
+        private final SProject project;
+
+        // guarded by this
+        private final Map<Long, Tally> tallies = new HashMap<>();
+        private String icon;
+        private boolean scheduled;
+        private boolean closed;
+
+        Window(@NotNull EventType type, @NotNull SProject project) {
+            this.type = type;
+            this.project = project;
+        }
+
+        /**
+         * @return - users who see this kind of event for the first time in the window, or null if the window is
+         * already closed.
+         */
+        @Nullable
+        synchronized Set<SUser> add(@NotNull MessageBean message, @NotNull Set<SUser> users) {
+            if (closed) {
+                return null;
+            }
+
+            icon = message.icon;
+            Set<SUser> first = new HashSet<>();
+            for (SUser user : users) {
+                Tally tally = tallies.get(user.getId());
+                if (null == tally) {
+                    tallies.put(user.getId(), new Tally(user));
+                    first.add(user);
+                } else {
+                    tally.count++;
+                }
+            }
+
+            return first;
+        }
+
+        /**
+         * @return - true exactly once, for the caller that has to schedule the flush.
+         */
+        synchronized boolean isNew() {
+            if (scheduled) {
+                return false;
+            }
+
+            scheduled = true;
+            return true;
+        }
+
+        @NotNull
+        synchronized Collection<Tally> close() {
+            closed = true;
+            return tallies.values();
+        }
+
+        @NotNull
+        MessageBean summary(int count) {
+            MessageBean message = new MessageBean();
+            message.title = type.getSummary(count);
+            message.icon = icon;
+            message.body = project.getFullName();
+            message.tag = NotificationTag.of(type, project.getProjectId());
+            message.url = UrlTemplate.PROJECT.format(project.getExternalId());
+
+            return message;
+        }
+    }
+}
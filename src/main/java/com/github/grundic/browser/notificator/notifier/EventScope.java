@@ -0,0 +1,197 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.notifier;
+
+import jetbrains.buildServer.Build;
+import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.serverSide.SBuildServer;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.serverSide.SProject;
+import jetbrains.buildServer.users.SUser;
+import jetbrains.buildServer.vcs.SelectPrevBuildPolicy;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * What a notification is about, so it can be matched against subscriptions of connections. Projects and build
+ * configurations are identified by external ids, as they appear in URLs.
+ */
+public final class EventScope {
+    private final EventType type;
+    // the project of the event followed by its ancestors
+    private final List<String> projects;
+    private final String buildType;
+    // 0 if the event is not about a build
+    private final long buildId;
+    private volatile long[] committers;
+    private transient volatile Supplier<long[]> committersLoader;
+
+    private EventScope(
+            @NotNull EventType type,
+            @NotNull List<String> projects,
+            @Nullable String buildType,
+            long buildId,
+            @Nullable Supplier<long[]> committersLoader
+    ) {
+        this.type = type;
+        this.projects = projects;
+        this.buildType = buildType;
+        this.buildId = buildId;
+        this.committersLoader = committersLoader;
+    }
+
+    @NotNull
+    public static EventScope of(@NotNull EventType type, @NotNull Build build) {
+        if (build instanceof SBuild) {
+            final SBuild sBuild = (SBuild) build;
+            final SBuildType buildType = sBuild.getBuildType();
+            return new EventScope(
+                    type,
+                    (null == buildType) ? projectIds(build.getProjectExternalId()) : projectIds(buildType.getProject()),
+                    build.getBuildTypeExternalId(),
+                    build.getBuildId(),
+                    () -> userIds(sBuild.getCommitters(SelectPrevBuildPolicy.SINCE_LAST_BUILD).getUsers())
+            );
+        }
+
+        return new EventScope(type, projectIds(build.getProjectExternalId()), build.getBuildTypeExternalId(), 0, null);
+    }
+
+    @NotNull
+    public static EventScope of(@NotNull EventType type, @NotNull SBuildType buildType) {
+        return new EventScope(type, projectIds(buildType.getProject()), buildType.getExternalId(), 0, null);
+    }
+
+    @NotNull
+    public static EventScope of(@NotNull EventType type, @Nullable SProject project) {
+        return new EventScope(type, projectIds(project), null, 0, null);
+    }
+
+    @NotNull
+    public EventType getType() {
+        return type;
+    }
+
+    /**
+     * @return - external ids of the project of the event and all its parents.
+     */
+    @NotNull
+    public List<String> getProjects() {
+        return (null == projects) ? Collections.<String>emptyList() : projects;
+    }
+
+    @Nullable
+    public String getBuildType() {
+        return buildType;
+    }
+
+    /**
+     * Users whose changes are in the build are looked up on first call only.
+     * @return - ids of committers, or null if the event is not about a build.
+     */
+    @Nullable
+    public long[] getCommitters() {
+        if (null != committersLoader) {
+            synchronized (this) {
+                final Supplier<long[]> loader = committersLoader;
+                if (null != loader) {
+                    committers = loader.get();
+                    committersLoader = null;
+                }
+            }
+        }
+
+        return committers;
+    }
+
+    /**
+     * A scope relayed from another node carries committers only if they were looked up there. Otherwise look them up
+     * here on first call, from the build.
+     * @param buildServer - server to find the build with.
+     */
+    public void resolveCommitters(@NotNull SBuildServer buildServer) {
+        if (0 == buildId || null != committers || null != committersLoader) {
+            return;
+        }
+
+        committersLoader = () -> {
+            final SBuild build = buildServer.findBuildInstanceById(buildId);
+            return (null == build) ? null : userIds(build.getCommitters(SelectPrevBuildPolicy.SINCE_LAST_BUILD).getUsers());
+        };
+    }
+
+    /**
+     * @param userId - id of the user.
+     * @return - false only if the event is about a build without changes of the user.
+     */
+    public boolean isCommitter(long userId) {
+        final long[] ids = getCommitters();
+        if (null == ids) {
+            return true;
+        }
+
+        for (long id : ids) {
+            if (id == userId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @NotNull
+    private static List<String> projectIds(@Nullable String projectId) {
+        return (null == projectId) ? Collections.<String>emptyList() : Collections.singletonList(projectId);
+    }
+
+    @NotNull
+    private static List<String> projectIds(@Nullable SProject project) {
+        if (null == project) {
+            return Collections.emptyList();
+        }
+
+        final List<SProject> path = project.getProjectPath();
+        final List<String> ids = new ArrayList<>(path.size());
+        for (int i = path.size() - 1; i >= 0; i--) {
+            ids.add(path.get(i).getExternalId());
+        }
+        return ids;
+    }
+
+    @NotNull
+    private static long[] userIds(@NotNull Set<SUser> users) {
+        final long[] ids = new long[users.size()];
+        int i = 0;
+        for (SUser user : users) {
+            ids[i++] = user.getId();
+        }
+        return ids;
+    }
+}
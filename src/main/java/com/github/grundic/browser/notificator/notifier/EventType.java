@@ -0,0 +1,109 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.notifier;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Kinds of events Browser Notifier delivers, one per {@link jetbrains.buildServer.notification.Notificator} callback.
+ */
+public enum EventType {
+    BUILD_STARTED("%d builds started", false),
+    BUILD_SUCCESSFUL("%d builds successful", false),
+    BUILD_FAILED("%d builds failed", true),
+    BUILD_FAILED_TO_START("%d builds failed to start", true),
+    LABELING_FAILED("Labeling failed for %d builds", true),
+    BUILD_FAILING("%d builds are failing", true),
+    BUILD_HANGING("%d builds probably hanging", true),
+    RESPONSIBLE_CHANGED("Responsibility changed for %d configurations", false),
+    RESPONSIBLE_ASSIGNED("You were assigned as responsible for %d configurations", false),
+    TEST_RESPONSIBLE_CHANGED("Responsibility for tests changed %d times", false),
+    TEST_RESPONSIBLE_ASSIGNED("You were assigned as responsible for tests %d times", false),
+    BUILD_PROBLEM_RESPONSIBLE_ASSIGNED("Responsibility for build problems assigned %d times", false),
+    BUILD_PROBLEM_RESPONSIBLE_CHANGED("Responsibility for build problems changed %d times", false),
+    TESTS_MUTED("Tests were muted %d times", false),
+    TESTS_UNMUTED("Tests were unmuted %d times", false),
+    BUILD_PROBLEMS_MUTED("Build problems were muted %d times", false),
+    BUILD_PROBLEMS_UNMUTED("Build problems were unmuted %d times", false);
+
+    private final CountFormat summaryFormat;
+    private final boolean failure;
+
+    EventType(@NotNull String summaryFormat, boolean failure) {
+        this.summaryFormat = new CountFormat(summaryFormat);
+        this.failure = failure;
+    }
+
+    /**
+     * @param count - number of collapsed events.
+     * @return - title for a notification that replaces several events of this type.
+     */
+    @NotNull
+    public String getSummary(int count) {
+        return summaryFormat.format(count);
+    }
+
+    public boolean isFailure() {
+        return failure;
+    }
+
+    /**
+     * Parse comma separated list of event type names, unknown names are ignored.
+     * @param value - list to parse.
+     * @param defaultValue - returned if the value is not set.
+     * @return - parsed types.
+     */
+    @NotNull
+    public static Set<EventType> parseSet(String value, @NotNull Set<EventType> defaultValue) {
+        if (null == value || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+
+        Set<EventType> types = EnumSet.noneOf(EventType.class);
+        for (String name : value.split(",")) {
+            try {
+                types.add(valueOf(name.trim().toUpperCase()));
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+
+        return types;
+    }
+
+    @NotNull
+    public static Set<EventType> failures() {
+        Set<EventType> types = EnumSet.noneOf(EventType.class);
+        for (EventType type : values()) {
+            if (type.isFailure()) {
+                types.add(type);
+            }
+        }
+
+        return types;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.notifier;
+
+import com.github.grundic.browser.notificator.Icon;
+import com.github.grundic.browser.notificator.MessageBean;
+import com.github.grundic.browser.notificator.UrlTemplate;
+import jetbrains.buildServer.Build;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.serverSide.SProject;
+import jetbrains.buildServer.serverSide.mute.MuteInfo;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Title and icon of every notification Browser Notifier sends, prepared once when the class is loaded.
+ * Rendering a message only concatenates the subject name and link.
+ */
+public enum MessageTemplate {
+    BUILD_STARTED(EventType.BUILD_STARTED, "Build started", Icon.STARTED),
+    BUILD_SUCCESSFUL(EventType.BUILD_SUCCESSFUL, "Build successful", Icon.SUCCESSFUL),
+    BUILD_FAILED(EventType.BUILD_FAILED, "Build failed", Icon.FAILED),
+    BUILD_FAILED_TO_START(EventType.BUILD_FAILED_TO_START, "Build failed to start", Icon.ABORTED),
+    LABELING_FAILED(EventType.LABELING_FAILED, "Labeling failed", Icon.ABORTED),
+    BUILD_FAILING(EventType.BUILD_FAILING, "Build is failing", Icon.FAILED),
+    BUILD_HANGING(EventType.BUILD_HANGING, "Build probably hanging", Icon.HANGING),
+    RESPONSIBLE_CHANGED(EventType.RESPONSIBLE_CHANGED, "Responsibility for configuration changed", Icon.RESPONSIBILITY_CHANGED),
+    RESPONSIBLE_ASSIGNED(EventType.RESPONSIBLE_ASSIGNED, "You were assigned as responsible for build", Icon.YOU_ARE_RESPONSIBLE),
+    TEST_RESPONSIBLE_CHANGED(EventType.TEST_RESPONSIBLE_CHANGED, "Responsibility for test changed", Icon.RESPONSIBILITY_CHANGED),
+    TEST_RESPONSIBLE_ASSIGNED(EventType.TEST_RESPONSIBLE_ASSIGNED, "You were assigned as responsible for test", Icon.YOU_ARE_RESPONSIBLE),
+    TESTS_RESPONSIBLE_CHANGED(EventType.TEST_RESPONSIBLE_CHANGED, "Responsibility for %d tests changed", Icon.RESPONSIBILITY_CHANGED),
+    TESTS_RESPONSIBLE_ASSIGNED(EventType.TEST_RESPONSIBLE_ASSIGNED, "You were assigned as responsible for %d tests", Icon.YOU_ARE_RESPONSIBLE),
+    BUILD_PROBLEM_RESPONSIBLE_ASSIGNED(EventType.BUILD_PROBLEM_RESPONSIBLE_ASSIGNED, "Responsibility for %d build problems is assigned", Icon.RESPONSIBILITY_CHANGED),
+    BUILD_PROBLEM_RESPONSIBLE_CHANGED(EventType.BUILD_PROBLEM_RESPONSIBLE_CHANGED, "Responsibility for %d build problems is changed", Icon.RESPONSIBILITY_CHANGED),
+    TESTS_MUTED(EventType.TESTS_MUTED, "%d tests are muted", Icon.MUTE),
+    TESTS_UNMUTED(EventType.TESTS_UNMUTED, "%d tests are unmuted", Icon.UNMUTE),
+    BUILD_PROBLEMS_MUTED(EventType.BUILD_PROBLEMS_MUTED, "%d problems are muted", Icon.MUTE),
+    BUILD_PROBLEMS_UNMUTED(EventType.BUILD_PROBLEMS_UNMUTED, "%d problems are unmuted", Icon.UNMUTE);
+
+    private static final String UNKNOWN = "<unknown>";
+
+    private final EventType eventType;
+    private final CountFormat title;
+    private final String icon;
+
+    MessageTemplate(@NotNull EventType eventType, @NotNull String title, @NotNull Icon icon) {
+        this.eventType = eventType;
+        this.title = new CountFormat(title);
+        this.icon = icon.getFileName();
+    }
+
+    @NotNull
+    public EventType getEventType() {
+        return eventType;
+    }
+
+    @NotNull
+    public MessageBean render(@NotNull Build build) {
+        final MessageBean message = create(
+                title.format(0),
+                build.getFullName() + " [" + build.getBuildNumber() + "]",
+                NotificationTag.of(eventType, build.getBuildId()),
+                UrlTemplate.BUILD_TYPE.format(build.getBuildTypeExternalId())
+        );
+        if (eventType.isFailure()) {
+            // only failures are worth a look before opening the build
+            message.detail = BuildDetails.keyOf(build);
+        }
+
+        return message;
+    }
+
+    @NotNull
+    public MessageBean render(@NotNull SBuildType buildType) {
+        return create(
+                title.format(0),
+                buildType.getFullName(),
+                NotificationTag.of(eventType, buildType.getBuildTypeId()),
+                UrlTemplate.BUILD_TYPE.format(buildType.getExternalId())
+        );
+    }
+
+    @NotNull
+    public MessageBean render(@NotNull SProject project) {
+        return render(project, 0);
+    }
+
+    /**
+     * @param project - project the event belongs to.
+     * @param count - number of tests or build problems the event is about.
+     */
+    @NotNull
+    public MessageBean render(@NotNull SProject project, int count) {
+        return create(
+                title.format(count),
+                project.getFullName(),
+                NotificationTag.of(eventType, project.getProjectId()),
+                UrlTemplate.PROJECT.format(project.getExternalId())
+        );
+    }
+
+    /**
+     * @param muteInfo - mute or unmute details.
+     * @param count - number of tests or build problems the event is about.
+     */
+    @NotNull
+    public MessageBean render(@NotNull MuteInfo muteInfo, int count) {
+        final SProject project = muteInfo.getProject();
+        if (null != project) {
+            return render(project, count);
+        }
+
+        final String projectId = muteInfo.getProjectId();
+        return create(
+                title.format(count),
+                UNKNOWN,
+                NotificationTag.of(eventType, (null == projectId) ? UNKNOWN : projectId),
+                "/"
+        );
+    }
+
+    @NotNull
+    private MessageBean create(@NotNull String title, @NotNull String body, @NotNull String tag, @NotNull String url) {
+        MessageBean message = new MessageBean();
+        message.title = title;
+        message.icon = icon;
+        message.body = body;
+        message.tag = tag;
+        message.url = url;
+
+        return message;
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.notifier;
+
+import com.github.grundic.browser.notificator.Constants;
+import com.github.grundic.browser.notificator.MessageBean;
+import com.github.grundic.browser.notificator.NotificationFrame;
+import com.github.grundic.browser.notificator.metrics.DeliveryMetrics;
+import com.github.grundic.browser.notificator.websocket.NotificationEndpoint;
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.Build;
+import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.serverSide.SProject;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.serverSide.mute.MuteInfo;
+import jetbrains.buildServer.users.SUser;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands events over from TeamCity notificator callbacks to delivery threads, the way the LMAX Disruptor does it.
+ * <p>
+ * Callbacks only claim a slot of a preallocated ring and store what the event is about, so they return without
+ * rendering or delivering anything. Every consumer thread walks all the slots in order and queues the message for
+ * the recipients in its stripe of user ids, so notifications of a user keep their order. Whichever consumer gets to
+ * an event first renders, encodes and numbers it and passes it to broadcast listeners, once for all stripes, and
+ * the last consumer done with a slot clears it. When the ring is full, callbacks wait for the slowest consumer.
+ */
+public class NotificationPipeline implements DisposableBean {
+    private final Logger LOG = Logger.getInstance(NotificationPipeline.class.getName());
+
+    private static final long FULL_PARK_NANOS = 1000;
+    // added to the claimed sequence on destroy, later claims are delivered on the calling thread
+    private static final long CLOSED = 1L << 62;
+
+    private final EventCoalescer eventCoalescer;
+    private final NotificationEndpoint notificationEndpoint;
+    private final DeliveryMetrics metrics;
+    private final WaitStrategy waitStrategy;
+
+    // null to deliver on the calling thread
+    private final Slot[] ring;
+    private final int mask;
+    private final Consumer[] consumers;
+    private final AtomicLong claimed = new AtomicLong(-1);
+    // lowest consumer position seen by producers, may lag behind
+    private volatile long gatingSequence = -1;
+    // last sequence consumers take care of before they stop, known once destroyed
+    private volatile long lastSequence = Long.MAX_VALUE;
+    // claimed by producers that gave up waiting for a full ring after destroy
+    private final Set<Long> abandoned = ConcurrentHashMap.newKeySet();
+
+    public NotificationPipeline(
+            @NotNull EventCoalescer eventCoalescer,
+            @NotNull NotificationEndpoint notificationEndpoint,
+            @NotNull DeliveryMetrics metrics
+    ) {
+        this.eventCoalescer = eventCoalescer;
+        this.notificationEndpoint = notificationEndpoint;
+        this.metrics = metrics;
+        this.waitStrategy = WaitStrategy.parse(TeamCityProperties.getProperty(Constants.PIPELINE_WAIT_STRATEGY), WaitStrategy.BLOCKING);
+
+        final int size = TeamCityProperties.getInteger(Constants.PIPELINE_RING_SIZE, Constants.DEFAULT_PIPELINE_RING_SIZE);
+        if (size <= 0) {
+            ring = null;
+            mask = 0;
+            consumers = new Consumer[0];
+            return;
+        }
+
+        int capacity = 1;
+        while (capacity < size) {
+            capacity <<= 1;
+        }
+        ring = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = new Slot();
+        }
+        mask = capacity - 1;
+
+        consumers = new Consumer[Math.max(1, TeamCityProperties.getInteger(Constants.PIPELINE_CONSUMERS, Constants.DEFAULT_PIPELINE_CONSUMERS))];
+        for (int i = 0; i < consumers.length; i++) {
+            consumers[i] = new Consumer(i);
+        }
+        for (Consumer consumer : consumers) {
+            consumer.thread.start();
+        }
+    }
+
+    public void publish(@NotNull MessageTemplate template, @NotNull Build build, @NotNull Set<SUser> users) {
+        publish(template, build, 0, users);
+    }
+
+    public void publish(@NotNull MessageTemplate template, @NotNull SBuildType buildType, @NotNull Set<SUser> users) {
+        publish(template, buildType, 0, users);
+    }
+
+    /**
+     * @param count - number of tests or build problems the event is about.
+     */
+    public void publish(@NotNull MessageTemplate template, @NotNull SProject project, int count, @NotNull Set<SUser> users) {
+        publish(template, (Object) project, count, users);
+    }
+
+    /**
+     * @param count - number of tests or build problems the event is about.
+     */
+    public void publish(@NotNull MessageTemplate template, @NotNull MuteInfo muteInfo, int count, @NotNull Set<SUser> users) {
+        publish(template, (Object) muteInfo, count, users);
+    }
+
+    private void publish(@NotNull MessageTemplate template, @NotNull Object subject, int count, @NotNull Set<SUser> users) {
+        metrics.recordEvent(template.getEventType());
+        if (null == ring) {
+            deliverNow(template, subject, count, users);
+            return;
+        }
+
+        final long sequence = claimed.incrementAndGet();
+        if (sequence >= CLOSED) {
+            deliverNow(template, subject, count, users);
+            return;
+        }
+
+        final long wrapPoint = sequence - ring.length;
+        if (wrapPoint > gatingSequence) {
+            long minimum;
+            boolean stalled = false;
+            while (wrapPoint > (minimum = minimumSequence())) {
+                if (Long.MAX_VALUE != lastSequence) {
+                    // consumers are stopping, don't count on them to make room
+                    abandoned.add(sequence);
+                    signal();
+                    deliverNow(template, subject, count, users);
+                    return;
+                }
+                if (!stalled) {
+                    metrics.recordPipelineStall();
+                    stalled = true;
+                }
+                LockSupport.parkNanos(FULL_PARK_NANOS);
+            }
+            gatingSequence = minimum;
+        }
+
+        final Slot slot = ring[(int) (sequence & mask)];
+        slot.set(template, subject, count, users, consumers.length);
+        slot.published = sequence;
+        metrics.recordPipelinePublished(sequence - minimumSequence());
+        signal();
+    }
+
+    private void deliverNow(@NotNull MessageTemplate template, @NotNull Object subject, int count, @NotNull Set<SUser> users) {
+        final Slot slot = new Slot();
+        slot.set(template, subject, count, users, 1);
+        slot.prepare(eventCoalescer, notificationEndpoint);
+        if (null != slot.frame) {
+            notificationEndpoint.deliverSequenced(slot.frame, slot.recipients);
+        }
+    }
+
+    private void signal() {
+        if (waitStrategy.isSignalled()) {
+            for (Consumer consumer : consumers) {
+                if (consumer.waiting) {
+                    LockSupport.unpark(consumer.thread);
+                }
+            }
+        }
+    }
+
+    private long minimumSequence() {
+        long minimum = Long.MAX_VALUE;
+        for (Consumer consumer : consumers) {
+            minimum = Math.min(minimum, consumer.sequence);
+        }
+        return minimum;
+    }
+
+    /**
+     * Consumers finish events already claimed and stop, later events are delivered on the calling thread.
+     */
+    @Override
+    public void destroy() {
+        if (null == ring || Long.MAX_VALUE != lastSequence) {
+            return;
+        }
+
+        lastSequence = claimed.getAndAdd(CLOSED);
+        for (Consumer consumer : consumers) {
+            LockSupport.unpark(consumer.thread);
+        }
+    }
+
+    private final class Consumer implements Runnable {
+        private final int stripe;
+        private final Thread thread;
+        // last processed sequence
+        private volatile long sequence = -1;
+        private volatile boolean waiting;
+
+        Consumer(int stripe) {
+            this.stripe = stripe;
+            this.thread = new Thread(this, "Browser notifier pipeline " + stripe);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            long next = sequence + 1;
+            int attempts = 0;
+            while (true) {
+                final Slot slot = ring[(int) (next & mask)];
+                if (slot.published == next) {
+                    process(slot);
+                    sequence = next++;
+                    attempts = 0;
+                } else if (next > lastSequence) {
+                    return;
+                } else if (abandoned.contains(next)) {
+                    sequence = next++;
+                } else {
+                    // a producer either sees the flag or has published before the check below
+                    waiting = true;
+                    if (slot.published != next && !abandoned.contains(next) && next <= lastSequence) {
+                        waitStrategy.idle(attempts++);
+                    }
+                    waiting = false;
+                }
+            }
+        }
+
+        private void process(@NotNull Slot slot) {
+            try {
+                slot.prepare(eventCoalescer, notificationEndpoint);
+                if (null != slot.frame) {
+                    final Set<SUser> users = stripeOf(slot.recipients);
+                    if (!users.isEmpty()) {
+                        notificationEndpoint.deliverSequenced(slot.frame, users);
+                    }
+                }
+            } catch (RuntimeException e) {
+                LOG.warn("Failed to deliver notification", e);
+            } finally {
+                if (slot.release()) {
+                    metrics.recordPipelineReleased();
+                }
+            }
+        }
+
+        @NotNull
+        private Set<SUser> stripeOf(@NotNull Set<SUser> users) {
+            if (1 == consumers.length) {
+                return users;
+            }
+
+            final Set<SUser> stripeUsers = new HashSet<>(2 * users.size() / consumers.length + 1);
+            for (SUser user : users) {
+                if (Math.floorMod(user.getId(), (long) consumers.length) == stripe) {
+                    stripeUsers.add(user);
+                }
+            }
+            return stripeUsers;
+        }
+    }
+
+    /**
+     * One event in the ring. Written by the producer before publishing, prepared under its own lock.
+     */
+    private static final class Slot {
+        private final AtomicInteger remaining = new AtomicInteger();
+        private volatile long published = -1;
+
+        private MessageTemplate template;
+        private Object subject;
+        private int count;
+        private Set<SUser> users;
+
+        private boolean prepared;
+        // null if nobody gets the message right away
+        private NotificationFrame frame;
+        private Set<SUser> recipients;
+
+        void set(@NotNull MessageTemplate template, @NotNull Object subject, int count, @NotNull Set<SUser> users, int consumers) {
+            this.template = template;
+            this.subject = subject;
+            this.count = count;
+            this.users = users;
+            remaining.set(consumers);
+        }
+
+        /**
+         * Render the message, let the coalescer pick who gets it now, and announce it to them. Only the first call
+         * per event does anything.
+         */
+        synchronized void prepare(@NotNull EventCoalescer eventCoalescer, @NotNull NotificationEndpoint notificationEndpoint) {
+            if (prepared) {
+                return;
+            }
+            prepared = true;
+
+            final EventType type = template.getEventType();
+            final MessageBean message;
+            final EventScope scope;
+            final SProject project;
+            if (subject instanceof Build) {
+                final Build build = (Build) subject;
+                scope = EventScope.of(type, build);
+                project = getProject(build);
+                message = template.render(build);
+            } else if (subject instanceof SBuildType) {
+                final SBuildType buildType = (SBuildType) subject;
+                scope = EventScope.of(type, buildType);
+                project = buildType.getProject();
+                message = template.render(buildType);
+            } else if (subject instanceof SProject) {
+                project = (SProject) subject;
+                scope = EventScope.of(type, project);
+                message = template.render(project, count);
+            } else {
+                final MuteInfo muteInfo = (MuteInfo) subject;
+                project = muteInfo.getProject();
+                scope = EventScope.of(type, project);
+                message = template.render(muteInfo, count);
+            }
+
+            recipients = eventCoalescer.admit(scope, project, message, users);
+            frame = recipients.isEmpty() ? null : notificationEndpoint.announce(message, scope, recipients);
+        }
+
+        /**
+         * @return - true for the last consumer done with the event, which drops references to it.
+         */
+        boolean release() {
+            if (0 != remaining.decrementAndGet()) {
+                return false;
+            }
+
+            synchronized (this) {
+                template = null;
+                subject = null;
+                users = null;
+                prepared = false;
+                frame = null;
+                recipients = null;
+            }
+            return true;
+        }
+
+        @Nullable
+        private static SProject getProject(@NotNull Build build) {
+            if (build instanceof SBuild) {
+                SBuildType buildType = ((SBuild) build).getBuildType();
+                return (null == buildType) ? null : buildType.getProject();
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.notifier;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Notification tags, browsers show only the latest notification of the same tag.
+ * <p>
+ * Tag is a 64-bit FNV-1a hash of the event type name and a stable identifier of the event subject, finished with
+ * the MurmurHash3 mixer. It does not depend on the message text, platform charset or server node.
+ */
+public final class NotificationTag {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private static final long[] SEEDS = new long[EventType.values().length];
+
+    static {
+        for (EventType type : EventType.values()) {
+            SEEDS[type.ordinal()] = fnv(FNV_OFFSET, type.name());
+        }
+    }
+
+    private NotificationTag() {
+    }
+
+    /**
+     * @param type - kind of the event.
+     * @param id - numeric id of the subject, e.g. build id.
+     * @return - tag for the notification.
+     */
+    @NotNull
+    public static String of(@NotNull EventType type, long id) {
+        return format(mix(SEEDS[type.ordinal()] ^ (id * GOLDEN_GAMMA)));
+    }
+
+    /**
+     * @param type - kind of the event.
+     * @param id - internal id of the subject, e.g. build type or project id.
+     * @return - tag for the notification.
+     */
+    @NotNull
+    public static String of(@NotNull EventType type, @NotNull String id) {
+        return format(mix(fnv(SEEDS[type.ordinal()], id)));
+    }
+
+    private static long fnv(long hash, @NotNull String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    @NotNull
+    private static String format(long hash) {
+        return Long.toUnsignedString(hash, Character.MAX_RADIX);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.notifier;
+
+import com.github.grundic.browser.notificator.Constants;
+import jetbrains.buildServer.users.NotificatorPropertyKey;
+import jetbrains.buildServer.users.PropertyKey;
+import jetbrains.buildServer.users.User;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Immutable snapshot of user's Browser Notifier settings, parsed once.
+ */
+public final class NotificatorPreferences {
+    private static final PropertyKey TIMEOUT_KEY = new NotificatorPropertyKey(Constants.PLUGIN_TYPE, Constants.NOTIFICATION_TIMEOUT);
+    private static final PropertyKey PUSH_SUBSCRIPTIONS_KEY = new NotificatorPropertyKey(Constants.PLUGIN_TYPE, Constants.PUSH_SUBSCRIPTIONS);
+
+    public static final NotificatorPreferences DEFAULT = new NotificatorPreferences(Constants.DEFAULT_TIMEOUT, false);
+
+    private final int timeout;
+    private final boolean pushSubscribed;
+
+    private NotificatorPreferences(int timeout, boolean pushSubscribed) {
+        this.timeout = timeout;
+        this.pushSubscribed = pushSubscribed;
+    }
+
+    /**
+     * Read settings of the user. Missing or malformed values are replaced with defaults.
+     * @param user - user for whom to read settings.
+     * @return - settings snapshot.
+     */
+    @NotNull
+    public static NotificatorPreferences load(@NotNull User user) {
+        // the list itself is parsed only when pushing, "[]" or shorter means none
+        final String subscriptions = user.getPropertyValue(PUSH_SUBSCRIPTIONS_KEY);
+        final boolean pushSubscribed = null != subscriptions && subscriptions.length() > 2;
+
+        final int timeout = parseTimeout(user.getPropertyValue(TIMEOUT_KEY));
+        if (Constants.DEFAULT_TIMEOUT == timeout && !pushSubscribed) {
+            return DEFAULT;
+        }
+        return new NotificatorPreferences(timeout, pushSubscribed);
+    }
+
+    private static int parseTimeout(@Nullable String timeout) {
+        if (null == timeout || timeout.isEmpty()) {
+            return Constants.DEFAULT_TIMEOUT;
+        }
+
+        try {
+            return Integer.parseInt(timeout.trim());
+        } catch (NumberFormatException e) {
+            return Constants.DEFAULT_TIMEOUT;
+        }
+    }
+
+    /**
+     * @return - notification display timeout in seconds.
+     */
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @return - true if the user has subscribed any browser to Web Push.
+     */
+    public boolean hasPushSubscriptions() {
+        return pushSubscribed;
+    }
+}
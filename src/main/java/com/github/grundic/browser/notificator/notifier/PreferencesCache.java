@@ -0,0 +1,154 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.notifier;
+
+import com.github.grundic.browser.notificator.Constants;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.users.User;
+import jetbrains.buildServer.users.UserModel;
+import jetbrains.buildServer.users.UserModelListener;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of parsed user settings, keyed by user id.
+ * <p>
+ * Users are spread over segments, each with its own lock and least recently used entries dropped first, so
+ * delivery threads looking up different users rarely wait for each other.
+ * <p>
+ * Entries are dropped whenever TeamCity reports a change of the user account, which includes changes of user
+ * properties, so reading settings while broadcasting never touches the user model.
+ */
+public class PreferencesCache implements UserModelListener {
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public PreferencesCache(@NotNull UserModel userModel) {
+        final int maxSize = Math.max(1, TeamCityProperties.getInteger(Constants.PREFERENCES_CACHE_SIZE, Constants.DEFAULT_PREFERENCES_CACHE_SIZE));
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment((maxSize + SEGMENTS - 1) / SEGMENTS);
+        }
+        userModel.addListener(this);
+    }
+
+    @NotNull
+    public NotificatorPreferences get(@NotNull User user) {
+        final Segment segment = segmentOf(user.getId());
+        final long loadStamp;
+        synchronized (segment) {
+            final NotificatorPreferences cached = segment.entries.get(user.getId());
+            if (null != cached) {
+                hits.increment();
+                return cached;
+            }
+            loadStamp = segment.stamp;
+        }
+
+        misses.increment();
+        final NotificatorPreferences preferences = NotificatorPreferences.load(user);
+        synchronized (segment) {
+            // the user could have changed while loading
+            if (loadStamp == segment.stamp) {
+                segment.entries.put(user.getId(), preferences);
+            }
+        }
+
+        return preferences;
+    }
+
+    public void invalidate(long userId) {
+        final Segment segment = segmentOf(userId);
+        synchronized (segment) {
+            segment.stamp++;
+            segment.entries.remove(userId);
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int getSize() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.entries.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void userAccountCreated(@NotNull User user) {
+        invalidate(user.getId());
+    }
+
+    @Override
+    public void userAccountChanged(@NotNull User user) {
+        invalidate(user.getId());
+    }
+
+    @Override
+    public void userAccountRemoved(@NotNull User user) {
+        invalidate(user.getId());
+    }
+
+    @NotNull
+    private Segment segmentOf(long userId) {
+        return segments[(int) Math.floorMod(userId, (long) SEGMENTS)];
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PreferencesCache{size=%d, hits=%d, misses=%d}", getSize(), getHits(), getMisses());
+    }
+
+    private static final class Segment {
+        // guarded by the segment
+        private final Map<Long, NotificatorPreferences> entries;
+        // bumped on every invalidation, settings loaded before it are not cached; guarded by the segment
+        private long stamp;
+
+        Segment(int maxSize) {
+            entries = new LinkedHashMap<Long, NotificatorPreferences>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, NotificatorPreferences> eldest) {
+                    return size() > maxSize;
+                }
+            };
+        }
+    }
+}
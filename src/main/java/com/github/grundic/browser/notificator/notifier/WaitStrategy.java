@@ -0,0 +1,103 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.notifier;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How a {@link NotificationPipeline} consumer waits for the next event, trading CPU for latency.
+ */
+public enum WaitStrategy {
+    /**
+     * Park until a producer wakes the consumer up. Idle consumers cost nothing, every event pays for a wake up.
+     */
+    BLOCKING,
+    /**
+     * Spin, then yield, then sleep briefly between checks. Producers never wake consumers up, idle ones poll.
+     */
+    SLEEPING,
+    /**
+     * Spin, then yield. Lower latency, but every consumer keeps a core busy unless other threads want it.
+     */
+    YIELDING,
+    /**
+     * Spin. Lowest latency, every consumer keeps a core busy.
+     */
+    BUSY_SPIN;
+
+    private static final int SPIN_TRIES = 100;
+    private static final long SLEEP_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    // bound on parking, in case a wake up is lost
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * Wait a little before checking for the next event again.
+     * @param attempts - number of checks in a row that found nothing.
+     */
+    void idle(int attempts) {
+        switch (this) {
+            case BLOCKING:
+                LockSupport.parkNanos(this, PARK_NANOS);
+                break;
+            case SLEEPING:
+                if (attempts >= 2 * SPIN_TRIES) {
+                    LockSupport.parkNanos(this, SLEEP_NANOS);
+                } else if (attempts >= SPIN_TRIES) {
+                    Thread.yield();
+                }
+                break;
+            case YIELDING:
+                if (attempts >= SPIN_TRIES) {
+                    Thread.yield();
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * @return - whether producers have to wake up waiting consumers.
+     */
+    boolean isSignalled() {
+        return BLOCKING == this;
+    }
+
+    @NotNull
+    public static WaitStrategy parse(String value, @NotNull WaitStrategy defaultValue) {
+        if (null == value || value.isEmpty()) {
+            return defaultValue;
+        }
+
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return defaultValue;
+        }
+    }
+}
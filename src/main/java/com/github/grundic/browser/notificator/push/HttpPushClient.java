@@ -0,0 +1,73 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.push;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * {@link PushClient} over {@link HttpURLConnection}, which keeps connections to push services alive between
+ * requests as long as responses are read to the end.
+ */
+public class HttpPushClient implements PushClient {
+    private static final int TIMEOUT = 10000;
+
+    @Override
+    public int send(@NotNull PushRequest request) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(request.getEndpoint()).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+        connection.setInstanceFollowRedirects(false);
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(request.getBody().length);
+        connection.setRequestProperty("Authorization", request.getAuthorization());
+        connection.setRequestProperty("Content-Type", "application/octet-stream");
+        connection.setRequestProperty("Content-Encoding", "aes128gcm");
+        connection.setRequestProperty("TTL", Integer.toString(request.getTtl()));
+        connection.setRequestProperty("Urgency", request.getUrgency());
+
+        try (OutputStream output = connection.getOutputStream()) {
+            output.write(request.getBody());
+        }
+
+        final int status = connection.getResponseCode();
+        try (InputStream input = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            if (null != input) {
+                final byte[] buffer = new byte[1024];
+                //noinspection StatementWithEmptyBody
+                while (input.read(buffer) >= 0) {
+                }
+            }
+        }
+
+        return status;
+    }
+}
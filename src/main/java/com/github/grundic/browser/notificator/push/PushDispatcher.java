@@ -0,0 +1,288 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.push;
+
+import com.github.grundic.browser.notificator.Constants;
+import com.github.grundic.browser.notificator.NotificationFrame;
+import com.github.grundic.browser.notificator.metrics.DeliveryMetrics;
+import com.github.grundic.browser.notificator.notifier.EventType;
+import com.github.grundic.browser.notificator.notifier.PreferencesCache;
+import com.github.grundic.browser.notificator.relay.NotificationRelay;
+import com.github.grundic.browser.notificator.websocket.BroadcastListener;
+import com.github.grundic.browser.notificator.websocket.NotificationEndpoint;
+import com.github.grundic.browser.notificator.websocket.Priority;
+import com.github.grundic.browser.notificator.websocket.SessionRegistry;
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.users.SUser;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivers notifications over Web Push to users who have no TeamCity page open on this node or, as far as the relay
+ * knows, on any other.
+ * <p>
+ * Notifications are queued per user and flushed periodically: everything queued for a user goes as one JSON array
+ * per subscribed browser, split only when it would not fit into a single push message. Urgency of the request is
+ * the highest priority in it. Requests wait for a sender thread in a bounded queue, and are dropped when it is full.
+ * Subscriptions reported gone by the push service are removed. Disabled unless
+ * {@link Constants#PUSH_ENABLED} is set, as it makes the server call third-party push services.
+ */
+public class PushDispatcher implements BroadcastListener, DisposableBean {
+    private final Logger LOG = Logger.getInstance(PushDispatcher.class.getName());
+
+    private final SessionRegistry sessionRegistry;
+    private final NotificationRelay relay;
+    private final PreferencesCache preferences;
+    private final PushSubscriptionStore store;
+    private final VapidKeys vapidKeys;
+    private final PushClient client;
+    private final DeliveryMetrics metrics;
+
+    private final Map<EventType, Priority> priorities = Priority.load();
+    private final int ttl;
+    private final boolean enabled;
+
+    private final ConcurrentMap<Long, Recipient> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService senders;
+
+    public PushDispatcher(
+            @NotNull NotificationEndpoint notificationEndpoint,
+            @NotNull SessionRegistry sessionRegistry,
+            @NotNull NotificationRelay relay,
+            @NotNull PreferencesCache preferences,
+            @NotNull PushSubscriptionStore store,
+            @NotNull VapidKeys vapidKeys,
+            @NotNull PushClient client,
+            @NotNull DeliveryMetrics metrics
+    ) {
+        this.sessionRegistry = sessionRegistry;
+        this.relay = relay;
+        this.preferences = preferences;
+        this.store = store;
+        this.vapidKeys = vapidKeys;
+        this.client = client;
+        this.metrics = metrics;
+        this.ttl = TeamCityProperties.getInteger(Constants.PUSH_TTL, Constants.DEFAULT_PUSH_TTL);
+        this.enabled = TeamCityProperties.getBoolean(Constants.PUSH_ENABLED);
+
+        if (!enabled) {
+            this.scheduler = null;
+            this.senders = null;
+            return;
+        }
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Browser notifier push");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final int threads = Math.max(1, TeamCityProperties.getInteger(Constants.PUSH_THREADS, Constants.DEFAULT_PUSH_THREADS));
+        this.senders = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, TeamCityProperties.getInteger(Constants.PUSH_QUEUE_SIZE, Constants.DEFAULT_PUSH_QUEUE_SIZE))),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "Browser notifier push sender");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        final long flushMillis = TeamCityProperties.getLong(Constants.PUSH_FLUSH_INTERVAL, Constants.DEFAULT_PUSH_FLUSH_INTERVAL);
+        scheduler.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+
+        notificationEndpoint.addBroadcastListener(this);
+        LOG.info("Browser notifier Web Push delivery is enabled");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void onBroadcast(@NotNull NotificationFrame frame, @NotNull Set<SUser> users) {
+        final Priority priority = null == frame.getScope() ? Priority.NORMAL : priorities.get(frame.getScope().getType());
+        Message message = null;
+        for (SUser user : users) {
+            if (!preferences.get(user).hasPushSubscriptions()
+                    || sessionRegistry.hasSessions(user.getId()) || relay.isConnectedElsewhere(user.getId())) {
+                continue;
+            }
+
+            if (null == message) {
+                message = new Message(frame.toJson(), priority);
+            }
+            final Message added = message;
+            // under the lock of the entry, so flush can't take the recipient away in between
+            pending.compute(user.getId(), (id, recipient) -> {
+                final Recipient target = (null == recipient) ? new Recipient() : recipient;
+                // latest instance, with up to date properties
+                target.user = user;
+                target.messages.add(added);
+                return target;
+            });
+        }
+    }
+
+    private void flush() {
+        for (Long userId : pending.keySet()) {
+            // taken away as a whole, so users without new notifications leave no entries behind
+            final Recipient recipient = pending.remove(userId);
+            if (null == recipient || recipient.messages.isEmpty()) {
+                continue;
+            }
+
+            final List<Message> messages = recipient.messages;
+            final SUser user = recipient.user;
+            try {
+                final List<PushSubscription> subscriptions = store.get(user);
+                for (Batch batch : split(messages)) {
+                    for (PushSubscription subscription : subscriptions) {
+                        try {
+                            senders.execute(() -> send(user, subscription, batch));
+                        } catch (RejectedExecutionException e) {
+                            metrics.recordPushDropped();
+                        }
+                    }
+                }
+            } catch (RuntimeException e) {
+                LOG.warn("Failed to push notifications to user " + user.getId(), e);
+            }
+        }
+    }
+
+    // greedily packs messages into JSON arrays which fit into a single push message each
+    @NotNull
+    private List<Batch> split(@NotNull List<Message> messages) {
+        final List<Batch> batches = new ArrayList<>(1);
+        StringBuilder payload = new StringBuilder("[");
+        int bytes = 2;
+        Priority urgency = Priority.LOW;
+        for (Message message : messages) {
+            final int length = NotificationFrame.utf8Length(message.json);
+            if (length + 2 > PushEncryption.MAX_PLAINTEXT) {
+                LOG.debug("Notification is too large for Web Push, skipped: " + length + " bytes");
+                metrics.recordPushOversized();
+                continue;
+            }
+
+            if (payload.length() > 1 && bytes + 1 + length > PushEncryption.MAX_PLAINTEXT) {
+                batches.add(new Batch(payload.append(']').toString(), urgency));
+                payload = new StringBuilder("[");
+                bytes = 2;
+                urgency = Priority.LOW;
+            }
+
+            if (payload.length() > 1) {
+                payload.append(',');
+                bytes++;
+            }
+            payload.append(message.json);
+            bytes += length;
+            if (message.priority.compareTo(urgency) < 0) {
+                urgency = message.priority;
+            }
+        }
+
+        if (payload.length() > 1) {
+            batches.add(new Batch(payload.append(']').toString(), urgency));
+        }
+        return batches;
+    }
+
+    private void send(@NotNull SUser user, @NotNull PushSubscription subscription, @NotNull Batch batch) {
+        try {
+            final byte[] body = PushEncryption.encrypt(subscription, batch.payload.getBytes(StandardCharsets.UTF_8));
+            // priority names match Web Push urgency values
+            final PushRequest request = new PushRequest(subscription.getEndpoint(),
+                    vapidKeys.getAuthorization(subscription.getOrigin()), body, ttl, batch.urgency.name().toLowerCase(Locale.ENGLISH));
+
+            final int status = client.send(request);
+            if (status >= 200 && status < 300) {
+                metrics.recordPush(body.length);
+            } else if (404 == status || 410 == status) {
+                LOG.debug("Push subscription of user " + user.getId() + " has expired, removing it");
+                metrics.recordPushSubscriptionGone();
+                store.remove(user, subscription.getEndpoint());
+            } else {
+                LOG.warn("Push service rejected notification for user " + user.getId() + " with status " + status);
+                metrics.recordPushFailure();
+            }
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            LOG.warn("Failed to push notification to user " + user.getId(), e);
+            metrics.recordPushFailure();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (null != scheduler) {
+            scheduler.shutdownNow();
+            senders.shutdownNow();
+        }
+    }
+
+    // changed only inside compute of its entry, and read only after it is removed
+    private static final class Recipient {
+        private SUser user;
+        private final List<Message> messages = new ArrayList<>(1);
+    }
+
+    private static final class Message {
+        private final String json;
+        private final Priority priority;
+
+        private Message(@NotNull String json, @NotNull Priority priority) {
+            this.json = json;
+            this.priority = priority;
+        }
+    }
+
+    private static final class Batch {
+        private final String payload;
+        private final Priority urgency;
+
+        private Batch(@NotNull String payload, @NotNull Priority urgency) {
+            this.payload = payload;
+            this.urgency = urgency;
+        }
+    }
+}
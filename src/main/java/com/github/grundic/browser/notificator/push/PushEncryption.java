@@ -0,0 +1,203 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.push;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.*;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.*;
+import java.util.Arrays;
+
+/**
+ * Message encryption for Web Push (RFC 8291): ECDH with a fresh key pair per message, keys derived with HKDF and
+ * the payload sealed in a single aes128gcm record (RFC 8188).
+ */
+public final class PushEncryption {
+    private static final int RECORD_SIZE = 4096;
+    private static final int SALT_LENGTH = 16;
+    private static final int KEY_LENGTH = 65;
+    private static final int TAG_LENGTH = 16;
+    private static final int HEADER_LENGTH = SALT_LENGTH + 4 + 1 + KEY_LENGTH;
+
+    /**
+     * Largest plaintext that fits the 4096 bytes every push service accepts.
+     */
+    public static final int MAX_PLAINTEXT = RECORD_SIZE - HEADER_LENGTH - 1 - TAG_LENGTH;
+
+    private static final byte[] KEY_INFO = "WebPush: info\0".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CEK_INFO = "Content-Encoding: aes128gcm\0".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NONCE_INFO = "Content-Encoding: nonce\0".getBytes(StandardCharsets.US_ASCII);
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final ECParameterSpec P256 = curve();
+
+    private PushEncryption() {
+    }
+
+    /**
+     * @param subscription - recipient.
+     * @param plaintext - payload, at most {@link #MAX_PLAINTEXT} bytes.
+     * @return - request body.
+     */
+    @NotNull
+    public static byte[] encrypt(@NotNull PushSubscription subscription, @NotNull byte[] plaintext) throws GeneralSecurityException {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(P256, RANDOM);
+
+        final byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(salt);
+
+        return encrypt(subscription.getPublicKey(), subscription.getAuthSecret(), plaintext, generator.generateKeyPair(), salt);
+    }
+
+    /**
+     * @param uaPublic - browser's public key, uncompressed P-256 point.
+     * @param authSecret - browser's authentication secret.
+     * @param plaintext - payload, at most {@link #MAX_PLAINTEXT} bytes.
+     * @param ephemeral - key pair of the server for this message only.
+     * @param salt - 16 random bytes.
+     * @return - request body.
+     */
+    @NotNull
+    static byte[] encrypt(
+            @NotNull byte[] uaPublic,
+            @NotNull byte[] authSecret,
+            @NotNull byte[] plaintext,
+            @NotNull KeyPair ephemeral,
+            @NotNull byte[] salt
+    ) throws GeneralSecurityException {
+        if (plaintext.length > MAX_PLAINTEXT) {
+            throw new IllegalArgumentException("Push payload is too large: " + plaintext.length + " bytes");
+        }
+
+        final byte[] asPublic = encodePoint((ECPublicKey) ephemeral.getPublic());
+
+        final KeyAgreement agreement = KeyAgreement.getInstance("ECDH");
+        agreement.init(ephemeral.getPrivate());
+        agreement.doPhase(decodePoint(uaPublic), true);
+        final byte[] sharedSecret = agreement.generateSecret();
+
+        final byte[] ikm = hkdf(authSecret, sharedSecret, concat(KEY_INFO, uaPublic, asPublic), 32);
+        final byte[] cek = hkdf(salt, ikm, CEK_INFO, 16);
+        final byte[] nonce = hkdf(salt, ikm, NONCE_INFO, 12);
+
+        final Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(cek, "AES"), new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+        // plaintext is followed by the padding delimiter of the last record
+        final byte[] record = Arrays.copyOf(plaintext, plaintext.length + 1);
+        record[plaintext.length] = 2;
+        final byte[] ciphertext = cipher.doFinal(record);
+
+        return ByteBuffer.allocate(HEADER_LENGTH + ciphertext.length)
+                .put(salt)
+                .putInt(RECORD_SIZE)
+                .put((byte) asPublic.length)
+                .put(asPublic)
+                .put(ciphertext)
+                .array();
+    }
+
+    /**
+     * @param key - P-256 public key.
+     * @return - uncompressed point, {@code 0x04 || X || Y}.
+     */
+    @NotNull
+    static byte[] encodePoint(@NotNull ECPublicKey key) {
+        final byte[] point = new byte[KEY_LENGTH];
+        point[0] = 4;
+        copyUnsigned(key.getW().getAffineX(), point, 1);
+        copyUnsigned(key.getW().getAffineY(), point, 33);
+        return point;
+    }
+
+    @NotNull
+    static ECPublicKey decodePoint(@NotNull byte[] point) throws GeneralSecurityException {
+        if (point.length != KEY_LENGTH || point[0] != 4) {
+            throw new InvalidKeyException("Not an uncompressed P-256 point");
+        }
+
+        final ECPoint w = new ECPoint(
+                new BigInteger(1, Arrays.copyOfRange(point, 1, 33)),
+                new BigInteger(1, Arrays.copyOfRange(point, 33, KEY_LENGTH)));
+        return (ECPublicKey) KeyFactory.getInstance("EC").generatePublic(new ECPublicKeySpec(w, P256));
+    }
+
+    @NotNull
+    static ECParameterSpec getCurve() {
+        return P256;
+    }
+
+    private static void copyUnsigned(@NotNull BigInteger value, @NotNull byte[] target, int offset) {
+        final byte[] bytes = value.toByteArray();
+        final int length = Math.min(bytes.length, 32);
+        System.arraycopy(bytes, bytes.length - length, target, offset + 32 - length, length);
+    }
+
+    // extract and a single expand step, enough for up to 32 bytes of output
+    @NotNull
+    private static byte[] hkdf(@NotNull byte[] salt, @NotNull byte[] ikm, @NotNull byte[] info, int length) throws GeneralSecurityException {
+        final Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(salt, "HmacSHA256"));
+        final byte[] prk = mac.doFinal(ikm);
+
+        mac.init(new SecretKeySpec(prk, "HmacSHA256"));
+        mac.update(info);
+        return Arrays.copyOf(mac.doFinal(new byte[]{1}), length);
+    }
+
+    @NotNull
+    private static byte[] concat(@NotNull byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        for (byte[] part : parts) {
+            buffer.put(part);
+        }
+        return buffer.array();
+    }
+
+    @NotNull
+    private static ECParameterSpec curve() {
+        try {
+            final AlgorithmParameters parameters = AlgorithmParameters.getInstance("EC");
+            parameters.init(new ECGenParameterSpec("secp256r1"));
+            return parameters.getParameterSpec(ECParameterSpec.class);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("P-256 curve is not supported by the JVM", e);
+        }
+    }
+}
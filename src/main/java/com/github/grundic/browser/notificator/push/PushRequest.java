@@ -0,0 +1,77 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.push;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * One encrypted message for a push service (RFC 8030).
+ */
+public final class PushRequest {
+    private final String endpoint;
+    private final String authorization;
+    private final byte[] body;
+    private final int ttl;
+    private final String urgency;
+
+    /**
+     * @param endpoint - push service URL of the subscription.
+     * @param authorization - VAPID Authorization header value.
+     * @param body - aes128gcm encrypted payload.
+     * @param ttl - seconds the push service should keep the message while the browser is offline.
+     * @param urgency - one of {@code very-low}, {@code low}, {@code normal} or {@code high}.
+     */
+    public PushRequest(@NotNull String endpoint, @NotNull String authorization, @NotNull byte[] body, int ttl, @NotNull String urgency) {
+        this.endpoint = endpoint;
+        this.authorization = authorization;
+        this.body = body;
+        this.ttl = ttl;
+        this.urgency = urgency;
+    }
+
+    @NotNull
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    @NotNull
+    public String getAuthorization() {
+        return authorization;
+    }
+
+    @NotNull
+    public byte[] getBody() {
+        return body;
+    }
+
+    public int getTtl() {
+        return ttl;
+    }
+
+    @NotNull
+    public String getUrgency() {
+        return urgency;
+    }
+}
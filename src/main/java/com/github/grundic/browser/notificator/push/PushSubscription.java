@@ -0,0 +1,131 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.push;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * Push subscription of one browser, as returned by {@code PushManager.subscribe()}: the push service URL and the
+ * keys to encrypt payloads for that browser. Keys are kept base64url encoded, the way the browser reports them.
+ */
+public final class PushSubscription {
+    private static final int PUBLIC_KEY_LENGTH = 65;
+    private static final int AUTH_SECRET_LENGTH = 16;
+
+    private final String endpoint;
+    private final String p256dh;
+    private final String auth;
+
+    private PushSubscription(@NotNull String endpoint, @NotNull String p256dh, @NotNull String auth) {
+        this.endpoint = endpoint;
+        this.p256dh = p256dh;
+        this.auth = auth;
+    }
+
+    /**
+     * @param endpoint - push service URL.
+     * @param p256dh - browser's public key, uncompressed P-256 point, base64url encoded.
+     * @param auth - browser's authentication secret, base64url encoded.
+     * @param allowedHosts - host names of push services to accept, {@code *.} matches any subdomain.
+     * @return - validated subscription.
+     * @throws IllegalArgumentException - if the URL is not an https URL of an allowed host or keys are malformed.
+     */
+    @NotNull
+    public static PushSubscription of(
+            @NotNull String endpoint,
+            @NotNull String p256dh,
+            @NotNull String auth,
+            @NotNull Collection<String> allowedHosts
+    ) {
+        final URI uri;
+        try {
+            uri = new URI(endpoint);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Malformed push endpoint: " + endpoint);
+        }
+
+        if (!"https".equalsIgnoreCase(uri.getScheme()) || null == uri.getHost()) {
+            throw new IllegalArgumentException("Push endpoint must be an https URL: " + endpoint);
+        }
+        if (!isAllowed(uri.getHost(), allowedHosts)) {
+            throw new IllegalArgumentException("Push service is not allowed: " + uri.getHost());
+        }
+        if (decode(p256dh).length != PUBLIC_KEY_LENGTH || decode(auth).length != AUTH_SECRET_LENGTH) {
+            throw new IllegalArgumentException("Malformed push subscription keys");
+        }
+
+        return new PushSubscription(endpoint, p256dh, auth);
+    }
+
+    static boolean isAllowed(@NotNull String host, @NotNull Collection<String> allowedHosts) {
+        final String name = host.toLowerCase(Locale.ENGLISH);
+        for (String allowed : allowedHosts) {
+            if (allowed.startsWith("*.") ? name.endsWith(allowed.substring(1)) : name.equals(allowed)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @NotNull
+    static byte[] decode(@NotNull String value) {
+        try {
+            return Base64.getUrlDecoder().decode(value.trim().replace("=", ""));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Malformed base64url value");
+        }
+    }
+
+    @NotNull
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * @return - scheme, host and port of the push service, the audience of VAPID tokens.
+     */
+    @NotNull
+    public String getOrigin() {
+        final URI uri = URI.create(endpoint);
+        return uri.getScheme() + "://" + uri.getHost() + (uri.getPort() < 0 ? "" : ":" + uri.getPort());
+    }
+
+    @NotNull
+    byte[] getPublicKey() {
+        return decode(p256dh);
+    }
+
+    @NotNull
+    byte[] getAuthSecret() {
+        return decode(auth);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.push;
+
+import com.github.grundic.browser.notificator.Constants;
+import com.github.grundic.browser.notificator.notifier.PreferencesCache;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.users.NotificatorPropertyKey;
+import jetbrains.buildServer.users.PropertyKey;
+import jetbrains.buildServer.users.SUser;
+import jetbrains.buildServer.users.User;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Push subscriptions of every user, kept as a JSON list in a user property, so they are shared by all nodes.
+ * Each user may have a few subscriptions, one per browser; the oldest one is dropped when the limit is reached.
+ * Whether a user has any is answered by {@link PreferencesCache}, which is invalidated on every change.
+ */
+public class PushSubscriptionStore {
+    private static final PropertyKey SUBSCRIPTIONS_KEY = new NotificatorPropertyKey(Constants.PLUGIN_TYPE, Constants.PUSH_SUBSCRIPTIONS);
+    private static final Gson GSON = new Gson();
+    private static final Type LIST_TYPE = new TypeToken<List<PushSubscription>>() {}.getType();
+
+    private final PreferencesCache preferences;
+    private final int maxPerUser;
+    private final List<String> allowedHosts;
+
+    public PushSubscriptionStore(@NotNull PreferencesCache preferences) {
+        this.preferences = preferences;
+        this.maxPerUser = Math.max(1, TeamCityProperties.getInteger(
+                Constants.PUSH_SUBSCRIPTIONS_PER_USER, Constants.DEFAULT_PUSH_SUBSCRIPTIONS_PER_USER));
+
+        final List<String> hosts = new ArrayList<>();
+        for (String host : TeamCityProperties.getProperty(Constants.PUSH_ALLOWED_HOSTS, Constants.DEFAULT_PUSH_ALLOWED_HOSTS).split(",")) {
+            if (!host.trim().isEmpty()) {
+                hosts.add(host.trim().toLowerCase(Locale.ENGLISH));
+            }
+        }
+        this.allowedHosts = Collections.unmodifiableList(hosts);
+    }
+
+    @NotNull
+    public List<PushSubscription> get(@NotNull User user) {
+        final String value = user.getPropertyValue(SUBSCRIPTIONS_KEY);
+        if (null == value || value.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        try {
+            final List<PushSubscription> subscriptions = GSON.fromJson(value, LIST_TYPE);
+            return null != subscriptions ? subscriptions : Collections.<PushSubscription>emptyList();
+        } catch (JsonParseException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Add subscription, replacing the one with the same endpoint.
+     * @throws IllegalArgumentException - if the subscription is malformed or points to a push service not allowed.
+     */
+    public synchronized void add(@NotNull SUser user, @NotNull String endpoint, @NotNull String p256dh, @NotNull String auth) {
+        final PushSubscription subscription = PushSubscription.of(endpoint, p256dh, auth, allowedHosts);
+
+        final List<PushSubscription> subscriptions = without(get(user), endpoint);
+        subscriptions.add(subscription);
+        while (subscriptions.size() > maxPerUser) {
+            subscriptions.remove(0);
+        }
+
+        user.setUserProperty(SUBSCRIPTIONS_KEY, GSON.toJson(subscriptions, LIST_TYPE));
+        preferences.invalidate(user.getId());
+    }
+
+    public synchronized void remove(@NotNull SUser user, @NotNull String endpoint) {
+        final List<PushSubscription> existing = get(user);
+        final List<PushSubscription> subscriptions = without(existing, endpoint);
+        if (subscriptions.size() == existing.size()) {
+            return;
+        }
+
+        if (subscriptions.isEmpty()) {
+            user.deleteUserProperty(SUBSCRIPTIONS_KEY);
+        } else {
+            user.setUserProperty(SUBSCRIPTIONS_KEY, GSON.toJson(subscriptions, LIST_TYPE));
+        }
+        preferences.invalidate(user.getId());
+    }
+
+    @NotNull
+    private static List<PushSubscription> without(@NotNull List<PushSubscription> subscriptions, @NotNull String endpoint) {
+        final List<PushSubscription> result = new ArrayList<>(subscriptions.size() + 1);
+        for (PushSubscription subscription : subscriptions) {
+            if (!endpoint.equals(subscription.getEndpoint())) {
+                result.add(subscription);
+            }
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.push;
+
+import com.github.grundic.browser.notificator.Constants;
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.serverSide.SBuildServer;
+import jetbrains.buildServer.serverSide.ServerPaths;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.*;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Application server key pair used to identify this server to push services (VAPID, RFC 8292).
+ * <p>
+ * The key pair is generated on first use and kept in the plugin data directory, shared by all nodes. Browsers bind
+ * their subscriptions to the public key, so losing the file invalidates every subscription. Signed tokens are
+ * cached per push service until they are close to expiration.
+ */
+public class VapidKeys {
+    private final Logger LOG = Logger.getInstance(VapidKeys.class.getName());
+
+    private static final long TOKEN_LIFETIME = TimeUnit.HOURS.toMillis(12);
+    private static final long TOKEN_RENEWAL = TimeUnit.HOURS.toMillis(1);
+    private static final Base64.Encoder BASE64URL = Base64.getUrlEncoder().withoutPadding();
+
+    private final File file;
+    private final SBuildServer buildServer;
+    private final ConcurrentMap<String, Token> tokens = new ConcurrentHashMap<>();
+
+    private volatile KeyPair keyPair;
+    private volatile String publicKey;
+
+    public VapidKeys(@NotNull ServerPaths serverPaths, @NotNull SBuildServer buildServer) {
+        this.file = new File(serverPaths.getPluginDataDirectory(), Constants.PLUGIN_TYPE + File.separator + "vapid.properties");
+        this.buildServer = buildServer;
+    }
+
+    /**
+     * @return - public key as an uncompressed P-256 point, base64url encoded; the {@code applicationServerKey}
+     * for {@code PushManager.subscribe()}.
+     */
+    @NotNull
+    public String getPublicKey() throws IOException, GeneralSecurityException {
+        getKeyPair();
+        return publicKey;
+    }
+
+    /**
+     * @param audience - origin of the push service.
+     * @return - value of the Authorization header for requests to the push service.
+     */
+    @NotNull
+    public String getAuthorization(@NotNull String audience) throws IOException, GeneralSecurityException {
+        final long now = System.currentTimeMillis();
+        Token token = tokens.get(audience);
+        if (null == token || token.expiresAt - now < TOKEN_RENEWAL) {
+            token = new Token(sign(audience, now + TOKEN_LIFETIME), now + TOKEN_LIFETIME);
+            tokens.put(audience, token);
+        }
+
+        return "vapid t=" + token.value + ", k=" + getPublicKey();
+    }
+
+    @NotNull
+    private String sign(@NotNull String audience, long expiresAt) throws IOException, GeneralSecurityException {
+        final String subject = TeamCityProperties.getProperty(Constants.PUSH_SUBJECT, buildServer.getRootUrl());
+        final String header = encode("{\"typ\":\"JWT\",\"alg\":\"ES256\"}");
+        final String claims = encode(String.format("{\"aud\":\"%s\",\"exp\":%d%s}",
+                escape(audience), TimeUnit.MILLISECONDS.toSeconds(expiresAt),
+                null == subject || subject.isEmpty() ? "" : ",\"sub\":\"" + escape(subject) + "\""));
+        final String unsigned = header + '.' + claims;
+
+        final Signature signature = Signature.getInstance("SHA256withECDSA");
+        signature.initSign(getKeyPair().getPrivate());
+        signature.update(unsigned.getBytes(StandardCharsets.US_ASCII));
+
+        return unsigned + '.' + BASE64URL.encodeToString(toJose(signature.sign()));
+    }
+
+    // JWS wants the raw R || S pair, the JDK produces a DER sequence of two integers
+    @NotNull
+    static byte[] toJose(@NotNull byte[] der) throws SignatureException {
+        if (der.length < 8 || der[0] != 0x30) {
+            throw new SignatureException("Unexpected ECDSA signature encoding");
+        }
+
+        final byte[] jose = new byte[64];
+        int offset = (der[1] & 0x80) != 0 ? 3 : 2;
+        for (int part = 0; part < 2; part++) {
+            if (der[offset] != 0x02) {
+                throw new SignatureException("Unexpected ECDSA signature encoding");
+            }
+            int length = der[offset + 1];
+            int start = offset + 2;
+            offset = start + length;
+            while (length > 32 && der[start] == 0) {
+                start++;
+                length--;
+            }
+            System.arraycopy(der, start, jose, part * 32 + 32 - length, length);
+        }
+
+        return jose;
+    }
+
+    @NotNull
+    private KeyPair getKeyPair() throws IOException, GeneralSecurityException {
+        KeyPair result = keyPair;
+        if (null == result) {
+            synchronized (this) {
+                result = keyPair;
+                if (null == result) {
+                    result = file.isFile() ? read() : generate();
+                    publicKey = BASE64URL.encodeToString(PushEncryption.encodePoint((ECPublicKey) result.getPublic()));
+                    keyPair = result;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    @NotNull
+    private KeyPair read() throws IOException, GeneralSecurityException {
+        final Properties properties = new Properties();
+        try (InputStream input = Files.newInputStream(file.toPath())) {
+            properties.load(input);
+        }
+
+        final String publicKey = properties.getProperty("publicKey");
+        final String privateKey = properties.getProperty("privateKey");
+        if (null == publicKey || null == privateKey) {
+            throw new InvalidKeyException("Malformed VAPID key file " + file);
+        }
+
+        final KeyFactory factory = KeyFactory.getInstance("EC");
+        return new KeyPair(
+                factory.generatePublic(new X509EncodedKeySpec(Base64.getDecoder().decode(publicKey))),
+                factory.generatePrivate(new PKCS8EncodedKeySpec(Base64.getDecoder().decode(privateKey))));
+    }
+
+    @NotNull
+    private KeyPair generate() throws IOException, GeneralSecurityException {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(PushEncryption.getCurve(), new SecureRandom());
+        final KeyPair generated = generator.generateKeyPair();
+
+        final Properties properties = new Properties();
+        properties.setProperty("publicKey", Base64.getEncoder().encodeToString(generated.getPublic().getEncoded()));
+        properties.setProperty("privateKey", Base64.getEncoder().encodeToString(generated.getPrivate().getEncoded()));
+
+        Files.createDirectories(file.getParentFile().toPath());
+        final Path temp = Files.createTempFile(file.getParentFile().toPath(), "vapid", ".tmp");
+        try {
+            try (OutputStream output = Files.newOutputStream(temp)) {
+                properties.store(output, "Browser Notifier VAPID keys, deleting them invalidates all push subscriptions");
+            }
+            // another node may have generated its keys meanwhile, the first one wins
+            Files.move(temp, file.toPath());
+            LOG.info("Generated VAPID keys for Web Push in " + file);
+            return generated;
+        } catch (FileAlreadyExistsException e) {
+            return read();
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @NotNull
+    private static String encode(@NotNull String json) {
+        return BASE64URL.encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @NotNull
+    private static String escape(@NotNull String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static final class Token {
+        private final String value;
+        private final long expiresAt;
+
+        private Token(@NotNull String value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.relay;
+
+import com.github.grundic.browser.notificator.Constants;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.serverSide.ServerPaths;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Relay transport over a directory shared by all nodes, e.g. the TeamCity data directory.
+ * <p>
+ * Every node owns a presence file with ids of connected users and an inbox directory where other nodes drop
+ * batches. Files are written to a temporary name and renamed, so readers never see partial content. A batch is
+ * deleted only once it was read; one that can't be read is left for the next poll, and one that can't be parsed is
+ * renamed aside. Several processes on one machine can share a local directory, which is handy for load testing.
+ * The directory is {@link Constants#RELAY_DIRECTORY}, or one in the plugin data directory.
+ */
+public class DirectoryRelayTransport implements RelayTransport {
+    private static final Logger LOG = Logger.getInstance(DirectoryRelayTransport.class.getName());
+    private static final Gson GSON = new Gson();
+    private static final Type BATCH_TYPE = new TypeToken<List<RelayEnvelope>>() {}.getType();
+
+    private static final String PRESENCE_SUFFIX = ".presence";
+    private static final String BATCH_SUFFIX = ".batch";
+    private static final String MALFORMED_SUFFIX = ".malformed";
+
+    private final File nodesDir;
+    private final File inboxDir;
+    private final AtomicLong sequence = new AtomicLong();
+
+    public DirectoryRelayTransport(@NotNull ServerPaths serverPaths) {
+        this(rootOf(serverPaths));
+    }
+
+    public DirectoryRelayTransport(@NotNull File root) {
+        this.nodesDir = new File(root, "nodes");
+        this.inboxDir = new File(root, "inbox");
+    }
+
+    @Override
+    public void announce(@NotNull String node, @NotNull Collection<Long> users) throws IOException {
+        StringBuilder content = new StringBuilder(users.size() * 8);
+        for (Long user : users) {
+            content.append(user).append('\n');
+        }
+
+        write(new File(nodesDir, fileName(node) + PRESENCE_SUFFIX), content.toString());
+    }
+
+    @Override
+    public void withdraw(@NotNull String node) throws IOException {
+        Files.deleteIfExists(new File(nodesDir, fileName(node) + PRESENCE_SUFFIX).toPath());
+    }
+
+    @NotNull
+    @Override
+    public Map<String, Set<Long>> readPresence(long maxAgeMillis) throws IOException {
+        final File[] files = nodesDir.listFiles((dir, name) -> name.endsWith(PRESENCE_SUFFIX));
+        if (null == files) {
+            return Collections.emptyMap();
+        }
+
+        final long now = System.currentTimeMillis();
+        final Map<String, Set<Long>> presence = new HashMap<>();
+        for (File file : files) {
+            if (now - file.lastModified() > maxAgeMillis) {
+                continue;
+            }
+
+            final Set<Long> users = new HashSet<>();
+            try {
+                for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                    if (!line.isEmpty()) {
+                        users.add(Long.parseLong(line));
+                    }
+                }
+            } catch (NumberFormatException | java.nio.file.NoSuchFileException e) {
+                continue;
+            }
+
+            final String name = file.getName();
+            presence.put(name.substring(0, name.length() - PRESENCE_SUFFIX.length()), users);
+        }
+
+        return presence;
+    }
+
+    @Override
+    public void send(@NotNull String node, @NotNull List<RelayEnvelope> batch) throws IOException {
+        // name sorts in creation order within the sending node
+        final String name = String.format("%013d-%08d-%s%s",
+                System.currentTimeMillis(), sequence.incrementAndGet() % 100000000, UUID.randomUUID(), BATCH_SUFFIX);
+        write(new File(new File(inboxDir, fileName(node)), name), GSON.toJson(batch, BATCH_TYPE));
+    }
+
+    @NotNull
+    @Override
+    public List<List<RelayEnvelope>> receive(@NotNull String node) throws IOException {
+        final File[] files = new File(inboxDir, fileName(node)).listFiles((dir, name) -> name.endsWith(BATCH_SUFFIX));
+        if (null == files || 0 == files.length) {
+            return Collections.emptyList();
+        }
+
+        Arrays.sort(files);
+        final List<List<RelayEnvelope>> batches = new ArrayList<>(files.length);
+        for (File file : files) {
+            final String content;
+            try {
+                content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                // later batches wait too, so the order is kept
+                LOG.warn("Failed to read relay batch " + file + ", will retry", e);
+                break;
+            }
+
+            try {
+                final List<RelayEnvelope> batch = GSON.fromJson(content, BATCH_TYPE);
+                if (null != batch) {
+                    batches.add(batch);
+                }
+            } catch (JsonParseException e) {
+                LOG.warn("Skipping malformed relay batch " + file, e);
+                Files.move(file.toPath(), file.toPath().resolveSibling(file.getName() + MALFORMED_SUFFIX), StandardCopyOption.REPLACE_EXISTING);
+                continue;
+            }
+            Files.deleteIfExists(file.toPath());
+        }
+
+        return batches;
+    }
+
+    private static void write(@NotNull File file, @NotNull String content) throws IOException {
+        final Path target = file.toPath();
+        Files.createDirectories(target.getParent());
+
+        final Path temp = target.resolveSibling(file.getName() + ".tmp");
+        Files.write(temp, content.getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @NotNull
+    private static File rootOf(@NotNull ServerPaths serverPaths) {
+        final String directory = TeamCityProperties.getPropertyOrNull(Constants.RELAY_DIRECTORY);
+        return (null != directory)
+                ? new File(directory)
+                : new File(serverPaths.getPluginDataDirectory(), Constants.PLUGIN_TYPE + File.separator + "relay");
+    }
+
+    @NotNull
+    private static String fileName(@NotNull String node) {
+        return node.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.relay;
+
+import com.github.grundic.browser.notificator.Constants;
+import com.github.grundic.browser.notificator.NotificationFrame;
+import com.github.grundic.browser.notificator.metrics.DeliveryMetrics;
+import com.github.grundic.browser.notificator.websocket.BroadcastListener;
+import com.github.grundic.browser.notificator.websocket.NotificationEndpoint;
+import com.github.grundic.browser.notificator.websocket.SessionRegistry;
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.serverSide.SBuildServer;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.users.SUser;
+import jetbrains.buildServer.users.UserModel;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Forwards notifications to users connected to other nodes of a multi-node TeamCity installation.
+ * <p>
+ * Nodes periodically announce which users are connected to them. Every broadcast is routed once per remote node,
+ * carrying only the recipients connected there, so nodes without those users get nothing. Outgoing notifications
+ * are batched per node and leave the queue of the node only once sent, so a failed batch is retried on the next
+ * exchange. A receiving node fans them out to its local connections only. Disabled unless
+ * {@link Constants#RELAY_ENABLED} is set.
+ */
+public class NotificationRelay implements BroadcastListener, DisposableBean {
+    private final Logger LOG = Logger.getInstance(NotificationRelay.class.getName());
+
+    private final NotificationEndpoint notificationEndpoint;
+    private final SessionRegistry sessionRegistry;
+    private final UserModel userModel;
+    private final SBuildServer buildServer;
+    private final DeliveryMetrics metrics;
+
+    private final String nodeId;
+    private final RelayTransport transport;
+    private final int batchSize;
+    private final long presenceMillis;
+
+    private volatile Map<String, Set<Long>> presence = Collections.emptyMap();
+    private final ConcurrentMap<String, Queue<RelayEnvelope>> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+
+    public NotificationRelay(
+            @NotNull NotificationEndpoint notificationEndpoint,
+            @NotNull SessionRegistry sessionRegistry,
+            @NotNull UserModel userModel,
+            @NotNull SBuildServer buildServer,
+            @NotNull RelayTransport transport,
+            @NotNull DeliveryMetrics metrics
+    ) {
+        this.notificationEndpoint = notificationEndpoint;
+        this.sessionRegistry = sessionRegistry;
+        this.userModel = userModel;
+        this.buildServer = buildServer;
+        this.metrics = metrics;
+        this.nodeId = TeamCityProperties.getProperty(Constants.RELAY_NODE_ID, ManagementFactory.getRuntimeMXBean().getName())
+                .replaceAll("[^A-Za-z0-9._-]", "_");
+        this.batchSize = Math.max(1, TeamCityProperties.getInteger(Constants.RELAY_BATCH_SIZE, Constants.DEFAULT_RELAY_BATCH_SIZE));
+        this.presenceMillis = TeamCityProperties.getLong(Constants.RELAY_PRESENCE_INTERVAL, Constants.DEFAULT_RELAY_PRESENCE_INTERVAL);
+
+        this.transport = transport;
+
+        if (!TeamCityProperties.getBoolean(Constants.RELAY_ENABLED)) {
+            this.scheduler = null;
+            return;
+        }
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Browser notifier relay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long pollMillis = TeamCityProperties.getLong(Constants.RELAY_POLL_INTERVAL, Constants.DEFAULT_RELAY_POLL_INTERVAL);
+        scheduler.scheduleWithFixedDelay(this::exchange, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::refreshPresence, 0, presenceMillis, TimeUnit.MILLISECONDS);
+
+        notificationEndpoint.addBroadcastListener(this);
+        LOG.info(String.format("Browser notifier relay is enabled, node id: %s", nodeId));
+    }
+
+    @Override
+    public void onBroadcast(@NotNull NotificationFrame frame, @NotNull Set<SUser> users) {
+        String json = null;
+        for (Map.Entry<String, Set<Long>> node : presence.entrySet()) {
+            if (nodeId.equals(node.getKey())) {
+                continue;
+            }
+
+            final long[] recipients = new long[users.size()];
+            int count = 0;
+            for (SUser user : users) {
+                if (node.getValue().contains(user.getId())) {
+                    recipients[count++] = user.getId();
+                }
+            }
+
+            if (count > 0) {
+                if (null == json) {
+                    json = frame.toJson();
+                }
+                pending.computeIfAbsent(node.getKey(), k -> new ConcurrentLinkedQueue<>())
+                        .add(new RelayEnvelope(json, frame.getScope(), Arrays.copyOf(recipients, count)));
+            }
+        }
+    }
+
+    /**
+     * As of the last presence refresh, so a user who has just connected elsewhere may not be seen yet.
+     * @param userId - id of the user.
+     * @return - true if the user is connected to any other node.
+     */
+    public boolean isConnectedElsewhere(long userId) {
+        for (Map.Entry<String, Set<Long>> node : presence.entrySet()) {
+            if (!nodeId.equals(node.getKey()) && node.getValue().contains(userId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void exchange() {
+        try {
+            flush();
+            receive();
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Failed to exchange notifications with other nodes", e);
+        }
+    }
+
+    private void flush() {
+        for (Map.Entry<String, Queue<RelayEnvelope>> entry : pending.entrySet()) {
+            final Queue<RelayEnvelope> queue = entry.getValue();
+            if (!presence.containsKey(entry.getKey())) {
+                // node went away, nobody would ever read it
+                queue.clear();
+                continue;
+            }
+
+            while (!queue.isEmpty()) {
+                // only this thread takes from the queue, and broadcasts only append, so the head stays put
+                final List<RelayEnvelope> batch = new ArrayList<>(Math.min(batchSize, 64));
+                final Iterator<RelayEnvelope> head = queue.iterator();
+                while (batch.size() < batchSize && head.hasNext()) {
+                    batch.add(head.next());
+                }
+
+                try {
+                    transport.send(entry.getKey(), batch);
+                } catch (IOException | RuntimeException e) {
+                    LOG.warn("Failed to send notifications to node " + entry.getKey() + ", will retry", e);
+                    metrics.recordRelayFailure();
+                    // the rest would most likely fail the same way, other nodes may still be fine
+                    break;
+                }
+
+                for (int i = 0; i < batch.size(); i++) {
+                    queue.poll();
+                }
+            }
+        }
+    }
+
+    private void receive() throws IOException {
+        for (List<RelayEnvelope> batch : transport.receive(nodeId)) {
+            for (RelayEnvelope envelope : batch) {
+                if (null == envelope.frame || null == envelope.users) {
+                    continue;
+                }
+
+                final Set<SUser> users = new HashSet<>(envelope.users.length);
+                for (long id : envelope.users) {
+                    final SUser user = userModel.findUserById(id);
+                    if (null != user) {
+                        users.add(user);
+                    }
+                }
+
+                if (!users.isEmpty()) {
+                    if (null != envelope.scope) {
+                        // committers are sent only if the sending node has looked them up already
+                        envelope.scope.resolveCommitters(buildServer);
+                    }
+                    notificationEndpoint.deliver(NotificationFrame.fromJson(envelope.frame, envelope.scope), users);
+                }
+            }
+        }
+    }
+
+    private void refreshPresence() {
+        try {
+            transport.announce(nodeId, sessionRegistry.getUserIds());
+            presence = transport.readPresence(3 * presenceMillis);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Failed to refresh presence of other nodes", e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (null == scheduler) {
+            return;
+        }
+
+        scheduler.shutdownNow();
+        try {
+            transport.withdraw(nodeId);
+        } catch (IOException e) {
+            LOG.debug(e);
+        }
+    }
+}
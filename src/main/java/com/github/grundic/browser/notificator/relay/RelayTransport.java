@@ -0,0 +1,66 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.relay;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Medium used by {@link NotificationRelay} to exchange notifications and presence between nodes.
+ */
+public interface RelayTransport {
+    /**
+     * Publish ids of users who have connections to the node.
+     */
+    void announce(@NotNull String node, @NotNull Collection<Long> users) throws IOException;
+
+    /**
+     * Stop announcing the node.
+     */
+    void withdraw(@NotNull String node) throws IOException;
+
+    /**
+     * @param maxAgeMillis - announcements older than this are ignored.
+     * @return - users connected to each live node.
+     */
+    @NotNull
+    Map<String, Set<Long>> readPresence(long maxAgeMillis) throws IOException;
+
+    /**
+     * Deliver batch of notifications to the node.
+     */
+    void send(@NotNull String node, @NotNull List<RelayEnvelope> batch) throws IOException;
+
+    /**
+     * Take all batches delivered to the node so far, oldest first.
+     */
+    @NotNull
+    List<List<RelayEnvelope>> receive(@NotNull String node) throws IOException;
+}
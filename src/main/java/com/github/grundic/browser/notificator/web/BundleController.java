@@ -0,0 +1,87 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.web;
+
+import jetbrains.buildServer.controllers.BaseController;
+import jetbrains.buildServer.web.openapi.WebControllerManager;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.web.servlet.ModelAndView;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Serves the {@link ClientBundle}. Requests for the current hash are cacheable forever, a stale hash from a cached
+ * page gets the current bundle, which must be revalidated.
+ */
+public class BundleController extends BaseController {
+    public static final String PATH = "/browserNotifier/bundle.html";
+    private static final String IMMUTABLE = "public, max-age=31536000, immutable";
+
+    private final ClientBundle bundle;
+
+    public BundleController(@NotNull WebControllerManager webControllerManager, @NotNull ClientBundle bundle) {
+        this.bundle = bundle;
+        webControllerManager.registerController(PATH, this);
+    }
+
+    /**
+     * @return - URL of the current bundle, relative to the server root.
+     */
+    @NotNull
+    public String getUrl() {
+        return PATH + "?v=" + bundle.getHash();
+    }
+
+    @Nullable
+    @Override
+    protected ModelAndView doHandle(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response) throws Exception {
+        final String etag = '"' + bundle.getHash() + '"';
+        response.setHeader("Cache-Control", bundle.getHash().equals(request.getParameter("v")) ? IMMUTABLE : "no-cache");
+        response.setHeader("ETag", etag);
+        response.setHeader("Vary", "Accept-Encoding");
+        if (etag.equals(request.getHeader("If-None-Match"))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return null;
+        }
+
+        response.setContentType("application/javascript");
+        response.setCharacterEncoding("UTF-8");
+
+        final String encodings = request.getHeader("Accept-Encoding");
+        final byte[] body;
+        if (null != encodings && encodings.contains("gzip")) {
+            response.setHeader("Content-Encoding", "gzip");
+            body = bundle.getGzipped();
+        } else {
+            body = bundle.getContent();
+        }
+
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+        return null;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.web;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Client scripts shown on every page, concatenated and stripped of comments and indentation once, at startup.
+ * The bundle is addressed by a hash of its content, so browsers can cache it for as long as they like.
+ */
+public class ClientBundle {
+    private static final String RESOURCES = "/buildServerResources/com/github/grundic/browser/notificator/js/";
+    private static final String[] FILES = {"notify.js", "connection.js", "listener.js"};
+    private static final String HEADER = "/* notify.js (c) Alex Gibson, Browser Notifier (c) Grigory Chernyshev; MIT license */\n";
+
+    private final byte[] content;
+    private final byte[] gzipped;
+    private final String hash;
+
+    public ClientBundle() {
+        final StringBuilder bundle = new StringBuilder(HEADER);
+        for (String file : FILES) {
+            bundle.append(strip(read(file))).append(";\n");
+        }
+
+        this.content = bundle.toString().getBytes(StandardCharsets.UTF_8);
+        this.gzipped = gzip(content);
+        this.hash = sha256(content).substring(0, 16);
+    }
+
+    @NotNull
+    public byte[] getContent() {
+        return content;
+    }
+
+    @NotNull
+    public byte[] getGzipped() {
+        return gzipped;
+    }
+
+    /**
+     * @return - content hash, changes with every change of the scripts.
+     */
+    @NotNull
+    public String getHash() {
+        return hash;
+    }
+
+    /**
+     * Remove comments and indentation. Works line by line and keeps line breaks, so automatic semicolon insertion
+     * and string literals are never affected; comments are only recognized at the start of a line.
+     */
+    @NotNull
+    static String strip(@NotNull String script) {
+        final StringBuilder result = new StringBuilder(script.length());
+        boolean comment = false;
+        for (String line : script.split("\r?\n")) {
+            final String trimmed = line.trim();
+            if (comment) {
+                comment = !trimmed.endsWith("*/");
+                continue;
+            }
+
+            if (trimmed.isEmpty() || trimmed.startsWith("//")) {
+                continue;
+            }
+            if (trimmed.startsWith("/*")) {
+                comment = !trimmed.endsWith("*/") || trimmed.length() < 4;
+                continue;
+            }
+
+            result.append(trimmed).append('\n');
+        }
+
+        return result.toString();
+    }
+
+    @NotNull
+    private static String read(@NotNull String file) {
+        try (InputStream input = ClientBundle.class.getResourceAsStream(RESOURCES + file)) {
+            if (null == input) {
+                throw new IllegalStateException("Client script is missing: " + file);
+            }
+
+            final ByteArrayOutputStream output = new ByteArrayOutputStream(16 * 1024);
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) >= 0) {
+                output.write(buffer, 0, read);
+            }
+            return new String(output.toByteArray(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @NotNull
+    private static byte[] gzip(@NotNull byte[] content) {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream(content.length / 3);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+            gzip.write(content);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return output.toByteArray();
+    }
+
+    @NotNull
+    private static String sha256(@NotNull byte[] content) {
+        try {
+            final StringBuilder hex = new StringBuilder(64);
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(content)) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -29,24 +29,44 @@ import jetbrains.buildServer.web.openapi.PagePlaces;
 import jetbrains.buildServer.web.openapi.PlaceId;
 import jetbrains.buildServer.web.openapi.PluginDescriptor;
 import jetbrains.buildServer.web.openapi.SimplePageExtension;
+import jetbrains.buildServer.web.util.SessionUser;
 import org.jetbrains.annotations.NotNull;
 
+import javax.servlet.http.HttpServletRequest;
+import java.util.Map;
+
 /**
  * User: g.chernyshev
  * Date: 09/10/16
  * Time: 17:19
  */
 public class ClientEventListenerProvider extends SimplePageExtension {
-    public ClientEventListenerProvider(@NotNull PagePlaces pagePlaces, @NotNull PluginDescriptor descriptor) {
+    private final BundleController bundleController;
+
+    public ClientEventListenerProvider(
+            @NotNull PagePlaces pagePlaces,
+            @NotNull PluginDescriptor descriptor,
+            @NotNull BundleController bundleController
+    ) {
         super(
                 pagePlaces,
                 PlaceId.ALL_PAGES_HEADER,
                 Constants.PLUGIN_TYPE,
-                descriptor.getPluginResourcesPath("com/github/grundic/browser/notificator/jsp/empty.jsp")
+                descriptor.getPluginResourcesPath("com/github/grundic/browser/notificator/jsp/loader.jsp")
         );
+        this.bundleController = bundleController;
 
-        addJsFile(descriptor.getPluginResourcesPath("com/github/grundic/browser/notificator/js/notify.js"));
-        addJsFile(descriptor.getPluginResourcesPath("com/github/grundic/browser/notificator/js/listener.js"));
+        // Scripts are loaded by the stub in loader.jsp, once notifications are allowed and the page is idle
         register();
     }
+
+    @Override
+    public boolean isAvailable(@NotNull HttpServletRequest request) {
+        return null != SessionUser.getUser(request);
+    }
+
+    @Override
+    public void fillModel(@NotNull Map<String, Object> model, @NotNull HttpServletRequest request) {
+        model.put("bundleUrl", bundleController.getUrl());
+    }
 }
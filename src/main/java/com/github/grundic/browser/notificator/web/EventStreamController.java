@@ -0,0 +1,195 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.web;
+
+import com.github.grundic.browser.notificator.Constants;
+import com.github.grundic.browser.notificator.WireFormat;
+import com.github.grundic.browser.notificator.metrics.DeliveryMetrics;
+import com.github.grundic.browser.notificator.websocket.ClientMessage;
+import com.github.grundic.browser.notificator.websocket.EventStreamTransport;
+import com.github.grundic.browser.notificator.websocket.HandshakeThrottle;
+import com.github.grundic.browser.notificator.websocket.NotificationEndpoint;
+import com.github.grundic.browser.notificator.websocket.OutboxSettings;
+import com.github.grundic.browser.notificator.websocket.ReplayBuffer;
+import com.github.grundic.browser.notificator.websocket.SessionOutbox;
+import com.github.grundic.browser.notificator.websocket.SessionRegistry;
+import com.github.grundic.browser.notificator.websocket.Subscription;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.controllers.BaseController;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.users.SUser;
+import jetbrains.buildServer.web.openapi.WebControllerManager;
+import jetbrains.buildServer.web.util.SessionUser;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.web.servlet.ModelAndView;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.websocket.CloseReason;
+
+/**
+ * Server-Sent Events fallback of the websocket endpoint, feeding the same registry and fan-out path.
+ * <p>
+ * The client's position in the message stream comes from the {@code Last-Event-ID} header on automatic reconnects,
+ * or from {@code epoch} and {@code seq} parameters on the first request. Events are one-way, so the subscription is
+ * passed as a JSON {@code subscription} parameter, and changing it means opening a new stream. Streams are closed
+ * after {@link Constants#EVENT_STREAM_TIMEOUT}, browsers reconnect and catch up by themselves.
+ * <p>
+ * New streams share the {@link HandshakeThrottle} with websockets. A rejected stream gets the same close event a
+ * rejected socket gets, as a 200 response: browsers give up on an event source answered with an error status.
+ */
+public class EventStreamController extends BaseController {
+    private final Logger LOG = Logger.getInstance(EventStreamController.class.getName());
+
+    public static final String PATH = "/browserNotifier/events.html";
+
+    private final NotificationEndpoint notificationEndpoint;
+    private final SessionRegistry sessionRegistry;
+    private final ReplayBuffer replayBuffer;
+    private final DeliveryMetrics metrics;
+    private final HandshakeThrottle throttle;
+    private final Gson myGson = new Gson();
+
+    public EventStreamController(
+            @NotNull WebControllerManager webControllerManager,
+            @NotNull NotificationEndpoint notificationEndpoint,
+            @NotNull SessionRegistry sessionRegistry,
+            @NotNull ReplayBuffer replayBuffer,
+            @NotNull DeliveryMetrics metrics,
+            @NotNull HandshakeThrottle throttle
+    ) {
+        this.notificationEndpoint = notificationEndpoint;
+        this.sessionRegistry = sessionRegistry;
+        this.replayBuffer = replayBuffer;
+        this.metrics = metrics;
+        this.throttle = throttle;
+        webControllerManager.registerController(PATH, this);
+    }
+
+    @Nullable
+    @Override
+    protected ModelAndView doHandle(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response) throws Exception {
+        final SUser user = SessionUser.getUser(request);
+        if (null == user) {
+            metrics.recordRejected();
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return null;
+        }
+
+        if (!request.isAsyncSupported()) {
+            LOG.warn("Asynchronous requests are not supported by the servlet container, event stream is disabled");
+            response.sendError(HttpServletResponse.SC_NOT_IMPLEMENTED);
+            return null;
+        }
+
+        final Subscription subscription;
+        try {
+            subscription = parseSubscription(request.getParameter("subscription"));
+        } catch (IllegalArgumentException e) {
+            // the browser must not get notifications it filtered out
+            LOG.debug("Rejected event stream subscription: " + e.getMessage());
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return null;
+        }
+
+        response.setContentType("text/event-stream");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-store");
+        // don't let nginx buffer the stream
+        response.setHeader("X-Accel-Buffering", "no");
+
+        final long retryAfter = throttle.tryAcquire();
+        if (retryAfter > 0) {
+            metrics.recordThrottled();
+            response.getWriter().write(String.format("retry: %d\n\nevent: close\ndata: {\"code\":%d,\"reason\":\"%s\"}\n\n",
+                    retryAfter, CloseReason.CloseCodes.TRY_AGAIN_LATER.getCode(), HandshakeThrottle.retryReason(retryAfter)));
+            return null;
+        }
+
+        final AsyncContext context = request.startAsync();
+        context.setTimeout(TeamCityProperties.getLong(Constants.EVENT_STREAM_TIMEOUT, Constants.DEFAULT_EVENT_STREAM_TIMEOUT));
+        final EventStreamTransport transport = new EventStreamTransport(context, replayBuffer.getEpoch(),
+                TeamCityProperties.getLong(Constants.EVENT_STREAM_RETRY, Constants.DEFAULT_EVENT_STREAM_RETRY));
+
+        final SessionOutbox outbox = new SessionOutbox(
+                transport,
+                user,
+                WireFormat.parse(request.getParameter("format")),
+                emptyToNull(request.getParameter("browserId")),
+                OutboxSettings.load(),
+                metrics
+        );
+        LOG.debug(String.format("Event stream is opened by %s. Connection id: %s", user.getUsername(), transport.getId()));
+
+        notificationEndpoint.connect(outbox, subscription);
+        transport.setCloseHandler(() -> sessionRegistry.unregister(outbox));
+
+        final String lastEventId = request.getHeader("Last-Event-ID");
+        if (null != lastEventId && lastEventId.indexOf(':') > 0) {
+            final int separator = lastEventId.lastIndexOf(':');
+            notificationEndpoint.resume(outbox, lastEventId.substring(0, separator), parseLong(lastEventId.substring(separator + 1)));
+        } else if (null != request.getParameter("epoch")) {
+            notificationEndpoint.resume(outbox, request.getParameter("epoch"), parseLong(request.getParameter("seq")));
+        }
+        return null;
+    }
+
+    /**
+     * @param json - subscribe message sent along with the request.
+     * @return - subscription, or null if there is none or it is malformed.
+     * @throws IllegalArgumentException - if the subscription names an unknown event kind.
+     */
+    @Nullable
+    private Subscription parseSubscription(@Nullable String json) {
+        if (null == json || json.isEmpty()) {
+            return null;
+        }
+
+        try {
+            final ClientMessage message = myGson.fromJson(json, ClientMessage.class);
+            return null == message ? null : Subscription.of(message);
+        } catch (JsonParseException e) {
+            LOG.debug("Malformed event stream subscription: " + json);
+            return null;
+        }
+    }
+
+    private static long parseLong(@Nullable String value) {
+        try {
+            return null == value ? 0 : Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Nullable
+    private static String emptyToNull(@Nullable String value) {
+        return (null == value || value.isEmpty()) ? null : value;
+    }
+}
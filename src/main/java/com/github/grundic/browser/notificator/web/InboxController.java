@@ -0,0 +1,116 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.web;
+
+import com.github.grundic.browser.notificator.inbox.InboxEntry;
+import com.github.grundic.browser.notificator.inbox.InboxPage;
+import com.github.grundic.browser.notificator.inbox.InboxQuery;
+import com.github.grundic.browser.notificator.inbox.NotificationInbox;
+import com.github.grundic.browser.notificator.notifier.EventType;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import jetbrains.buildServer.controllers.BaseController;
+import jetbrains.buildServer.users.SUser;
+import jetbrains.buildServer.web.openapi.WebControllerManager;
+import jetbrains.buildServer.web.util.SessionUser;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.web.servlet.ModelAndView;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.EnumSet;
+
+/**
+ * Notifications sent to the current user, newest first, as JSON. Optional parameters: {@code project} - external id
+ * of a project, {@code type} - comma separated event types, {@code from} and {@code to} - time range in milliseconds
+ * since epoch, {@code before} - cursor returned with the previous page, {@code limit} - page size.
+ */
+public class InboxController extends BaseController {
+    public static final String PATH = "/browserNotifier/inbox.html";
+
+    private static final int DEFAULT_LIMIT = 50;
+    private static final int MAX_LIMIT = 200;
+
+    private final NotificationInbox notificationInbox;
+
+    public InboxController(@NotNull WebControllerManager webControllerManager, @NotNull NotificationInbox notificationInbox) {
+        this.notificationInbox = notificationInbox;
+        webControllerManager.registerController(PATH, this);
+    }
+
+    @Nullable
+    @Override
+    protected ModelAndView doHandle(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response) throws Exception {
+        final SUser user = SessionUser.getUser(request);
+        if (null == user) {
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+            return null;
+        }
+
+        final InboxQuery query;
+        try {
+            final String project = request.getParameter("project");
+            query = new InboxQuery(
+                    (null == project || project.trim().isEmpty()) ? null : project.trim(),
+                    EventType.parseSet(request.getParameter("type"), EnumSet.noneOf(EventType.class)),
+                    parseLong(request.getParameter("from"), 0),
+                    parseLong(request.getParameter("to"), Long.MAX_VALUE),
+                    parseLong(request.getParameter("before"), Long.MAX_VALUE),
+                    (int) Math.max(1, Math.min(MAX_LIMIT, parseLong(request.getParameter("limit"), DEFAULT_LIMIT)))
+            );
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return null;
+        }
+
+        final InboxPage page = notificationInbox.read(user.getId(), query);
+        final JsonParser parser = new JsonParser();
+        final JsonArray entries = new JsonArray();
+        for (InboxEntry entry : page.getEntries()) {
+            final JsonObject json = new JsonObject();
+            json.addProperty("time", entry.getCreatedAt());
+            json.addProperty("type", (null == entry.getType()) ? null : entry.getType().name());
+            json.add("message", parser.parse(entry.getJson()));
+            entries.add(json);
+        }
+
+        final JsonObject json = new JsonObject();
+        json.add("entries", entries);
+        json.addProperty("next", page.getNext());
+        json.addProperty("enabled", notificationInbox.isEnabled());
+
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "private, no-cache");
+        response.getWriter().write(json.toString());
+        return null;
+    }
+
+    private static long parseLong(@Nullable String value, long defaultValue) {
+        return (null == value || value.isEmpty()) ? defaultValue : Long.parseLong(value);
+    }
+}
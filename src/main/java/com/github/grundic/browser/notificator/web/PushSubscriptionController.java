@@ -0,0 +1,128 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.web;
+
+import com.github.grundic.browser.notificator.push.PushDispatcher;
+import com.github.grundic.browser.notificator.push.PushSubscriptionStore;
+import com.github.grundic.browser.notificator.push.VapidKeys;
+import com.google.gson.JsonObject;
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.controllers.BaseController;
+import jetbrains.buildServer.users.SUser;
+import jetbrains.buildServer.web.openapi.WebControllerManager;
+import jetbrains.buildServer.web.util.SessionUser;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.web.servlet.ModelAndView;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+
+/**
+ * Web Push subscriptions of the current user. GET returns the server's public key, POST with {@code action}
+ * {@code subscribe} or {@code unsubscribe} adds or removes the subscription of the browser.
+ */
+public class PushSubscriptionController extends BaseController {
+    private final Logger LOG = Logger.getInstance(PushSubscriptionController.class.getName());
+
+    public static final String PATH = "/browserNotifier/push.html";
+
+    private final PushDispatcher dispatcher;
+    private final PushSubscriptionStore store;
+    private final VapidKeys vapidKeys;
+
+    public PushSubscriptionController(
+            @NotNull WebControllerManager webControllerManager,
+            @NotNull PushDispatcher dispatcher,
+            @NotNull PushSubscriptionStore store,
+            @NotNull VapidKeys vapidKeys
+    ) {
+        this.dispatcher = dispatcher;
+        this.store = store;
+        this.vapidKeys = vapidKeys;
+        webControllerManager.registerController(PATH, this);
+    }
+
+    @Nullable
+    @Override
+    protected ModelAndView doHandle(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response) throws Exception {
+        final SUser user = SessionUser.getUser(request);
+        if (null == user) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return null;
+        }
+
+        final JsonObject json = new JsonObject();
+        json.addProperty("enabled", dispatcher.isEnabled());
+        if (!dispatcher.isEnabled()) {
+            write(response, json);
+            return null;
+        }
+
+        if (isPost(request)) {
+            final String endpoint = request.getParameter("endpoint");
+            if (null == endpoint) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing endpoint");
+                return null;
+            }
+
+            if ("unsubscribe".equals(request.getParameter("action"))) {
+                store.remove(user, endpoint);
+            } else {
+                try {
+                    store.add(user, endpoint, nullToEmpty(request.getParameter("p256dh")), nullToEmpty(request.getParameter("auth")));
+                } catch (IllegalArgumentException e) {
+                    response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+                    return null;
+                }
+            }
+        }
+
+        try {
+            json.addProperty("publicKey", vapidKeys.getPublicKey());
+        } catch (IOException | GeneralSecurityException e) {
+            LOG.warn("Failed to load VAPID keys", e);
+            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            return null;
+        }
+        json.addProperty("subscriptions", store.get(user).size());
+        write(response, json);
+        return null;
+    }
+
+    private static void write(@NotNull HttpServletResponse response, @NotNull JsonObject json) throws IOException {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-store");
+        response.getWriter().write(json.toString());
+    }
+
+    @NotNull
+    private static String nullToEmpty(@Nullable String value) {
+        return null == value ? "" : value;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.websocket;
+
+import java.util.List;
+
+/**
+ * Message sent by the browser over the websocket.
+ */
+public class ClientMessage {
+    public static final String RESUME = "resume";
+    public static final String SUBSCRIBE = "subscribe";
+    public static final String PRESENCE = "presence";
+
+    public String type;
+    /**
+     * Last sequence number seen by the client, for {@link #RESUME}.
+     */
+    public long seq;
+    /**
+     * Server epoch the sequence number belongs to, for {@link #RESUME}.
+     */
+    public String epoch;
+    /**
+     * External ids of projects to receive notifications about, including subprojects, for {@link #SUBSCRIBE}.
+     */
+    public List<String> projects;
+    /**
+     * External ids of build configurations to receive notifications about, for {@link #SUBSCRIBE}.
+     */
+    public List<String> buildTypes;
+    /**
+     * Names of {@link com.github.grundic.browser.notificator.notifier.EventType event types}, for {@link #SUBSCRIBE}.
+     */
+    public List<String> events;
+    /**
+     * Only builds with changes of the user, for {@link #SUBSCRIBE}.
+     */
+    public boolean myChanges;
+    /**
+     * Whether the user is active in the browser, for {@link #PRESENCE}.
+     */
+    public boolean active;
+    /**
+     * Milliseconds since the last input of the user in the browser, for {@link #PRESENCE}.
+     */
+    public long idleMillis;
+}
@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.websocket;
+
+import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.BeanFactory;
+
+import javax.servlet.http.HttpSession;
+import javax.websocket.Extension;
+import javax.websocket.HandshakeResponse;
+import javax.websocket.server.HandshakeRequest;
+import javax.websocket.server.ServerEndpointConfig;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Configurator of plugin websocket endpoints: takes endpoint instances from Spring, passes the http session and
+ * the admission decision of {@link HandshakeThrottle} to the endpoint, and negotiates compression.
+ */
+public class EndpointConfigurator extends ServerEndpointConfig.Configurator {
+    private final static String PERMESSAGE_DEFLATE = "permessage-deflate";
+
+    private final BeanFactory beanFactory;
+    private final HandshakeThrottle throttle;
+    private final boolean deflate;
+
+    /**
+     * @param beanFactory - source of endpoint instances.
+     * @param throttle - admission control of new connections.
+     * @param deflate - whether to allow {@code permessage-deflate}.
+     */
+    public EndpointConfigurator(@NotNull BeanFactory beanFactory, @NotNull HandshakeThrottle throttle, boolean deflate) {
+        this.beanFactory = beanFactory;
+        this.throttle = throttle;
+        this.deflate = deflate;
+    }
+
+    @Override
+    public <T> T getEndpointInstance(Class<T> endpointClass) {
+        return beanFactory.getBean(endpointClass);
+    }
+
+    @Override
+    public void modifyHandshake(ServerEndpointConfig sec, HandshakeRequest request, HandshakeResponse response) {
+        if (null != HttpSession.class.getName()) {
+            sec.getUserProperties().put(HttpSession.class.getName(), request.getHttpSession());
+        }
+        // JSR-356 can't refuse the upgrade itself, the endpoint closes rejected connections before doing any work
+        // for them
+        sec.getUserProperties().put(HandshakeThrottle.RETRY_AFTER, throttle.tryAcquire());
+    }
+
+    @Override
+    public List<Extension> getNegotiatedExtensions(List<Extension> installed, List<Extension> requested) {
+        // Compression is negotiated by the container whenever it supports it
+        List<Extension> negotiated = super.getNegotiatedExtensions(installed, requested);
+        if (deflate) {
+            return negotiated;
+        }
+
+        List<Extension> result = new ArrayList<>(negotiated.size());
+        for (Extension extension : negotiated) {
+            if (!PERMESSAGE_DEFLATE.equals(extension.getName())) {
+                result.add(extension);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.websocket;
+
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.websocket.CloseReason;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link Transport} over a Server-Sent Events stream, for browsers that can't get a websocket through, e.g. behind a
+ * proxy that strips the upgrade.
+ * <p>
+ * The response is held open in a Servlet 3.1 async context and written with non-blocking I/O, so idle streams
+ * don't occupy threads. Notifications carry {@code <epoch>:<sequence>} event ids, which the browser sends back as
+ * {@code Last-Event-ID} when it reconnects. Pings are comment lines, a completed write counts as a sign of life.
+ * Closing sends a {@code close} event with the websocket close code, so the client knows whether to reconnect.
+ */
+public class EventStreamTransport implements Transport, WriteListener, AsyncListener {
+    private static final Logger LOG = Logger.getInstance(EventStreamTransport.class.getName());
+    private static final AtomicLong IDS = new AtomicLong();
+    private static final byte[] PING = ":\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private final String id = "sse-" + IDS.incrementAndGet();
+    private final AsyncContext context;
+    private final ServletOutputStream output;
+    private final String epoch;
+
+    // guarded by this
+    private final Deque<Write> writes = new ArrayDeque<>(4);
+    private boolean closed;
+    private Runnable closeHandler;
+
+    /**
+     * @param context - started async context of the stream request, with response headers set.
+     * @param epoch - stream the sequence numbers belong to.
+     * @param retryMillis - reconnect delay suggested to the browser.
+     */
+    public EventStreamTransport(@NotNull AsyncContext context, @NotNull String epoch, long retryMillis) throws IOException {
+        this.context = context;
+        this.epoch = epoch;
+        this.output = context.getResponse().getOutputStream();
+
+        writes.add(new Write(("retry: " + retryMillis + "\n\n").getBytes(StandardCharsets.UTF_8), null, null));
+        context.addListener(this);
+        output.setWriteListener(this);
+    }
+
+    /**
+     * @param handler - called once when the stream is closed by either side.
+     */
+    public void setCloseHandler(@NotNull Runnable handler) {
+        final boolean run;
+        synchronized (this) {
+            closeHandler = handler;
+            run = closed;
+        }
+
+        if (run) {
+            handler.run();
+        }
+    }
+
+    @NotNull
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return !closed;
+    }
+
+    @Override
+    public void sendText(@NotNull String text, long sequence, @NotNull SendHandler handler) {
+        final StringBuilder event = new StringBuilder(text.length() + 32);
+        if (sequence > 0) {
+            event.append("id: ").append(epoch).append(':').append(sequence).append('\n');
+        }
+        // JSON never contains raw line breaks, one data line is enough
+        event.append("data: ").append(text).append("\n\n");
+
+        if (!enqueue(new Write(event.toString().getBytes(StandardCharsets.UTF_8), handler, null))) {
+            handler.onResult(new SendResult(new EOFException("Event stream is closed")));
+            return;
+        }
+        onWritePossible();
+    }
+
+    @Override
+    public void ping(@NotNull Runnable alive) {
+        synchronized (this) {
+            // anything queued will prove the connection alive, or fail, soon enough
+            if (closed || !writes.isEmpty()) {
+                return;
+            }
+            writes.add(new Write(PING, null, alive));
+        }
+        onWritePossible();
+    }
+
+    @Override
+    public void close(@NotNull CloseReason reason) {
+        final String data = String.format("{\"code\":%d,\"reason\":\"%s\"}",
+                reason.getCloseCode().getCode(), reason.getReasonPhrase().replace("\\", "\\\\").replace("\"", "\\\""));
+        if (enqueue(new Write(("event: close\ndata: " + data + "\n\n").getBytes(StandardCharsets.UTF_8), null, this::complete))) {
+            onWritePossible();
+        }
+    }
+
+    private synchronized boolean enqueue(@NotNull Write write) {
+        if (closed) {
+            return false;
+        }
+        writes.add(write);
+        return true;
+    }
+
+    @Override
+    public void onWritePossible() {
+        final List<Write> completed = new ArrayList<>(2);
+        Exception failure = null;
+        synchronized (this) {
+            try {
+                while (!closed && output.isReady()) {
+                    final Write head = writes.peek();
+                    if (null == head) {
+                        break;
+                    }
+
+                    if (!head.written) {
+                        output.write(head.bytes);
+                        head.written = true;
+                    } else if (!head.flushed) {
+                        output.flush();
+                        head.flushed = true;
+                    } else {
+                        completed.add(writes.poll());
+                    }
+                }
+            } catch (IOException | IllegalStateException e) {
+                failure = e;
+            }
+        }
+
+        for (Write write : completed) {
+            if (null != write.handler) {
+                write.handler.onResult(new SendResult());
+            }
+            if (null != write.callback) {
+                write.callback.run();
+            }
+        }
+
+        if (null != failure) {
+            onError(failure);
+        }
+    }
+
+    @Override
+    public void onError(@NotNull Throwable error) {
+        LOG.debug(String.format("Event stream %s failed", id), error);
+        shutdown(error);
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+        shutdown(new EOFException("Event stream is closed"));
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+        complete();
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+        onError(null != event.getThrowable() ? event.getThrowable() : new EOFException("Event stream failed"));
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+    }
+
+    private void complete() {
+        shutdown(new EOFException("Event stream is closed"));
+        try {
+            context.complete();
+        } catch (IllegalStateException e) {
+            // already completed by the container
+        }
+    }
+
+    private void shutdown(@NotNull Throwable cause) {
+        final List<Write> failed;
+        final Runnable handler;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            failed = new ArrayList<>(writes);
+            writes.clear();
+            handler = closeHandler;
+        }
+
+        for (Write write : failed) {
+            if (null != write.handler) {
+                write.handler.onResult(new SendResult(cause));
+            }
+        }
+        if (null != handler) {
+            handler.run();
+        }
+    }
+
+    private static final class Write {
+        private final byte[] bytes;
+        private final SendHandler handler;
+        private final Runnable callback;
+        private boolean written;
+        private boolean flushed;
+
+        private Write(@NotNull byte[] bytes, @Nullable SendHandler handler, @Nullable Runnable callback) {
+            this.bytes = bytes;
+            this.handler = handler;
+            this.callback = callback;
+        }
+    }
+}
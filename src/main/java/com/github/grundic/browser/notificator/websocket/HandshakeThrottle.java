@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.websocket;
+
+import com.github.grundic.browser.notificator.Constants;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Token bucket limiting the rate of new connections, so a reconnect storm after a restart can't swamp the node.
+ * <p>
+ * Every rejected client is given its own slot after the ones already handed out, at the rate the bucket refills,
+ * and told to come back then. Clients of a storm are thus spread over time instead of retrying all at once.
+ */
+public class HandshakeThrottle {
+    /**
+     * Handshake user property with the decision for the connection: 0 if admitted, retry delay otherwise.
+     */
+    static final String RETRY_AFTER = "RETRY_AFTER";
+
+    private final double tokensPerMilli;
+    private final double burst;
+    private final long maxRetryMillis;
+
+    // guarded by this
+    private double tokens;
+    private long refilledAt;
+    private double backlogUntil;
+
+    public HandshakeThrottle() {
+        this(TeamCityProperties.getInteger(Constants.HANDSHAKE_RATE, Constants.DEFAULT_HANDSHAKE_RATE),
+                TeamCityProperties.getInteger(Constants.HANDSHAKE_BURST, Constants.DEFAULT_HANDSHAKE_BURST),
+                TeamCityProperties.getLong(Constants.HANDSHAKE_MAX_RETRY, Constants.DEFAULT_HANDSHAKE_MAX_RETRY));
+    }
+
+    /**
+     * @param ratePerSecond - sustained rate of new connections, 0 or less disables the limit.
+     * @param burst - connections admitted at once after a quiet period.
+     * @param maxRetryMillis - longest delay a client is asked to wait.
+     */
+    HandshakeThrottle(int ratePerSecond, int burst, long maxRetryMillis) {
+        this.tokensPerMilli = ratePerSecond / 1000.0;
+        this.burst = Math.max(1, burst);
+        this.maxRetryMillis = maxRetryMillis;
+        this.tokens = this.burst;
+        this.refilledAt = System.currentTimeMillis();
+    }
+
+    /**
+     * @return - reason of the {@code TRY_AGAIN_LATER} close sent to a rejected client.
+     */
+    @NotNull
+    public static String retryReason(long retryMillis) {
+        return "retry=" + retryMillis;
+    }
+
+    /**
+     * @return - 0 if the connection may proceed, otherwise milliseconds the client should wait before retrying.
+     */
+    public long tryAcquire() {
+        return tryAcquire(System.currentTimeMillis());
+    }
+
+    synchronized long tryAcquire(long now) {
+        if (tokensPerMilli <= 0) {
+            return 0;
+        }
+
+        if (now > refilledAt) {
+            // wall clock may step back, that must not take tokens away
+            tokens = Math.min(burst, tokens + (now - refilledAt) * tokensPerMilli);
+            refilledAt = now;
+        }
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+
+        backlogUntil = Math.max(backlogUntil, now) + 1 / tokensPerMilli;
+        if (backlogUntil - now > maxRetryMillis) {
+            // don't let the backlog grow past what clients are told
+            backlogUntil = now + maxRetryMillis;
+        }
+        return Math.max(1, (long) Math.ceil(backlogUntil - now));
+    }
+}
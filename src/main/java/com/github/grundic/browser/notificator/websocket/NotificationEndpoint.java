@@ -26,43 +26,92 @@ package com.github.grundic.browser.notificator.websocket;
 
 import com.github.grundic.browser.notificator.Constants;
 import com.github.grundic.browser.notificator.MessageBean;
+import com.github.grundic.browser.notificator.NotificationFrame;
+import com.github.grundic.browser.notificator.WireFormat;
+import com.github.grundic.browser.notificator.metrics.DeliveryMetrics;
+import com.github.grundic.browser.notificator.notifier.EventScope;
+import com.github.grundic.browser.notificator.notifier.EventType;
+import com.github.grundic.browser.notificator.notifier.PreferencesCache;
 import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import com.intellij.openapi.diagnostic.Logger;
-import jetbrains.buildServer.users.NotificatorPropertyKey;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
 import jetbrains.buildServer.users.SUser;
 import jetbrains.buildServer.web.util.SessionUser;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import javax.servlet.http.HttpSession;
+import javax.websocket.CloseReason;
 import javax.websocket.EndpointConfig;
+import javax.websocket.Extension;
 import javax.websocket.OnClose;
+import javax.websocket.OnError;
+import javax.websocket.OnMessage;
 import javax.websocket.OnOpen;
+import javax.websocket.PongMessage;
 import javax.websocket.Session;
 import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 public class NotificationEndpoint {
     private final Logger LOG = Logger.getInstance(NotificationEndpoint.class.getName());
-    private static final String USER_ID = "USER_ID";
-
-    private static final Map<Long, Queue<Session>> peers = new ConcurrentHashMap<>();
+    private static final String OUTBOX = "OUTBOX";
 
+    private final SessionRegistry sessionRegistry;
+    private final ReplayBuffer replayBuffer;
+    private final PreferencesCache preferences;
+    private final DeliveryMetrics metrics;
+    private final Map<EventType, Priority> priorities;
+    private final long presenceTimeout;
+    private final List<BroadcastListener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong sequence = new AtomicLong();
     private final Gson myGson = new Gson();
 
+    public NotificationEndpoint(
+            @NotNull SessionRegistry sessionRegistry,
+            @NotNull ReplayBuffer replayBuffer,
+            @NotNull PreferencesCache preferences,
+            @NotNull DeliveryMetrics metrics
+    ) {
+        this.sessionRegistry = sessionRegistry;
+        this.replayBuffer = replayBuffer;
+        this.preferences = preferences;
+        this.metrics = metrics;
+        this.priorities = Priority.load();
+        this.presenceTimeout = TeamCityProperties.getLong(Constants.PRESENCE_TIMEOUT, Constants.DEFAULT_PRESENCE_TIMEOUT);
+    }
+
     @OnOpen
     public void onOpen(@NotNull Session session, @NotNull EndpointConfig config) {
+        final Long retryAfter = (Long) config.getUserProperties().get(HandshakeThrottle.RETRY_AFTER);
+        if (null != retryAfter && retryAfter > 0) {
+            metrics.recordThrottled();
+            try {
+                session.close(new CloseReason(CloseReason.CloseCodes.TRY_AGAIN_LATER, HandshakeThrottle.retryReason(retryAfter)));
+            } catch (IOException e) {
+                LOG.debug("Failed to close throttled connection " + session.getId(), e);
+            }
+            return;
+        }
+
         HttpSession httpSession = (HttpSession) config.getUserProperties().get(HttpSession.class.getName());
         if (null == httpSession) {
+            metrics.recordRejected();
             LOG.error("Can't get http session from websocket!");
             return;
         }
 
         final SUser currentUser = SessionUser.getUser(httpSession);
         if (currentUser == null) {
+            metrics.recordRejected();
             LOG.error("Websocket open request with unknown user!");
             return;
         }
@@ -71,67 +120,324 @@ public class NotificationEndpoint {
         );
 
         // Store connection
-        session.getUserProperties().put(USER_ID, currentUser.getId());
-        Queue<Session> sessions = peers.get(currentUser.getId());
-        if (sessions == null) {
-            sessions = new ConcurrentLinkedQueue<>();
-            peers.put(currentUser.getId(), sessions);
+        final SessionOutbox outbox = new SessionOutbox(
+                new WebSocketTransport(session),
+                currentUser,
+                WireFormat.parse(getParameter(session, "format")),
+                getParameter(session, "browserId"),
+                OutboxSettings.load(),
+                metrics
+        );
+        session.getUserProperties().put(OUTBOX, outbox);
+        connect(outbox, null);
+    }
+
+    /**
+     * Start delivering notifications to a new connection of any transport. The client gets the welcome message first.
+     * @param outbox - connection.
+     * @param subscription - notification filter of the connection, null to receive everything.
+     */
+    public void connect(@NotNull SessionOutbox outbox, @Nullable Subscription subscription) {
+        replayBuffer.track(outbox.getUserId());
+
+        // Let client know which stream its sequence numbers belong to, before any notification reaches it
+        JsonObject welcome = new JsonObject();
+        welcome.addProperty("type", "welcome");
+        welcome.addProperty("epoch", replayBuffer.getEpoch());
+        welcome.addProperty("seq", sequence.get());
+        if (WireFormat.COMPACT == outbox.getFormat()) {
+            welcome.add("dictionary", WireFormat.dictionary());
         }
+        outbox.offer(myGson.toJson(welcome));
 
-        sessions.add(session);
+        if (null != subscription) {
+            sessionRegistry.subscribe(outbox, subscription);
+        }
+        sessionRegistry.register(outbox);
+    }
+
+    @Nullable
+    private static String getParameter(@NotNull Session session, @NotNull String name) {
+        final List<String> values = session.getRequestParameterMap().get(name);
+        return (null == values || values.isEmpty() || values.get(0).isEmpty()) ? null : values.get(0);
+    }
+
+    @OnMessage
+    public void onMessage(@NotNull String text, @NotNull Session session) {
+        final SessionOutbox outbox = (SessionOutbox) session.getUserProperties().get(OUTBOX);
+        if (null == outbox) {
+            return;
+        }
+        outbox.touch();
+
+        final ClientMessage message;
+        try {
+            message = myGson.fromJson(text, ClientMessage.class);
+        } catch (JsonParseException e) {
+            LOG.debug(String.format("Malformed message from connection %s: %s", session.getId(), text));
+            return;
+        }
+
+        if (null == message) {
+            return;
+        }
+
+        if (ClientMessage.RESUME.equals(message.type)) {
+            resume(outbox, message.epoch, message.seq);
+        } else if (ClientMessage.SUBSCRIBE.equals(message.type)) {
+            final Subscription subscription;
+            try {
+                subscription = Subscription.of(message);
+            } catch (IllegalArgumentException e) {
+                // keep the previous subscription rather than widen it
+                LOG.debug(String.format("Rejected subscription of connection %s: %s", session.getId(), e.getMessage()));
+                return;
+            }
+            sessionRegistry.subscribe(outbox, subscription);
+        } else if (ClientMessage.PRESENCE.equals(message.type)) {
+            outbox.setActive(message.active, message.idleMillis);
+        }
+    }
+
+    @OnMessage
+    public void onPong(@NotNull PongMessage pong, @NotNull Session session) {
+        final SessionOutbox outbox = (SessionOutbox) session.getUserProperties().get(OUTBOX);
+        if (null != outbox) {
+            outbox.touch();
+        }
     }
 
     @OnClose
     public void onClose(@NotNull Session session) {
-        session.getUserProperties().get(USER_ID);
-        final Long userId = (Long) session.getUserProperties().get(USER_ID);
-        final Queue<Session> sessions = peers.get(userId);
-        if (sessions != null) {
-            sessions.remove(session);
+        final SessionOutbox outbox = (SessionOutbox) session.getUserProperties().get(OUTBOX);
+        if (null != outbox) {
+            sessionRegistry.unregister(outbox);
+
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(String.format("WebSocket connection %s is closed. Format: %s, extensions: %s, messages: %d, bytes sent: %d, bytes saved: %d",
+                        session.getId(), outbox.getFormat(), session.getNegotiatedExtensions().stream().map(Extension::getName).collect(Collectors.toList()),
+                        outbox.getMessagesSent(), outbox.getBytesSent(), outbox.getBytesSaved()));
+            }
+        }
+    }
+
+    @OnError
+    public void onError(@NotNull Session session, @NotNull Throwable error) {
+        LOG.debug(String.format("WebSocket connection %s failed", session.getId()), error);
+        metrics.recordSocketError();
+
+        final SessionOutbox outbox = (SessionOutbox) session.getUserProperties().get(OUTBOX);
+        if (null != outbox) {
+            sessionRegistry.unregister(outbox);
         }
     }
 
-    public void broadcast(@NotNull MessageBean message, @NotNull Set<SUser> users) {
+    /**
+     * Send notifications the client missed while it was disconnected, as one batch.
+     * @param outbox - connection.
+     * @param epoch - stream the client's position belongs to, nothing is sent if it is not the current one.
+     * @param seq - sequence number of the last notification the client got.
+     */
+    public void resume(@NotNull SessionOutbox outbox, @Nullable String epoch, long seq) {
+        if (!replayBuffer.getEpoch().equals(epoch)) {
+            return;
+        }
+
+        final List<NotificationFrame> missed = replayBuffer.since(outbox.getUserId(), seq, outbox.getBrowserId());
+        if (missed.isEmpty()) {
+            return;
+        }
+
+        final SUser user = outbox.getUser();
+        final int timeout = preferences.get(user).getTimeout();
+        final Subscription subscription = outbox.getSubscription();
+        final StringBuilder batch = new StringBuilder().append('[');
+        for (NotificationFrame frame : missed) {
+            if (null != subscription && !subscription.matches(frame.getScope(), user.getId())) {
+                continue;
+            }
+            if (batch.length() > 1) {
+                batch.append(',');
+            }
+            batch.append(frame.getText(outbox.getFormat(), timeout));
+        }
+
+        if (batch.length() > 1) {
+            outbox.offer(batch.append(']').toString(), missed.get(missed.size() - 1).getSequence(), 0, Priority.NORMAL);
+        }
+    }
+
+    /**
+     * Queue message for delivery to open connections of given users, whose subscriptions accept it. Sending is
+     * asynchronous, so this method returns without waiting for any client.
+     * @param message - notification to send.
+     * @param scope - what the notification is about, null to ignore subscriptions.
+     * @param users - recipients.
+     */
+    public void broadcast(@NotNull MessageBean message, @Nullable EventScope scope, @NotNull Set<SUser> users) {
+        broadcast(NotificationFrame.of(message, scope), users);
+    }
+
+    public void addBroadcastListener(@NotNull BroadcastListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Queue already encoded message for delivery to all open connections of given users and pass it to
+     * broadcast listeners.
+     * @param frame - notification to send.
+     * @param users - recipients.
+     */
+    public void broadcast(@NotNull NotificationFrame frame, @NotNull Set<SUser> users) {
+        deliver(frame, users);
+        notifyListeners(frame, users);
+    }
+
+    /**
+     * Encode message, pass it to broadcast listeners and number it, without queueing it for any connection. Used
+     * when recipients are served in parts by several threads, each part is queued with
+     * {@link #deliverSequenced(NotificationFrame, Set)}.
+     * @param message - notification to send.
+     * @param scope - what the notification is about, null to ignore subscriptions.
+     * @param users - all recipients.
+     * @return - frame to deliver.
+     */
+    @NotNull
+    public NotificationFrame announce(@NotNull MessageBean message, @Nullable EventScope scope, @NotNull Set<SUser> users) {
+        final NotificationFrame frame = NotificationFrame.of(message, scope);
+        notifyListeners(frame, users);
+        return frame.withSequence(sequence.incrementAndGet());
+    }
+
+    private void notifyListeners(@NotNull NotificationFrame frame, @NotNull Set<SUser> users) {
+        for (BroadcastListener listener : listeners) {
+            try {
+                listener.onBroadcast(frame, users);
+            } catch (RuntimeException e) {
+                metrics.recordListenerFailure();
+                LOG.warn("Broadcast listener failed", e);
+            }
+        }
+    }
+
+    /**
+     * Queue already encoded message for delivery to open connections of given users on this node only. If a user was
+     * recently active in the browser of one of the connections, only the most recently active one gets the message,
+     * otherwise all of them do. Connections with a subscription always get matching messages.
+     * @param frame - notification to send.
+     * @param users - recipients.
+     */
+    public void deliver(@NotNull NotificationFrame frame, @NotNull Set<SUser> users) {
+        deliverSequenced(frame.withSequence(sequence.incrementAndGet()), users);
+    }
+
+    /**
+     * Queue message numbered by {@link #announce(MessageBean, EventScope, Set)} for delivery to open connections of
+     * given users on this node, see {@link #deliver(NotificationFrame, Set)}.
+     * @param sequenced - notification to send.
+     * @param users - recipients, or a part of them.
+     */
+    public void deliverSequenced(@NotNull NotificationFrame sequenced, @NotNull Set<SUser> users) {
+        final long started = System.nanoTime();
+        final EventScope scope = sequenced.getScope();
+        final Priority priority = (null == scope) ? Priority.NORMAL : priorities.get(scope.getType());
+        // connections with a subscription are found through the index instead of their user
+        final boolean indexed = null != scope && sessionRegistry.getSubscriptionCount() > 0;
+
+        final long activeSince = (presenceTimeout > 0) ? System.currentTimeMillis() - presenceTimeout : Long.MAX_VALUE;
+
         for (SUser user : users) {
-            message.timeout = getTimeout(user);
-            final String jsonMessage = myGson.toJson(message);
-
-            final Queue<Session> sessions = peers.get(user.getId());
-            if (sessions != null) {
-                for (Session session : sessions) {
-                    if (!session.isOpen()) {
-                        continue;
+            final SessionOutbox[] sessions = sessionRegistry.getSessions(user.getId());
+            final SessionOutbox active = mostRecentlyActive(sessions, indexed, activeSince);
+            replayBuffer.record(user.getId(), sequenced, (null == active) ? null : active.getBrowserId());
+
+            if (null != active) {
+                send(active, sequenced, priority, preferences.get(user).getTimeout(), -1);
+            } else if (0 != sessions.length) {
+                final int timeout = preferences.get(user).getTimeout();
+                int saving = -1;
+
+                for (SessionOutbox outbox : sessions) {
+                    if (!indexed || null == outbox.getSubscription()) {
+                        saving = send(outbox, sequenced, priority, timeout, saving);
                     }
+                }
+            }
+        }
 
-                    try {
-                        session.getBasicRemote().sendText(jsonMessage);
-                    } catch (IOException e) {
-                        LOG.error(e);
+        if (indexed) {
+            Set<Long> recipients = null;
+            for (SessionOutbox outbox : sessionRegistry.getSubscribers(scope)) {
+                if (null == recipients) {
+                    recipients = new HashSet<>(users.size() * 2);
+                    for (SUser user : users) {
+                        recipients.add(user.getId());
                     }
                 }
+
+                final Subscription subscription = outbox.getSubscription();
+                if (recipients.contains(outbox.getUserId()) && null != subscription && subscription.matches(scope, outbox.getUserId())) {
+                    send(outbox, sequenced, priority, preferences.get(outbox.getUser()).getTimeout(), -1);
+                }
             }
         }
+        metrics.recordBroadcast(System.nanoTime() - started);
     }
 
     /**
-     * Method for getting notification display timeout. The value is user configurable from the UI.
-     * If not set, default value will be used.
-     * @param user - user for whom to get timeout setting.
-     * @return - timeout in seconds.
+     * @param sessions - connections of a user.
+     * @param indexed - connections with a subscription are served separately.
+     * @param activeSince - presence reported before this time is stale.
+     * @return - open connection the user was active in most recently, null if there is no such connection or the
+     * user has just one.
      */
-    private static int getTimeout(SUser user) {
-        String timeout = user.getPropertyValue(new NotificatorPropertyKey(Constants.PLUGIN_TYPE, Constants.NOTIFICATION_TIMEOUT));
-        if (null == timeout || timeout.isEmpty()) {
-            timeout = Integer.toString(Constants.DEFAULT_TIMEOUT);
+    @Nullable
+    private SessionOutbox mostRecentlyActive(@NotNull SessionOutbox[] sessions, boolean indexed, long activeSince) {
+        if (sessions.length < 2) {
+            return null;
         }
 
-        int timeoutNumber;
-        try {
-            timeoutNumber = Integer.parseInt(timeout);
-        } catch (NumberFormatException e) {
-            timeoutNumber = Constants.DEFAULT_TIMEOUT;
+        SessionOutbox active = null;
+        int candidates = 0;
+        for (SessionOutbox outbox : sessions) {
+            if (indexed && null != outbox.getSubscription()) {
+                continue;
+            }
+            candidates++;
+            if (outbox.getActiveAt() >= activeSince && outbox.getTransport().isOpen()
+                    && (null == active || outbox.getActiveAt() > active.getActiveAt())) {
+                active = outbox;
+            }
+        }
+
+        if (null != active) {
+            metrics.recordPresenceSkipped(candidates - 1);
+        }
+        return active;
+    }
+
+    /**
+     * @param saving - bytes the compact format saves on this frame and timeout, negative if not computed yet.
+     * @return - bytes saved by the compact format, if computed.
+     */
+    private int send(@NotNull SessionOutbox outbox, @NotNull NotificationFrame frame, @NotNull Priority priority, int timeout, int saving) {
+        if (!outbox.getTransport().isOpen()) {
+            return saving;
+        }
+
+        final String jsonMessage = frame.getText(outbox.getFormat(), timeout);
+        if (!outbox.offer(jsonMessage, frame.getSequence(), frame.getCreatedAt(), priority)) {
+            LOG.debug(String.format("Notification to connection %s was dropped", outbox.getTransport().getId()));
+            return saving;
         }
 
-        return timeoutNumber;
+        if (WireFormat.COMPACT == outbox.getFormat()) {
+            if (saving < 0) {
+                saving = NotificationFrame.utf8Length(frame.getText(WireFormat.VERBOSE, timeout))
+                        - NotificationFrame.utf8Length(jsonMessage);
+            }
+            outbox.addBytesSaved(saving);
+        }
+        return saving;
     }
 }
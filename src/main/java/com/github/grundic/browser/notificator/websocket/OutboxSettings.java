@@ -0,0 +1,102 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.websocket;
+
+import com.github.grundic.browser.notificator.Constants;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Limits of a session's outbound queue.
+ */
+public final class OutboxSettings {
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final long maxLagMillis;
+    private final long lowPriorityMaxAgeMillis;
+    private final int batchMaxBytes;
+    private final long batchDelayMillis;
+
+    /**
+     * @param capacity - maximum number of queued messages, in all lanes together.
+     * @param overflowPolicy - what to do when the queue is full.
+     * @param maxLagMillis - session that stays behind for longer is disconnected, 0 to disable.
+     * @param lowPriorityMaxAgeMillis - {@link Priority#LOW} notifications older than this are not sent, 0 to disable.
+     * @param batchMaxBytes - maximum size of a frame packing several notifications, 0 to send one per frame.
+     * @param batchDelayMillis - how long a notification for an idle connection waits for others to share its frame.
+     */
+    public OutboxSettings(
+            int capacity,
+            @NotNull OverflowPolicy overflowPolicy,
+            long maxLagMillis,
+            long lowPriorityMaxAgeMillis,
+            int batchMaxBytes,
+            long batchDelayMillis
+    ) {
+        this.capacity = Math.max(1, capacity);
+        this.overflowPolicy = overflowPolicy;
+        this.maxLagMillis = maxLagMillis;
+        this.lowPriorityMaxAgeMillis = lowPriorityMaxAgeMillis;
+        this.batchMaxBytes = batchMaxBytes;
+        this.batchDelayMillis = batchDelayMillis;
+    }
+
+    @NotNull
+    public static OutboxSettings load() {
+        return new OutboxSettings(
+                TeamCityProperties.getInteger(Constants.OUTBOX_CAPACITY, Constants.DEFAULT_OUTBOX_CAPACITY),
+                OverflowPolicy.parse(TeamCityProperties.getProperty(Constants.OUTBOX_OVERFLOW_POLICY), OverflowPolicy.DROP_OLDEST),
+                TeamCityProperties.getLong(Constants.OUTBOX_MAX_LAG, Constants.DEFAULT_OUTBOX_MAX_LAG),
+                TeamCityProperties.getLong(Constants.OUTBOX_LOW_MAX_AGE, Constants.DEFAULT_OUTBOX_LOW_MAX_AGE),
+                TeamCityProperties.getInteger(Constants.BATCH_MAX_BYTES, Constants.DEFAULT_BATCH_MAX_BYTES),
+                TeamCityProperties.getLong(Constants.BATCH_DELAY, Constants.DEFAULT_BATCH_DELAY)
+        );
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @NotNull
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public long getMaxLagMillis() {
+        return maxLagMillis;
+    }
+
+    public long getLowPriorityMaxAgeMillis() {
+        return lowPriorityMaxAgeMillis;
+    }
+
+    public int getBatchMaxBytes() {
+        return batchMaxBytes;
+    }
+
+    public long getBatchDelayMillis() {
+        return batchDelayMillis;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.websocket;
+
+import com.github.grundic.browser.notificator.Constants;
+import com.github.grundic.browser.notificator.notifier.EventType;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Delivery lanes of a session's outbound queue. Higher lanes are always drained first, and when the queue is full
+ * the lowest lane gives way.
+ */
+public enum Priority {
+    /**
+     * Failures and assignments of responsibility, by default.
+     */
+    HIGH,
+    NORMAL,
+    /**
+     * Started and successful builds, by default. May expire in the queue, see {@link Constants#OUTBOX_LOW_MAX_AGE}.
+     */
+    LOW;
+
+    /**
+     * @return - priority of every event type, according to internal properties.
+     */
+    @NotNull
+    public static Map<EventType, Priority> load() {
+        final Set<EventType> defaultHigh = EventType.failures();
+        defaultHigh.add(EventType.RESPONSIBLE_ASSIGNED);
+        defaultHigh.add(EventType.TEST_RESPONSIBLE_ASSIGNED);
+        defaultHigh.add(EventType.BUILD_PROBLEM_RESPONSIBLE_ASSIGNED);
+
+        final Set<EventType> high = EventType.parseSet(TeamCityProperties.getProperty(Constants.PRIORITY_HIGH), defaultHigh);
+        final Set<EventType> low = EventType.parseSet(TeamCityProperties.getProperty(Constants.PRIORITY_LOW),
+                EnumSet.of(EventType.BUILD_STARTED, EventType.BUILD_SUCCESSFUL));
+
+        final Map<EventType, Priority> priorities = new EnumMap<>(EventType.class);
+        for (EventType type : EventType.values()) {
+            priorities.put(type, high.contains(type) ? HIGH : low.contains(type) ? LOW : NORMAL);
+        }
+
+        return priorities;
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.websocket;
+
+import com.github.grundic.browser.notificator.Constants;
+import com.github.grundic.browser.notificator.NotificationFrame;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Recently delivered notifications per user, so a client that lost its connection can catch up after reconnecting.
+ * <p>
+ * Each user that connected recently has a fixed size ring of sequenced frames. Frames are shared between all
+ * recipients, so a ring only costs references. The number of tracked users is capped, and rings of users who have
+ * been offline for longer than the retention time are dropped.
+ */
+public class ReplayBuffer {
+    private final ConcurrentMap<Long, Ring> rings = new ConcurrentHashMap<>();
+    private final int ringSize;
+    private final int maxUsers;
+    private final long retentionMillis;
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final SessionRegistry sessionRegistry;
+    private volatile long lastExpired = System.currentTimeMillis();
+
+    public ReplayBuffer(@NotNull SessionRegistry sessionRegistry) {
+        this.sessionRegistry = sessionRegistry;
+        this.ringSize = Math.max(1, TeamCityProperties.getInteger(Constants.REPLAY_SIZE, Constants.DEFAULT_REPLAY_SIZE));
+        this.maxUsers = Math.max(1, TeamCityProperties.getInteger(Constants.REPLAY_MAX_USERS, Constants.DEFAULT_REPLAY_MAX_USERS));
+        this.retentionMillis = TeamCityProperties.getLong(Constants.REPLAY_RETENTION, Constants.DEFAULT_REPLAY_RETENTION);
+    }
+
+    /**
+     * @return - identifier of this server run, sequence numbers are only comparable within the same epoch.
+     */
+    @NotNull
+    public String getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Start keeping notifications for the user.
+     * @param userId - id of connected user.
+     */
+    public void track(long userId) {
+        final long now = System.currentTimeMillis();
+        if (now - lastExpired > retentionMillis / 10) {
+            lastExpired = now;
+            expire();
+        }
+
+        if (!rings.containsKey(userId) && rings.size() >= maxUsers) {
+            evictOldest();
+        }
+        rings.computeIfAbsent(userId, id -> new Ring(ringSize)).touch();
+    }
+
+    /**
+     * Remember notification delivered to the user, does nothing for users that are not tracked.
+     * @param browserId - the only browser the notification was sent to, null if it was sent to all connections.
+     */
+    public void record(long userId, @NotNull NotificationFrame frame, @Nullable String browserId) {
+        final Ring ring = rings.get(userId);
+        if (null != ring) {
+            ring.add(frame, browserId);
+        }
+    }
+
+    /**
+     * @param userId - id of the user.
+     * @param sequence - last sequence number seen by the client.
+     * @param browserId - browser of the client, notifications sent only to other browsers are left out.
+     * @return - frames the client missed, oldest first.
+     */
+    @NotNull
+    public List<NotificationFrame> since(long userId, long sequence, @Nullable String browserId) {
+        final Ring ring = rings.get(userId);
+        return (null == ring)
+                ? Collections.<NotificationFrame>emptyList()
+                : ring.since(sequence, System.currentTimeMillis() - retentionMillis, browserId);
+    }
+
+    public int getUserCount() {
+        return rings.size();
+    }
+
+    // drops rings of users who have no connections for longer than retention time
+    private void expire() {
+        final long threshold = System.currentTimeMillis() - retentionMillis;
+        for (Map.Entry<Long, Ring> entry : rings.entrySet()) {
+            if (sessionRegistry.hasSessions(entry.getKey())) {
+                entry.getValue().touch();
+            } else if (entry.getValue().lastActive < threshold) {
+                rings.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void evictOldest() {
+        Map.Entry<Long, Ring> oldest = null;
+        for (Map.Entry<Long, Ring> entry : rings.entrySet()) {
+            if (null == oldest || entry.getValue().lastActive < oldest.getValue().lastActive) {
+                oldest = entry;
+            }
+        }
+
+        if (null != oldest) {
+            rings.remove(oldest.getKey(), oldest.getValue());
+        }
+    }
+
+    private static final class Ring {
+        private final NotificationFrame[] frames;
+        private final long[] timestamps;
+        private final String[] browserIds;
+        private int next;
+        private int size;
+        private volatile long lastActive;
+
+        Ring(int capacity) {
+            frames = new NotificationFrame[capacity];
+            timestamps = new long[capacity];
+            browserIds = new String[capacity];
+        }
+
+        void touch() {
+            lastActive = System.currentTimeMillis();
+        }
+
+        synchronized void add(@NotNull NotificationFrame frame, @Nullable String browserId) {
+            frames[next] = frame;
+            timestamps[next] = System.currentTimeMillis();
+            browserIds[next] = browserId;
+            next = (next + 1) % frames.length;
+            if (size < frames.length) {
+                size++;
+            }
+        }
+
+        @NotNull
+        synchronized List<NotificationFrame> since(long sequence, long notBefore, @Nullable String browserId) {
+            final List<NotificationFrame> result = new ArrayList<>();
+            final int first = (next - size + frames.length) % frames.length;
+            for (int i = 0; i < size; i++) {
+                final int index = (first + i) % frames.length;
+                if (frames[index].getSequence() > sequence && timestamps[index] >= notBefore
+                        && (null == browserIds[index] || browserIds[index].equals(browserId))) {
+                    result.add(frames[index]);
+                }
+            }
+
+            return result;
+        }
+    }
+}
@@ -0,0 +1,580 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.websocket;
+
+import com.github.grundic.browser.notificator.NotificationFrame;
+import com.github.grundic.browser.notificator.WireFormat;
+import com.github.grundic.browser.notificator.metrics.DeliveryMetrics;
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.users.SUser;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.websocket.CloseReason;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded outbound queue of a single browser connection, over any {@link Transport}.
+ * <p>
+ * Messages are written with asynchronous sends, one at a time, so a slow client only ever delays itself and never
+ * the thread that produced the notification. The queue has a lane per {@link Priority}: a message is taken from the
+ * highest non-empty lane, and when the queue is full the configured {@link OverflowPolicy} applies to the lowest
+ * lane that is not above the new message. Low priority notifications that waited for too long are skipped, and a
+ * session that stays behind for longer than the allowed lag is disconnected.
+ * <p>
+ * Notifications that piled up while a write was in progress go out together as one JSON array frame, in the order
+ * they would have been sent one by one, up to the configured frame size. Optionally a notification for an idle
+ * connection waits a few milliseconds for others to share its frame.
+ */
+public class SessionOutbox implements SendHandler {
+    private final Logger LOG = Logger.getInstance(SessionOutbox.class.getName());
+
+    private final Transport transport;
+    private final SUser user;
+    private final long userId;
+    private final WireFormat format;
+    private final String browserId;
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final long maxLagMillis;
+    private final long lowPriorityMaxAgeNanos;
+    private final int batchMaxBytes;
+    private final long batchDelayMillis;
+    private final DeliveryMetrics metrics;
+    private final long createdAt = System.currentTimeMillis();
+    private volatile long lastSeen = createdAt;
+    private volatile long activeAt;
+    private volatile Subscription subscription;
+    private volatile ScheduledExecutorService flushTimer;
+
+    private final AtomicLong messagesSent = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+
+    /**
+     * Stands in for the write while a delayed flush is pending, so new messages only queue up.
+     */
+    private static final Outgoing FLUSH_PENDING = new Outgoing("", 0, 0, Priority.LOW);
+
+    // guarded by this, indexed by priority
+    private final List<Deque<Outgoing>> lanes;
+    private int queued;
+    private Outgoing inFlight;
+    private boolean closed;
+    private long behindSince;
+
+    public SessionOutbox(
+            @NotNull Transport transport,
+            @NotNull SUser user,
+            @NotNull WireFormat format,
+            @Nullable String browserId,
+            @NotNull OutboxSettings settings,
+            @NotNull DeliveryMetrics metrics
+    ) {
+        this.transport = transport;
+        this.user = user;
+        this.userId = user.getId();
+        this.format = format;
+        this.browserId = browserId;
+        this.capacity = settings.getCapacity();
+        this.overflowPolicy = settings.getOverflowPolicy();
+        this.maxLagMillis = settings.getMaxLagMillis();
+        this.lowPriorityMaxAgeNanos = TimeUnit.MILLISECONDS.toNanos(settings.getLowPriorityMaxAgeMillis());
+        this.batchMaxBytes = settings.getBatchMaxBytes();
+        this.batchDelayMillis = settings.getBatchDelayMillis();
+        this.metrics = metrics;
+
+        final List<Deque<Outgoing>> lanes = new ArrayList<>(Priority.values().length);
+        for (int i = 0; i < Priority.values().length; i++) {
+            lanes.add(new ArrayDeque<>(Math.min(capacity, 16)));
+        }
+        this.lanes = Collections.unmodifiableList(lanes);
+    }
+
+    @NotNull
+    public Transport getTransport() {
+        return transport;
+    }
+
+    @NotNull
+    public SUser getUser() {
+        return user;
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    @NotNull
+    public WireFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return - identifier of the browser that opened the connection, if reported.
+     */
+    @Nullable
+    public String getBrowserId() {
+        return browserId;
+    }
+
+    public long getMessagesSent() {
+        return messagesSent.get();
+    }
+
+    /**
+     * @return - payload bytes written to the socket, before any compression done by the container.
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * @return - bytes not sent thanks to the compact wire format.
+     */
+    public long getBytesSaved() {
+        return bytesSaved.get();
+    }
+
+    public void addBytesSaved(long bytes) {
+        bytesSaved.addAndGet(bytes);
+        metrics.recordSaved(bytes);
+    }
+
+    /**
+     * @return - notification filter of the connection, null if it receives everything.
+     */
+    @Nullable
+    public Subscription getSubscription() {
+        return subscription;
+    }
+
+    void setSubscription(@Nullable Subscription subscription) {
+        this.subscription = subscription;
+    }
+
+    /**
+     * @param flushTimer - runs delayed flushes, null to send without delay.
+     */
+    void setFlushTimer(@Nullable ScheduledExecutorService flushTimer) {
+        this.flushTimer = flushTimer;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * @return - last time the client was known to be alive: a pong, a message or a completed write.
+     */
+    public long getLastSeen() {
+        return lastSeen;
+    }
+
+    public void touch() {
+        lastSeen = System.currentTimeMillis();
+    }
+
+    /**
+     * @return - time of the last input of the user in the browser, as reported by the client; 0 if idle or never
+     * reported.
+     */
+    public long getActiveAt() {
+        return activeAt;
+    }
+
+    /**
+     * @param active - whether the user works with a TeamCity page in the browser of this connection right now.
+     * @param idleMillis - time since the last input, so a client confirming its state doesn't look newer than it is.
+     */
+    public void setActive(boolean active, long idleMillis) {
+        activeAt = active ? System.currentTimeMillis() - Math.max(0, idleMillis) : 0;
+    }
+
+    /**
+     * Queue message for delivery. Never blocks.
+     *
+     * @param text - message to send.
+     * @return - false if message was discarded.
+     */
+    public boolean offer(@NotNull String text) {
+        return offer(text, 0, 0, Priority.NORMAL);
+    }
+
+    /**
+     * Queue notification for delivery. Never blocks.
+     *
+     * @param text - message to send.
+     * @param sequence - position of the last notification in the message, 0 if not sequenced.
+     * @param createdAt - {@link System#nanoTime()} when the notification was created, to measure delivery latency.
+     * @param priority - lane of the notification.
+     * @return - false if message was discarded.
+     */
+    public boolean offer(@NotNull String text, long sequence, long createdAt, @NotNull Priority priority) {
+        final Outgoing message = new Outgoing(text, sequence, createdAt, priority);
+        final Outgoing next;
+        final ScheduledExecutorService timer = flushTimer;
+        String evictReason = null;
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+
+            if (isExpired(message, System.nanoTime())) {
+                metrics.recordExpired(priority);
+                return false;
+            }
+
+            if (null != inFlight) {
+                final long now = System.currentTimeMillis();
+                if (0 == behindSince) {
+                    behindSince = now;
+                } else if (maxLagMillis > 0 && now - behindSince > maxLagMillis) {
+                    evictReason = String.format("Client is more than %d ms behind", maxLagMillis);
+                }
+            }
+
+            if (null == evictReason && queued >= capacity) {
+                if (OverflowPolicy.DISCONNECT == overflowPolicy) {
+                    evictReason = String.format("Outbound queue exceeded %d messages", capacity);
+                } else {
+                    final Outgoing shed = shed(priority, OverflowPolicy.DROP_OLDEST == overflowPolicy);
+                    metrics.recordDropped((null == shed) ? priority : shed.priority);
+                    if (null == shed) {
+                        return false;
+                    }
+                }
+            }
+
+            if (null != evictReason) {
+                clear();
+                closed = true;
+                next = null;
+            } else {
+                lanes.get(priority.ordinal()).add(message);
+                queued++;
+                if (null != inFlight) {
+                    return true;
+                }
+
+                if (batchDelayMillis > 0 && null != timer && message.isBatchable()) {
+                    next = FLUSH_PENDING;
+                } else {
+                    next = pollBatch();
+                }
+                inFlight = next;
+            }
+        }
+
+        if (null != evictReason) {
+            evict(evictReason);
+            return false;
+        }
+
+        if (FLUSH_PENDING == next) {
+            try {
+                timer.schedule(this::flush, batchDelayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // shutting down, don't leave the message behind
+                flush();
+            }
+        } else if (null != next) {
+            send(next);
+        }
+        return true;
+    }
+
+    private void flush() {
+        final Outgoing next;
+        synchronized (this) {
+            if (FLUSH_PENDING != inFlight) {
+                return;
+            }
+
+            next = closed ? null : pollBatch();
+            inFlight = next;
+            if (null == next) {
+                behindSince = 0;
+                return;
+            }
+        }
+
+        send(next);
+    }
+
+    /**
+     * Remove a queued message to make room for a new one, from the lowest lane that is not above the new message.
+     * @param priority - lane of the new message.
+     * @param oldest - remove the oldest message of the lane, otherwise the newest, which can't be the new message.
+     * @return - removed message, or null if there is nothing to give way.
+     */
+    @Nullable
+    private Outgoing shed(@NotNull Priority priority, boolean oldest) {
+        final int last = oldest ? priority.ordinal() : priority.ordinal() + 1;
+        for (int lane = lanes.size() - 1; lane >= last; lane--) {
+            final Deque<Outgoing> queue = lanes.get(lane);
+            if (!queue.isEmpty()) {
+                queued--;
+                return oldest ? queue.pollFirst() : queue.pollLast();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return - oldest message of the highest non-empty lane, expired messages are dropped on the way.
+     */
+    @Nullable
+    private Outgoing poll() {
+        final long now = System.nanoTime();
+        for (Deque<Outgoing> queue : lanes) {
+            Outgoing message;
+            while (null != (message = queue.poll())) {
+                queued--;
+                if (!isExpired(message, now)) {
+                    return message;
+                }
+                metrics.recordExpired(message.priority);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return - next message to write: notifications waiting behind the first one are packed with it into one
+     * array frame, as long as the frame stays within the size limit. Messages that are not single notifications,
+     * e.g. the welcome, always go alone.
+     */
+    @Nullable
+    private Outgoing pollBatch() {
+        final Outgoing first = poll();
+        if (null == first || 0 == queued || batchMaxBytes <= 0 || !first.isBatchable()) {
+            return first;
+        }
+
+        List<Outgoing> parts = null;
+        int bytes = first.bytes + 2;
+        Outgoing next;
+        while (null != (next = peek()) && next.isBatchable() && bytes + next.bytes + 1 <= batchMaxBytes) {
+            lanes.get(next.priority.ordinal()).poll();
+            queued--;
+            if (null == parts) {
+                parts = new ArrayList<>();
+                parts.add(first);
+            }
+            parts.add(next);
+            bytes += next.bytes + 1;
+        }
+
+        return (null == parts) ? first : Outgoing.batch(parts, bytes);
+    }
+
+    /**
+     * @return - message {@link #poll()} would return, without removing it.
+     */
+    @Nullable
+    private Outgoing peek() {
+        final long now = System.nanoTime();
+        for (Deque<Outgoing> queue : lanes) {
+            Outgoing message;
+            while (null != (message = queue.peek())) {
+                if (!isExpired(message, now)) {
+                    return message;
+                }
+                queue.poll();
+                queued--;
+                metrics.recordExpired(message.priority);
+            }
+        }
+
+        return null;
+    }
+
+    private boolean isExpired(@NotNull Outgoing message, long now) {
+        return Priority.LOW == message.priority && lowPriorityMaxAgeNanos > 0 && 0 != message.createdAt
+                && now - message.createdAt > lowPriorityMaxAgeNanos;
+    }
+
+    private void clear() {
+        for (Deque<Outgoing> queue : lanes) {
+            queue.clear();
+        }
+        queued = 0;
+    }
+
+    @Override
+    public void onResult(SendResult result) {
+        final Outgoing sent;
+        synchronized (this) {
+            sent = inFlight;
+        }
+
+        if (result.isOK()) {
+            touch();
+            if (null != sent) {
+                final int count = (null == sent.parts) ? 1 : sent.parts.size();
+                messagesSent.addAndGet(count);
+                bytesSent.addAndGet(sent.bytes);
+                metrics.recordSent(count, sent.bytes);
+
+                final long now = System.nanoTime();
+                for (Outgoing message : (null == sent.parts) ? Collections.singletonList(sent) : sent.parts) {
+                    if (0 != message.createdAt) {
+                        metrics.recordDelivery(message.priority, now - message.createdAt);
+                    }
+                }
+            } else {
+                messagesSent.incrementAndGet();
+            }
+        } else {
+            metrics.recordSendFailure();
+            LOG.debug(String.format("Failed to send notification to connection %s", transport.getId()), result.getException());
+        }
+
+        final Outgoing next;
+        synchronized (this) {
+            next = closed ? null : pollBatch();
+            inFlight = next;
+            if (null == next) {
+                behindSince = 0;
+                return;
+            }
+        }
+
+        send(next);
+    }
+
+    /**
+     * @return - true if the session is lagging behind for longer than allowed.
+     */
+    public synchronized boolean isStale() {
+        return maxLagMillis > 0 && 0 != behindSince && System.currentTimeMillis() - behindSince > maxLagMillis;
+    }
+
+    public void ping() {
+        transport.ping(this::touch);
+    }
+
+    /**
+     * @return - true once the outbox stopped accepting messages.
+     */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    public synchronized void close() {
+        closed = true;
+        clear();
+    }
+
+    /**
+     * Close the underlying connection, the outbox stops accepting messages.
+     * @param code - close code sent to the client.
+     * @param reason - human readable reason.
+     */
+    public void disconnect(@NotNull CloseReason.CloseCode code, @NotNull String reason) {
+        close();
+        transport.close(new CloseReason(code, reason));
+    }
+
+    private void send(@NotNull Outgoing message) {
+        try {
+            transport.sendText(message.text, message.sequence, this);
+        } catch (IllegalStateException e) {
+            // session was closed concurrently, nothing else will be delivered
+            onResult(new SendResult(e));
+        }
+    }
+
+    private void evict(@NotNull String reason) {
+        metrics.recordEviction();
+        LOG.info(String.format("Disconnecting slow connection %s of user %d: %s", transport.getId(), userId, reason));
+        disconnect(CloseReason.CloseCodes.TRY_AGAIN_LATER, reason);
+    }
+
+    private static final class Outgoing {
+        private final String text;
+        private final long sequence;
+        private final long createdAt;
+        private final Priority priority;
+        private final int bytes;
+        private final List<Outgoing> parts;
+
+        Outgoing(@NotNull String text, long sequence, long createdAt, @NotNull Priority priority) {
+            this(text, sequence, createdAt, priority, NotificationFrame.utf8Length(text), null);
+        }
+
+        private Outgoing(@NotNull String text, long sequence, long createdAt, @NotNull Priority priority, int bytes,
+                         @Nullable List<Outgoing> parts) {
+            this.text = text;
+            this.sequence = sequence;
+            this.createdAt = createdAt;
+            this.priority = priority;
+            this.bytes = bytes;
+            this.parts = parts;
+        }
+
+        /**
+         * @return - whether this is a single notification, which can share a frame with others.
+         */
+        boolean isBatchable() {
+            return 0 != sequence && !text.isEmpty() && '{' == text.charAt(0);
+        }
+
+        /**
+         * @param parts - notifications in the order to deliver them, the first one has the highest priority.
+         * @param bytes - size of the array frame.
+         */
+        @NotNull
+        static Outgoing batch(@NotNull List<Outgoing> parts, int bytes) {
+            final StringBuilder text = new StringBuilder(bytes).append('[');
+            // lanes are drained by priority, so parts need not be in stream order; 0 is never a stream position
+            long sequence = 0;
+            for (int i = 0; i < parts.size(); i++) {
+                if (i > 0) {
+                    text.append(',');
+                }
+                text.append(parts.get(i).text);
+                sequence = Math.max(sequence, parts.get(i).sequence);
+            }
+            text.append(']');
+
+            // stream position is the newest notification of the frame, whichever part it is
+            return new Outgoing(text.toString(), sequence, 0, parts.get(0).priority, bytes, parts);
+        }
+    }
+}
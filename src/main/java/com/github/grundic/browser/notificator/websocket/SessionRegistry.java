@@ -0,0 +1,271 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.websocket;
+
+import com.github.grundic.browser.notificator.Constants;
+import com.github.grundic.browser.notificator.notifier.EventScope;
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.DisposableBean;
+
+import javax.websocket.CloseReason;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Open browser connections, websocket or event stream, grouped by user.
+ * <p>
+ * Registration and removal are atomic per user and a user entry disappears together with the last connection, so
+ * the registry only holds live connections. Connections of a user are kept in arrays that are replaced rather than
+ * modified, so a broadcast iterates them without locking or allocating. A background task pings every connection and
+ * reaps the ones that are closed, silent for too long or unable to keep up with their outbound queue.
+ */
+public class SessionRegistry implements DisposableBean {
+    private final Logger LOG = Logger.getInstance(SessionRegistry.class.getName());
+
+    /**
+     * Close reason sent to a connection that was superseded by a newer one from the same browser.
+     */
+    public static final String REPLACED = "Replaced by a newer connection";
+
+    private final SessionTable peers = new SessionTable();
+    private final AtomicInteger sessionCount = new AtomicInteger();
+    private final AtomicInteger peakSessionCount = new AtomicInteger();
+    private final SubscriptionIndex subscriptions = new SubscriptionIndex();
+
+    private final int maxSessionsPerUser;
+    private final long idleTimeoutMillis;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Browser notifier heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // separate from heartbeats, so a sweep over all connections doesn't hold back flushes
+    private final ScheduledExecutorService flushTimer;
+
+    public SessionRegistry() {
+        this.maxSessionsPerUser = Math.max(1, TeamCityProperties.getInteger(Constants.SESSIONS_PER_USER, Constants.DEFAULT_SESSIONS_PER_USER));
+        final long heartbeatMillis = TeamCityProperties.getLong(Constants.HEARTBEAT_INTERVAL, Constants.DEFAULT_HEARTBEAT_INTERVAL);
+        this.idleTimeoutMillis = 3 * heartbeatMillis;
+
+        if (heartbeatMillis > 0) {
+            scheduler.scheduleWithFixedDelay(this::heartbeat, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+        }
+
+        if (TeamCityProperties.getLong(Constants.BATCH_DELAY, Constants.DEFAULT_BATCH_DELAY) > 0) {
+            flushTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "Browser notifier batching");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            flushTimer = null;
+        }
+    }
+
+    /**
+     * Add connection of a user. An older connection from the same browser is replaced, and if the user already
+     * has the maximum number of connections, the least recently active one is closed.
+     * @param outbox - connection to add.
+     */
+    public void register(@NotNull SessionOutbox outbox) {
+        outbox.setFlushTimer(flushTimer);
+        final List<SessionOutbox> evicted = new ArrayList<>(1);
+        final List<SessionOutbox> replaced = new ArrayList<>(1);
+        peers.update(outbox.getUserId(), current -> {
+            final List<SessionOutbox> sessions = new ArrayList<>(current.length + 1);
+            for (SessionOutbox existing : current) {
+                if (null != outbox.getBrowserId() && outbox.getBrowserId().equals(existing.getBrowserId())) {
+                    replaced.add(existing);
+                } else {
+                    sessions.add(existing);
+                }
+            }
+            sessions.add(outbox);
+
+            while (sessions.size() > maxSessionsPerUser) {
+                SessionOutbox oldest = null;
+                for (SessionOutbox candidate : sessions) {
+                    if (null == oldest || candidate.getLastSeen() < oldest.getLastSeen()) {
+                        oldest = candidate;
+                    }
+                }
+                sessions.remove(oldest);
+                evicted.add(oldest);
+            }
+
+            return sessions.toArray(new SessionOutbox[sessions.size()]);
+        });
+        final int count = sessionCount.addAndGet(1 - evicted.size() - replaced.size());
+        peakSessionCount.accumulateAndGet(count, Math::max);
+
+        for (SessionOutbox duplicate : replaced) {
+            subscriptions.remove(duplicate);
+            LOG.debug(String.format("Connection %s replaces connection %s from the same browser",
+                    outbox.getTransport().getId(), duplicate.getTransport().getId()));
+            duplicate.disconnect(CloseReason.CloseCodes.NORMAL_CLOSURE, REPLACED);
+        }
+
+        for (SessionOutbox outdated : evicted) {
+            subscriptions.remove(outdated);
+            LOG.info(String.format("User %d exceeded %d connections, closing connection %s",
+                    outdated.getUserId(), maxSessionsPerUser, outdated.getTransport().getId()));
+            outdated.disconnect(CloseReason.CloseCodes.VIOLATED_POLICY, "Too many connections");
+        }
+    }
+
+    /**
+     * Remove connection, the user entry is dropped together with the last connection.
+     * @param outbox - connection to remove.
+     */
+    public void unregister(@NotNull SessionOutbox outbox) {
+        outbox.close();
+        subscriptions.remove(outbox);
+        final boolean[] removed = new boolean[1];
+        peers.update(outbox.getUserId(), sessions -> {
+            final SessionOutbox[] remaining = SessionTable.without(sessions, outbox);
+            removed[0] = remaining != sessions;
+            return remaining;
+        });
+
+        if (removed[0]) {
+            sessionCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * @param userId - id of the user.
+     * @return - snapshot of user's connections, may be empty, must not be modified.
+     */
+    @NotNull
+    public SessionOutbox[] getSessions(long userId) {
+        return peers.get(userId);
+    }
+
+    /**
+     * @param userId - id of the user.
+     * @return - whether the user has at least one connection.
+     */
+    public boolean hasSessions(long userId) {
+        return 0 != peers.get(userId).length;
+    }
+
+    /**
+     * Set or replace notification filter of a connection.
+     * @param outbox - registered connection.
+     * @param subscription - filter, null to receive all notifications of the user.
+     */
+    public void subscribe(@NotNull SessionOutbox outbox, @Nullable Subscription subscription) {
+        subscriptions.put(outbox, subscription);
+        if (outbox.isClosed()) {
+            // lost the race with unregister
+            subscriptions.remove(outbox);
+        }
+    }
+
+    /**
+     * @param scope - what the notification is about.
+     * @return - connections with a subscription that may accept the notification, their users are not checked.
+     */
+    @NotNull
+    public Collection<SessionOutbox> getSubscribers(@NotNull EventScope scope) {
+        return subscriptions.find(scope);
+    }
+
+    /**
+     * @return - number of connections with a subscription.
+     */
+    public int getSubscriptionCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * @return - snapshot of ids of users who have at least one connection.
+     */
+    @NotNull
+    public Set<Long> getUserIds() {
+        final Set<Long> userIds = new HashSet<>(peers.size() * 2);
+        peers.forEachUser(userIds::add);
+        return userIds;
+    }
+
+    public int getSessionCount() {
+        return sessionCount.get();
+    }
+
+    /**
+     * @return - highest number of simultaneously open connections since start.
+     */
+    public int getPeakSessionCount() {
+        return peakSessionCount.get();
+    }
+
+    public int getUserCount() {
+        return peers.size();
+    }
+
+    private void heartbeat() {
+        final long now = System.currentTimeMillis();
+        peers.forEachSessions(sessions -> {
+            for (SessionOutbox outbox : sessions) {
+                try {
+                    if (!outbox.getTransport().isOpen()) {
+                        unregister(outbox);
+                    } else if (now - outbox.getLastSeen() > idleTimeoutMillis) {
+                        LOG.debug(String.format("Connection %s did not answer heartbeats, closing it", outbox.getTransport().getId()));
+                        unregister(outbox);
+                        outbox.disconnect(CloseReason.CloseCodes.GOING_AWAY, "Heartbeat timeout");
+                    } else if (outbox.isStale()) {
+                        unregister(outbox);
+                        outbox.disconnect(CloseReason.CloseCodes.TRY_AGAIN_LATER, "Client is too slow");
+                    } else {
+                        outbox.ping();
+                    }
+                } catch (RuntimeException e) {
+                    LOG.warn("Heartbeat failed for connection " + outbox.getTransport().getId(), e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+        if (null != flushTimer) {
+            flushTimer.shutdownNow();
+        }
+    }
+}
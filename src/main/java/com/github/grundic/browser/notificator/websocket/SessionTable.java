@@ -0,0 +1,211 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.websocket;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Connections by user id, with primitive keys, striped writes and copy-on-write snapshots for readers.
+ * <p>
+ * Every stripe is an open addressing table which is replaced as a whole on change, under the stripe's lock. Readers
+ * take the current table without locking and get back the very array that was stored, so a broadcast neither boxes
+ * the user id nor allocates, and the array it iterates is never modified. Connections come and go far less often
+ * than notifications are sent and a stripe holds only a small share of the users, so the copies are cheap.
+ */
+final class SessionTable {
+    static final SessionOutbox[] EMPTY = new SessionOutbox[0];
+
+    private static final int STRIPE_BITS = 6;
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+    private final Stripe[] stripes = new Stripe[1 << STRIPE_BITS];
+
+    SessionTable() {
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * @param userId - id of the user.
+     * @return - connections of the user, never modified afterwards, empty if there are none.
+     */
+    @NotNull
+    SessionOutbox[] get(long userId) {
+        final long hash = userId * GOLDEN;
+        return stripes[(int) (hash >>> (64 - STRIPE_BITS))].table.get(userId, hash);
+    }
+
+    /**
+     * Replace connections of a user, atomically with respect to other updates of the same user.
+     * @param userId - id of the user.
+     * @param update - gets current connections, possibly empty, and returns new ones without modifying its argument.
+     *               An empty result removes the user, returning the argument leaves everything as it is.
+     */
+    void update(long userId, @NotNull UnaryOperator<SessionOutbox[]> update) {
+        final long hash = userId * GOLDEN;
+        final Stripe stripe = stripes[(int) (hash >>> (64 - STRIPE_BITS))];
+        synchronized (stripe) {
+            final Table table = stripe.table;
+            final SessionOutbox[] current = table.get(userId, hash);
+            final SessionOutbox[] updated = update.apply(current);
+            if (updated != current) {
+                stripe.table = table.with(userId, (0 == updated.length) ? null : updated);
+            }
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.table.size;
+        }
+        return size;
+    }
+
+    void forEachUser(@NotNull LongConsumer action) {
+        for (Stripe stripe : stripes) {
+            final Table table = stripe.table;
+            for (int i = 0; i < table.values.length; i++) {
+                if (null != table.values[i]) {
+                    action.accept(table.keys[i]);
+                }
+            }
+        }
+    }
+
+    void forEachSessions(@NotNull Consumer<SessionOutbox[]> action) {
+        for (Stripe stripe : stripes) {
+            for (SessionOutbox[] sessions : stripe.table.values) {
+                if (null != sessions) {
+                    action.accept(sessions);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return - copy of the array with the connection added at the end.
+     */
+    @NotNull
+    static SessionOutbox[] with(@NotNull SessionOutbox[] sessions, @NotNull SessionOutbox outbox) {
+        final SessionOutbox[] result = new SessionOutbox[sessions.length + 1];
+        System.arraycopy(sessions, 0, result, 0, sessions.length);
+        result[sessions.length] = outbox;
+        return result;
+    }
+
+    /**
+     * @return - copy of the array without the connection, or the array itself if it's not there.
+     */
+    @NotNull
+    static SessionOutbox[] without(@NotNull SessionOutbox[] sessions, @NotNull SessionOutbox outbox) {
+        for (int i = 0; i < sessions.length; i++) {
+            if (sessions[i] == outbox) {
+                if (1 == sessions.length) {
+                    return EMPTY;
+                }
+                final SessionOutbox[] result = new SessionOutbox[sessions.length - 1];
+                System.arraycopy(sessions, 0, result, 0, i);
+                System.arraycopy(sessions, i + 1, result, i, sessions.length - i - 1);
+                return result;
+            }
+        }
+        return sessions;
+    }
+
+    private static final class Stripe {
+        private volatile Table table = Table.EMPTY_TABLE;
+    }
+
+    /**
+     * Immutable linear probing table, a null value marks a free slot.
+     */
+    private static final class Table {
+        private static final Table EMPTY_TABLE = new Table(8);
+
+        private final long[] keys;
+        private final SessionOutbox[][] values;
+        private final int mask;
+        private int size;
+
+        private Table(int capacity) {
+            keys = new long[capacity];
+            values = new SessionOutbox[capacity][];
+            mask = capacity - 1;
+        }
+
+        @NotNull
+        private SessionOutbox[] get(long key, long hash) {
+            int i = (int) (hash >>> 16) & mask;
+            SessionOutbox[] value;
+            while (null != (value = values[i])) {
+                if (keys[i] == key) {
+                    return value;
+                }
+                i = (i + 1) & mask;
+            }
+            return EMPTY;
+        }
+
+        /**
+         * @return - new table with the key mapped to the value, or without the key if the value is null.
+         */
+        @NotNull
+        private Table with(long key, @Nullable SessionOutbox[] value) {
+            final int size = this.size + 1;
+            int capacity = 8;
+            while (capacity < size * 2) {
+                capacity <<= 1;
+            }
+
+            final Table table = new Table(capacity);
+            for (int i = 0; i < values.length; i++) {
+                if (null != values[i] && keys[i] != key) {
+                    table.put(keys[i], values[i]);
+                }
+            }
+            if (null != value) {
+                table.put(key, value);
+            }
+            return table;
+        }
+
+        private void put(long key, @NotNull SessionOutbox[] value) {
+            int i = (int) ((key * GOLDEN) >>> 16) & mask;
+            while (null != values[i]) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = value;
+            size++;
+        }
+    }
+}
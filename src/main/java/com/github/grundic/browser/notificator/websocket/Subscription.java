@@ -0,0 +1,167 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.websocket;
+
+import com.github.grundic.browser.notificator.notifier.EventScope;
+import com.github.grundic.browser.notificator.notifier.EventType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Notification filter a client registered for its connection. Empty criteria do not restrict anything.
+ * <p>
+ * A notification passes if it is about one of the build configurations or about one of the projects or their
+ * subprojects, is of one of the event kinds, and, with "only my changes", is about a build containing changes of
+ * the user. Notifications that are not about a build are not affected by "only my changes".
+ */
+public final class Subscription {
+    /**
+     * Maximum number of projects or build configurations in one subscription, the rest is ignored.
+     */
+    public static final int MAX_KEYS = 256;
+
+    private final Set<String> projects;
+    private final Set<String> buildTypes;
+    private final Set<EventType> events;
+    private final boolean myChanges;
+
+    private Subscription(@NotNull Set<String> projects, @NotNull Set<String> buildTypes, @NotNull Set<EventType> events, boolean myChanges) {
+        this.projects = projects;
+        this.buildTypes = buildTypes;
+        this.events = events;
+        this.myChanges = myChanges;
+    }
+
+    /**
+     * @param message - subscribe request of the client.
+     * @return - subscription, or null if the request does not restrict anything.
+     * @throws IllegalArgumentException - if the request names an unknown event kind.
+     */
+    @Nullable
+    public static Subscription of(@NotNull ClientMessage message) {
+        final Set<String> projects = toSet(message.projects);
+        final Set<String> buildTypes = toSet(message.buildTypes);
+        final Set<EventType> events = toEvents(message.events);
+
+        if (projects.isEmpty() && buildTypes.isEmpty() && events.isEmpty() && !message.myChanges) {
+            return null;
+        }
+
+        return new Subscription(projects, buildTypes, events, message.myChanges);
+    }
+
+    @NotNull
+    private static Set<EventType> toEvents(@Nullable List<String> names) {
+        final Set<EventType> events = EnumSet.noneOf(EventType.class);
+        if (null == names) {
+            return events;
+        }
+
+        for (String name : names) {
+            // an unknown kind must not turn into an empty set, which matches all events
+            final Set<EventType> parsed = EventType.parseSet(name, EnumSet.noneOf(EventType.class));
+            if (parsed.isEmpty()) {
+                throw new IllegalArgumentException("Unknown event kind: " + name);
+            }
+            events.addAll(parsed);
+        }
+        return events;
+    }
+
+    @NotNull
+    public Set<String> getProjects() {
+        return projects;
+    }
+
+    @NotNull
+    public Set<String> getBuildTypes() {
+        return buildTypes;
+    }
+
+    /**
+     * @return - true if the subscription limits projects or build configurations.
+     */
+    public boolean isScoped() {
+        return !projects.isEmpty() || !buildTypes.isEmpty();
+    }
+
+    /**
+     * @param scope - what the notification is about, null if not known.
+     * @param userId - owner of the connection.
+     * @return - true if the notification should be delivered to the connection.
+     */
+    public boolean matches(@Nullable EventScope scope, long userId) {
+        if (null == scope) {
+            return true;
+        }
+
+        if (!events.isEmpty() && !events.contains(scope.getType())) {
+            return false;
+        }
+
+        if (isScoped() && !inScope(scope)) {
+            return false;
+        }
+
+        return !myChanges || scope.isCommitter(userId);
+    }
+
+    private boolean inScope(@NotNull EventScope scope) {
+        if (null != scope.getBuildType() && buildTypes.contains(scope.getBuildType())) {
+            return true;
+        }
+
+        for (String project : scope.getProjects()) {
+            if (projects.contains(project)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @NotNull
+    private static Set<String> toSet(@Nullable List<String> values) {
+        if (null == values || values.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        final Set<String> set = new HashSet<>();
+        for (String value : values) {
+            if (set.size() >= MAX_KEYS) {
+                break;
+            }
+            if (null != value && !value.isEmpty()) {
+                set.add(value);
+            }
+        }
+        return set;
+    }
+}
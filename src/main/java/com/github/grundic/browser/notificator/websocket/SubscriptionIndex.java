@@ -0,0 +1,134 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.websocket;
+
+import com.github.grundic.browser.notificator.notifier.EventScope;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Inverted index of connections with a {@link Subscription}, keyed by project and build configuration, so
+ * notifications find their subscribers with a few lookups. Subscriptions that only filter event kinds or changes are
+ * kept aside and are candidates for every notification.
+ * <p>
+ * Subscriptions change rarely, so updates are serialized, while lookups never lock.
+ */
+class SubscriptionIndex {
+    private final ConcurrentMap<String, Set<SessionOutbox>> byProject = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<SessionOutbox>> byBuildType = new ConcurrentHashMap<>();
+    private final Set<SessionOutbox> unscoped = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * @param outbox - connection.
+     * @param subscription - new filter of the connection, null to receive everything again.
+     */
+    synchronized void put(@NotNull SessionOutbox outbox, @Nullable Subscription subscription) {
+        remove(outbox);
+        if (null == subscription) {
+            return;
+        }
+
+        outbox.setSubscription(subscription);
+        if (subscription.isScoped()) {
+            for (String project : subscription.getProjects()) {
+                byProject.computeIfAbsent(project, k -> ConcurrentHashMap.newKeySet()).add(outbox);
+            }
+            for (String buildType : subscription.getBuildTypes()) {
+                byBuildType.computeIfAbsent(buildType, k -> ConcurrentHashMap.newKeySet()).add(outbox);
+            }
+        } else {
+            unscoped.add(outbox);
+        }
+        size.incrementAndGet();
+    }
+
+    synchronized void remove(@NotNull SessionOutbox outbox) {
+        final Subscription subscription = outbox.getSubscription();
+        if (null == subscription) {
+            return;
+        }
+
+        outbox.setSubscription(null);
+        if (subscription.isScoped()) {
+            for (String project : subscription.getProjects()) {
+                removeKey(byProject, project, outbox);
+            }
+            for (String buildType : subscription.getBuildTypes()) {
+                removeKey(byBuildType, buildType, outbox);
+            }
+        } else {
+            unscoped.remove(outbox);
+        }
+        size.decrementAndGet();
+    }
+
+    /**
+     * @param scope - what the notification is about.
+     * @return - connections whose subscription may accept the notification.
+     */
+    @NotNull
+    Collection<SessionOutbox> find(@NotNull EventScope scope) {
+        if (0 == size.get()) {
+            return Collections.emptyList();
+        }
+
+        final Set<SessionOutbox> candidates = new HashSet<>(unscoped);
+        if (null != scope.getBuildType()) {
+            addAll(candidates, byBuildType.get(scope.getBuildType()));
+        }
+        for (String project : scope.getProjects()) {
+            addAll(candidates, byProject.get(project));
+        }
+
+        return candidates;
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    private static void addAll(@NotNull Set<SessionOutbox> candidates, @Nullable Set<SessionOutbox> sessions) {
+        if (null != sessions) {
+            candidates.addAll(sessions);
+        }
+    }
+
+    private static void removeKey(@NotNull Map<String, Set<SessionOutbox>> index, @NotNull String key, @NotNull SessionOutbox outbox) {
+        index.computeIfPresent(key, (k, sessions) -> {
+            sessions.remove(outbox);
+            return sessions.isEmpty() ? null : sessions;
+        });
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.websocket;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.websocket.CloseReason;
+import javax.websocket.SendHandler;
+
+/**
+ * Connection to a browser that notifications are written to: a websocket session or a Server-Sent Events stream.
+ */
+public interface Transport {
+    @NotNull
+    String getId();
+
+    boolean isOpen();
+
+    /**
+     * Write message asynchronously. Only one write is outstanding at a time.
+     * @param text - message to send.
+     * @param sequence - position of the notification in the message stream, 0 if the message has none.
+     * @param handler - called once the write completed or failed.
+     */
+    void sendText(@NotNull String text, long sequence, @NotNull SendHandler handler);
+
+    /**
+     * Keep the connection alive and check that the browser is still there.
+     * @param alive - called if the check succeeded right away, transports with replies of their own handle those
+     *                instead.
+     */
+    void ping(@NotNull Runnable alive);
+
+    void close(@NotNull CloseReason reason);
+}
@@ -24,18 +24,16 @@
 
 package com.github.grundic.browser.notificator.websocket;
 
+import com.github.grundic.browser.notificator.Constants;
 import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
 import org.jetbrains.annotations.NotNull;
 import org.springframework.context.ApplicationContext;
 
 import javax.servlet.ServletContext;
-import javax.servlet.http.HttpSession;
 import javax.websocket.DeploymentException;
-import javax.websocket.HandshakeResponse;
-import javax.websocket.server.HandshakeRequest;
 import javax.websocket.server.ServerContainer;
 import javax.websocket.server.ServerEndpointConfig;
-import javax.websocket.server.ServerEndpointConfig.Configurator;
 import java.util.Map;
 
 
@@ -51,7 +49,8 @@ public class WebsocketEndpointMapper {
             @NotNull final ApplicationContext applicationContext,
             @NotNull final ServletContext serverContext,
             @NotNull final ClassLoader classLoader,
-            @NotNull final Map<String, Class<?>> endpoints
+            @NotNull final Map<String, Class<?>> endpoints,
+            @NotNull final HandshakeThrottle throttle
     ) {
 
         // We first do some general checks to see if the JSR-356 is supported by the server. Those are basically the
@@ -68,27 +67,14 @@ public class WebsocketEndpointMapper {
         }
 
         ServerContainer serverContainer = (ServerContainer) serverContext.getAttribute(SERVLET_CONTAINER_CLASS);
+        final EndpointConfigurator configurator = new EndpointConfigurator(applicationContext, throttle,
+                TeamCityProperties.getBooleanOrTrue(Constants.DEFLATE_ENABLED));
 
         for (String path : endpoints.keySet()) {
             ServerEndpointConfig serverConfig = ServerEndpointConfig.Builder
                     .create(endpoints.get(path), path)
-                    .configurator(new Configurator() {
-                                      @Override
-                                      public <T> T getEndpointInstance(Class<T> endpointClass) {
-                                          return applicationContext.getBean(endpointClass);
-                                      }
-
-                                      @Override
-                                      public void modifyHandshake(ServerEndpointConfig sec, HandshakeRequest request, HandshakeResponse
-                                              response) {
-                                          if (null != HttpSession.class.getName()) {
-                                              sec.getUserProperties().put(HttpSession.class.getName(), request.getHttpSession());
-                                          }
-                                      }
-
-
-                                  }
-                    ).build();
+                    .configurator(configurator)
+                    .build();
 
             try {
                 serverContainer.addEndpoint(serverConfig);
@@ -0,0 +1,342 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+'use strict';
+
+/**
+ * Websocket connection to Browser Notifier endpoint, shared by the page and the shared worker.
+ * Takes care of the welcome handshake, catching up after reconnect, compact format decoding and
+ * de-duplication, and passes plain notification objects to the handler. If the websocket can't be established,
+ * e.g. a proxy strips the upgrade, falls back to a Server-Sent Events stream.
+ *
+ * Lost connections are re-established after an exponential backoff with full jitter, so clients that lost the server
+ * at the same moment don't come back at the same moment. A server refusing new connections closes with 1013 and
+ * 'retry=<millis>', that delay is used instead. Connections closed as replaced by another one of this browser, or for
+ * exceeding the limit of connections, are not re-established.
+ *
+ * The owner reports whether the user is active in this browser, and when the last input was, with setActive().
+ * When the user has several browsers connected, the server sends notifications only to the one with the latest
+ * input.
+ *
+ * @param options.baseUri - TeamCity base URI.
+ * @param options.browserId - identifier of this browser, so the server can spot duplicate connections.
+ * @param options.storage - object with get(key) and set(key, value), keeps position in the message stream.
+ * @param options.subscription - optional filter: {projects: [], buildTypes: [], events: [], myChanges: false},
+ *   projects and build types are external ids, events are names of EventType.
+ * @param options.onNotification - called with every notification to show.
+ */
+var BrowserNotifierConnection = function (options) {
+    var STREAM_KEY = 'browserNotifier.stream';
+    var SEEN_LIMIT = 200;
+    var BACKOFF_BASE = 1000;
+    var BACKOFF_CAP = 60000;
+    // the server forgets presence that is not confirmed, see teamcity.browserNotifier.presence.timeoutMillis
+    var PRESENCE_REFRESH = 60000;
+    // input after a pause this long is reported right away, the user may have come back from another browser
+    var PRESENCE_GAP = 10000;
+
+    var connection = {
+        socket: null,
+        source: null,
+        welcomed: false,
+        // socket got through once, so a later failure is not a reason to switch to the event stream
+        socketWorks: false,
+        useEventStream: typeof WebSocket === 'undefined',
+        closed: false,
+        attempt: 0,
+        timer: null,
+        dictionary: null,
+        seen: [],
+        stream: {},
+        subscription: options.subscription || null,
+        active: false,
+        presenceSent: 0,
+        inputAt: 0,
+
+        open: function () {
+            this.closed = false;
+            this.stream = this.loadStream();
+            this.connect();
+        },
+
+        connect: function () {
+            this.timer = null;
+            this.welcomed = false;
+            if (this.useEventStream) {
+                this.openEventStream();
+                return;
+            }
+
+            var url = options.baseUri.replace(/^http/, "ws") + '/browserNotifier/notify.html' +
+                '?format=compact&browserId=' + encodeURIComponent(options.browserId);
+
+            this.socket = new WebSocket(url);
+            this.socket.onmessage = this.onMessage.bind(this);
+            this.socket.onclose = this.onSocketClose.bind(this);
+        },
+
+        onSocketClose: function (event) {
+            this.socket = null;
+            // 1006 is all a page gets to know about a failed upgrade
+            if (!this.welcomed && !this.socketWorks && event.code === 1006 && typeof EventSource !== 'undefined') {
+                this.useEventStream = true;
+                this.connect();
+                return;
+            }
+            this.onDisconnect(event.code, event.reason);
+        },
+
+        onDisconnect: function (code, reason) {
+            this.welcomed = false;
+            // replaced by another connection of this browser, or too many connections
+            if (this.closed || code === 1000 || code === 1008) {
+                return;
+            }
+
+            var delay;
+            var hint = code === 1013 && /^retry=(\d+)$/.exec(reason || '');
+            if (hint) {
+                // the server has spread rejected clients already, a little jitter on top keeps them apart
+                delay = Number(hint[1]) + Math.random() * BACKOFF_BASE;
+            } else {
+                delay = Math.random() * Math.min(BACKOFF_CAP, BACKOFF_BASE * Math.pow(2, this.attempt));
+                this.attempt++;
+            }
+            this.timer = setTimeout(this.connect.bind(this), delay);
+        },
+
+        openEventStream: function () {
+            var url = options.baseUri + '/browserNotifier/events.html' +
+                '?format=compact&browserId=' + encodeURIComponent(options.browserId);
+            if (this.stream.epoch) {
+                url += '&epoch=' + encodeURIComponent(this.stream.epoch) + '&seq=' + this.stream.seq;
+            }
+            if (this.subscription) {
+                url += '&subscription=' + encodeURIComponent(JSON.stringify(this.subscriptionMessage()));
+            }
+
+            var self = this;
+            var source = new EventSource(url, {withCredentials: true});
+            source.onmessage = this.onMessage.bind(this);
+            source.addEventListener('close', function (event) {
+                var reason = JSON.parse(event.data);
+                self.closeEventStream();
+                self.onDisconnect(reason.code, reason.reason);
+            });
+            // reconnects are ours, the browser's own ones have neither backoff nor jitter
+            source.onerror = function () {
+                self.closeEventStream();
+                self.onDisconnect(1006, '');
+            };
+            this.source = source;
+        },
+
+        closeEventStream: function () {
+            if (this.source) {
+                this.source.onmessage = null;
+                this.source.onerror = null;
+                this.source.close();
+                this.source = null;
+            }
+        },
+
+        close: function () {
+            this.closed = true;
+            if (this.timer) {
+                clearTimeout(this.timer);
+                this.timer = null;
+            }
+            if (this.socket) {
+                this.socket.onmessage = null;
+                this.socket.onclose = null;
+                this.socket.close();
+                this.socket = null;
+            }
+            this.closeEventStream();
+            this.welcomed = false;
+        },
+
+        send: function (message) {
+            if (this.socket && this.socket.readyState === WebSocket.OPEN) {
+                this.socket.send(JSON.stringify(message));
+            }
+        },
+
+        // Narrow down notifications of this connection, null to receive everything
+        subscribe: function (subscription) {
+            this.subscription = subscription || null;
+            if (this.source) {
+                // event streams are one-way, the subscription goes with the request
+                this.closeEventStream();
+                this.openEventStream();
+            } else {
+                this.sendSubscription();
+            }
+        },
+
+        // Whether the user works with TeamCity in this browser right now and time of the last input; event streams are
+        // one-way, so they can't tell
+        setActive: function (active, inputAt) {
+            var now = Date.now();
+            var resumed = inputAt - this.inputAt > PRESENCE_GAP;
+            this.inputAt = Math.max(this.inputAt, inputAt || 0);
+            if (active === this.active && !(active && (resumed || now - this.presenceSent > PRESENCE_REFRESH))) {
+                return;
+            }
+            this.active = active;
+            this.sendPresence();
+        },
+
+        sendPresence: function () {
+            var now = Date.now();
+            this.presenceSent = now;
+            // the server compares inputs of browsers by its own clock
+            this.send({type: 'presence', active: this.active, idleMillis: Math.max(0, now - this.inputAt)});
+        },
+
+        sendSubscription: function () {
+            this.send(this.subscriptionMessage());
+        },
+
+        subscriptionMessage: function () {
+            var subscription = this.subscription || {};
+            return {
+                type: 'subscribe',
+                projects: subscription.projects || [],
+                buildTypes: subscription.buildTypes || [],
+                events: subscription.events || [],
+                myChanges: !!subscription.myChanges
+            };
+        },
+
+        loadStream: function () {
+            try {
+                return JSON.parse(options.storage.get(STREAM_KEY)) || {};
+            } catch (e) {
+                return {};
+            }
+        },
+
+        saveStream: function () {
+            try {
+                options.storage.set(STREAM_KEY, JSON.stringify(this.stream));
+            } catch (e) {
+                // storage is not available, catch up is not possible then
+            }
+        },
+
+        onMessage: function (response) {
+            var responseObject = JSON.parse(response.data);
+
+            if (Array.isArray(responseObject)) {
+                for (var i = 0; i < responseObject.length; i++) {
+                    this.onNotification(this.decode(responseObject[i]));
+                }
+            } else if (responseObject.type === 'welcome') {
+                this.onWelcome(responseObject);
+            } else {
+                this.onNotification(this.decode(responseObject));
+            }
+        },
+
+        // Expand compact wire format, see WireFormat.COMPACT
+        decode: function (message) {
+            var dictionary = this.dictionary;
+            if (!dictionary || message.title !== undefined) {
+                return message;
+            }
+
+            var decoded = {};
+            Object.keys(message).forEach(function (key) {
+                var value = message[key];
+                switch (key) {
+                    case 't': decoded.title = value; break;
+                    case 'b': decoded.body = value; break;
+                    case 'g': decoded.tag = value; break;
+                    case 's': decoded.seq = value; break;
+                    case 'o': decoded.timeout = value; break;
+                    case 'd': decoded.detail = value; break;
+                    case 'i': decoded.icon = dictionary.icons[value]; break;
+                    case 'u': decoded.url = Array.isArray(value) ? dictionary.urls[value[0]] + value[1] : value; break;
+                    default: decoded[key] = value;
+                }
+            });
+            return decoded;
+        },
+
+        onWelcome: function (welcome) {
+            this.welcomed = true;
+            this.attempt = 0;
+            if (this.socket) {
+                this.socketWorks = true;
+            }
+            this.dictionary = welcome.dictionary;
+            if (this.source) {
+                // the server applied subscription and caught up already
+                if (this.stream.epoch !== welcome.epoch) {
+                    this.stream = {epoch: welcome.epoch, seq: welcome.seq};
+                    this.saveStream();
+                }
+                return;
+            }
+            if (this.subscription) {
+                // before resume, so the catch up batch is filtered too
+                this.sendSubscription();
+            }
+            if (this.active) {
+                // a new connection starts as idle on the server
+                this.sendPresence();
+            }
+            if (this.stream.epoch === welcome.epoch && this.stream.seq < welcome.seq) {
+                this.send({type: 'resume', epoch: this.stream.epoch, seq: this.stream.seq});
+            } else if (this.stream.epoch !== welcome.epoch) {
+                this.stream = {epoch: welcome.epoch, seq: welcome.seq};
+                this.saveStream();
+            }
+        },
+
+        onNotification: function (notification) {
+            if (notification.seq) {
+                // live messages may overtake the catch up batch, show each one only once
+                if (this.seen.indexOf(notification.seq) >= 0) {
+                    return;
+                }
+                this.seen.push(notification.seq);
+                if (this.seen.length > SEEN_LIMIT) {
+                    this.seen.shift();
+                }
+
+                if (!(this.stream.seq >= notification.seq)) {
+                    this.stream.seq = notification.seq;
+                    this.saveStream();
+                }
+            }
+
+            options.onNotification(notification);
+        }
+    };
+
+    return connection;
+};
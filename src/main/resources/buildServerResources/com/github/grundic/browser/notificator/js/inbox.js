@@ -0,0 +1,96 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+'use strict';
+
+var BrowserNotifierInbox = {
+    path: null,
+    filter: {},
+    next: -1,
+
+    init: function (path) {
+        BrowserNotifierInbox.path = path;
+        BrowserNotifierInbox.search();
+    },
+
+    search: function () {
+        var from = $j("#inbox-from").val();
+        var to = $j("#inbox-to").val();
+
+        BrowserNotifierInbox.filter = {
+            project: $j("#inbox-project").val(),
+            type: $j("#inbox-type").val(),
+            // dates are picked in local time, the end date is included
+            from: from ? new Date(from + "T00:00:00").getTime() : "",
+            to: to ? new Date(to + "T00:00:00").getTime() + 24 * 60 * 60 * 1000 - 1 : ""
+        };
+
+        $j("#inbox-entries>tbody").empty();
+        BrowserNotifierInbox.load(-1);
+    },
+
+    more: function () {
+        BrowserNotifierInbox.load(BrowserNotifierInbox.next);
+    },
+
+    load: function (before) {
+        var params = $j.extend({}, BrowserNotifierInbox.filter);
+        if (before >= 0) {
+            params.before = before;
+        }
+
+        $j("#inbox-more-btn").prop("disabled", true);
+        $j.getJSON(base_uri + BrowserNotifierInbox.path, params).done(function (page) {
+            var body = $j("#inbox-entries>tbody");
+            $j.each(page.entries, function (index, entry) {
+                body.append(BrowserNotifierInbox.row(entry));
+            });
+
+            BrowserNotifierInbox.next = page.next;
+            $j("#inbox-entries").toggle(body.children().length > 0);
+            $j("#inbox-empty>span").text(page.enabled ? "No notifications." : "Notification inbox is disabled.");
+            $j("#inbox-empty").toggle(0 === body.children().length);
+            $j("#inbox-more").toggle(page.next >= 0);
+        }).always(function () {
+            $j("#inbox-more-btn").prop("disabled", false);
+        });
+    },
+
+    row: function (entry) {
+        var message = entry.message;
+        var title = $j("<strong></strong>").text(message.title || "");
+        if (message.url) {
+            title = $j("<a></a>").attr("href", base_uri + message.url).append(title);
+        }
+
+        var text = $j("<td></td>").append(title);
+        if (message.body) {
+            text.append($j("<div></div>").text(message.body));
+        }
+
+        return $j("<tr></tr>")
+            .append($j("<td></td>").text(new Date(entry.time).toLocaleString()))
+            .append(text);
+    }
+};
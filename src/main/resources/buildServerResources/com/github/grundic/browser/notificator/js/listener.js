@@ -22,39 +22,335 @@
  * THE SOFTWARE.
  */
 
+
 'use strict';
 
+/*
+ * Keeps a single Browser Notifier connection per browser, no matter how many TeamCity tabs are open.
+ * Where shared workers are supported, the worker owns the connection. Otherwise tabs elect a leader through
+ * localStorage; the leader connects, shows notifications and relays them to other tabs over BroadcastChannel
+ * (or storage events). Every tab fires 'browserNotifier:notification' on document for each notification.
+ *
+ * Tabs also report when the user works with them - the page is visible and gets input - so the connection can tell
+ * the server whether this browser is in use. A user with several browsers gets notifications only in the one used
+ * most recently.
+ */
 (function () {
+    var PLUGIN_PATH = '/plugins/teamcity-browser-notify/com/github/grundic/browser/notificator';
+    var BROWSER_ID_KEY = 'browserNotifier.browserId';
+    var LEADER_KEY = 'browserNotifier.leader';
+    var MESSAGE_KEY = 'browserNotifier.message';
+    var SUBSCRIPTION_KEY = 'browserNotifier.subscription';
+    var ACTIVE_KEY = 'browserNotifier.activeAt';
+    var CHANNEL_NAME = 'browserNotifier';
+    var LEADER_TTL = 5000;
+    var HEARTBEAT = 2000;
+    var DETAIL_PATH = '/browserNotifier/detail.html';
+    var IDLE_TIMEOUT = 60000;
+    var ACTIVITY_THROTTLE = 5000;
+
+    var storage = {
+        get: function (key) {
+            try {
+                return window.localStorage.getItem(key);
+            } catch (e) {
+                return null;
+            }
+        },
+        set: function (key, value) {
+            try {
+                window.localStorage.setItem(key, value);
+            } catch (e) {
+                // private mode or quota exceeded, tabs fall back to separate connections
+            }
+        },
+        remove: function (key) {
+            try {
+                window.localStorage.removeItem(key);
+            } catch (e) {
+                // see above
+            }
+        }
+    };
+
+    function randomId() {
+        return Math.random().toString(36).slice(2) + Date.now().toString(36);
+    }
+
+    function parse(value) {
+        try {
+            return JSON.parse(value);
+        } catch (e) {
+            return null;
+        }
+    }
+
+    /**
+     * Call back when the user works with this tab: it gets visible or focused, or there is input. Input is reported
+     * at most once per ACTIVITY_THROTTLE.
+     * @param onActive - called when the user is active.
+     * @param onHidden - called when the tab gets hidden.
+     */
+    function trackActivity(onActive, onHidden) {
+        var reportedAt = 0;
+        var onInput = function () {
+            var now = Date.now();
+            if (!document.hidden && now - reportedAt > ACTIVITY_THROTTLE) {
+                reportedAt = now;
+                onActive();
+            }
+        };
+
+        ['mousemove', 'mousedown', 'keydown', 'scroll', 'touchstart'].forEach(function (type) {
+            window.addEventListener(type, onInput, {passive: true, capture: true});
+        });
+        window.addEventListener('focus', onInput);
+        document.addEventListener('visibilitychange', function () {
+            if (document.hidden) {
+                onHidden();
+            } else {
+                reportedAt = 0;
+                onInput();
+            }
+        });
+        onInput();
+    }
+
     var eventListener = {
+        activeAt: 0,
+
         init: function () {
-            var url = (window['base_uri']).replace(/^http/, "ws") + '/browserNotifier/notify.html';
-            this.socket = new WebSocket(url);
+            this.browserId = storage.get(BROWSER_ID_KEY);
+            if (!this.browserId) {
+                this.browserId = randomId();
+                storage.set(BROWSER_ID_KEY, this.browserId);
+            }
+
+            if (window.SharedWorker) {
+                try {
+                    this.initWorker();
+                    return;
+                } catch (e) {
+                    // e.g. blocked by browser settings, fall back to leader election
+                }
+            }
+            this.initElection();
+        },
+
+        initWorker: function () {
+            var self = this;
+            this.connectWorker();
 
-            this.socket.onmessage = this.onMessage;
+            trackActivity(function () {
+                self.port.postMessage({type: 'active'});
+            }, function () {
+                self.port.postMessage({type: 'hidden'});
+            });
+            window.addEventListener('pagehide', function () {
+                self.port.postMessage({type: 'bye'});
+            });
+            // a page restored from the back/forward cache has said goodbye already, the worker may be gone too
+            window.addEventListener('pageshow', function (event) {
+                if (event.persisted) {
+                    self.port.close();
+                    self.connectWorker();
+                }
+            });
         },
 
-        onMessage: function(response) {
-            var responseObject = JSON.parse(response.data);
+        connectWorker: function () {
+            var worker = new SharedWorker(base_uri + PLUGIN_PATH + '/js/worker.js', 'browserNotifier');
+            var port = worker.port;
+
+            port.onmessage = function (message) {
+                if (message.data.type === 'notification') {
+                    this.onNotification(message.data.notification, message.data.display);
+                } else if (message.data.type === 'ping') {
+                    port.postMessage({type: 'pong'});
+                }
+            }.bind(this);
+            port.start();
+            port.postMessage({type: 'init', baseUri: base_uri, browserId: this.browserId, subscription: this.getSubscription()});
+            if (!document.hidden) {
+                port.postMessage({type: 'active'});
+            }
+            this.port = port;
+        },
+
+        initElection: function () {
+            var self = this;
+            this.tabId = randomId();
+
+            if (window.BroadcastChannel) {
+                this.channel = new BroadcastChannel(CHANNEL_NAME);
+                this.channel.onmessage = function (message) {
+                    self.onNotification(message.data, false);
+                };
+            }
+
+            window.addEventListener('storage', function (event) {
+                if (event.key === LEADER_KEY && !event.newValue) {
+                    // leader has gone, take over right away
+                    self.elect();
+                } else if (event.key === MESSAGE_KEY && event.newValue && !self.channel) {
+                    self.onNotification(parse(event.newValue).notification, false);
+                } else if (event.key === SUBSCRIPTION_KEY && self.connection) {
+                    self.connection.subscribe(parse(event.newValue));
+                }
+            });
+            window.addEventListener('pagehide', function () {
+                if (self.connection) {
+                    self.connection.close();
+                    self.connection = null;
+                    storage.remove(LEADER_KEY);
+                }
+            });
+            // the leader of a page restored from the back/forward cache has stepped down, don't wait for the heartbeat
+            window.addEventListener('pageshow', function (event) {
+                if (event.persisted) {
+                    self.elect();
+                }
+            });
+
+            // the leader reads activity of all tabs from storage
+            trackActivity(function () {
+                self.activeAt = Date.now();
+                storage.set(ACTIVE_KEY, String(self.activeAt));
+                self.updatePresence();
+            }, function () {
+                self.activeAt = 0;
+            });
+
+            this.elect();
+            setInterval(this.elect.bind(this), HEARTBEAT);
+        },
+
+        updatePresence: function () {
+            if (this.connection) {
+                var activeAt = Math.max(this.activeAt, Number(storage.get(ACTIVE_KEY)) || 0);
+                this.connection.setActive(Date.now() - activeAt < IDLE_TIMEOUT, activeAt);
+            }
+        },
+
+        elect: function () {
+            var now = Date.now();
+            var leader = parse(storage.get(LEADER_KEY));
+            if (!leader || leader.id === this.tabId || leader.ts < now - LEADER_TTL) {
+                storage.set(LEADER_KEY, JSON.stringify({id: this.tabId, ts: now}));
+                leader = parse(storage.get(LEADER_KEY));
+            }
+
+            // without storage every tab leads on its own
+            var isLeader = !leader || leader.id === this.tabId;
+            if (isLeader && !this.connection) {
+                this.connection = BrowserNotifierConnection({
+                    baseUri: base_uri,
+                    browserId: this.browserId,
+                    storage: storage,
+                    subscription: this.getSubscription(),
+                    onNotification: this.onLeaderNotification.bind(this)
+                });
+                this.connection.open();
+            } else if (!isLeader && this.connection) {
+                this.connection.close();
+                this.connection = null;
+            }
+            this.updatePresence();
+        },
+
+        getSubscription: function () {
+            return parse(storage.get(SUBSCRIPTION_KEY));
+        },
+
+        /**
+         * Receive only some of the notifications in this browser, see BrowserNotifierConnection.
+         * @param subscription - filter, or null to receive all notifications again.
+         */
+        subscribe: function (subscription) {
+            if (subscription) {
+                storage.set(SUBSCRIPTION_KEY, JSON.stringify(subscription));
+            } else {
+                storage.remove(SUBSCRIPTION_KEY);
+            }
+
+            if (this.port) {
+                this.port.postMessage({type: 'subscribe', subscription: subscription || null});
+            } else if (this.connection) {
+                this.connection.subscribe(subscription);
+            }
+        },
+
+        onLeaderNotification: function (notification) {
+            if (this.channel) {
+                this.channel.postMessage(notification);
+            } else {
+                storage.set(MESSAGE_KEY, JSON.stringify({notification: notification, id: randomId()}));
+            }
+            this.onNotification(notification, true);
+        },
+
+        onNotification: function (notification, display) {
+            $j(document).trigger('browserNotifier:notification', [notification]);
+            if (display) {
+                this.show(notification);
+            }
+        },
+
+        show: function (responseObject) {
             var notifier = window.Notify.default;
+            var self = this;
 
             var extra = {
                 notifyClick: function (event){
                     event.preventDefault();
-                    window.open(base_uri + responseObject.url, '_blank');
+                    // only failures carry a detail key, anything else opens at once
+                    if (responseObject.detail && !responseObject.expanded) {
+                        self.expand(responseObject);
+                    } else {
+                        window.open(base_uri + responseObject.url, '_blank');
+                    }
                 },
                 closeOnClick: true,
-                icon: base_uri + "/plugins/teamcity-browser-notify/com/github/grundic/browser/notificator/img/" + responseObject.icon
+                icon: base_uri + PLUGIN_PATH + "/img/" + responseObject.icon
             };
 
-            responseObject = $j.extend(responseObject, extra);
-
             var notification = new notifier(
                 responseObject.title,
-                responseObject
+                $j.extend({}, responseObject, extra)
             );
             notification.show();
         },
+
+        /**
+         * Replace notification with one listing details of its build, fetched only now that the user asked.
+         * Clicking the replacement opens the build, even if details could not be fetched.
+         */
+        expand: function (responseObject) {
+            var self = this;
+            $j.getJSON(base_uri + DETAIL_PATH, {key: responseObject.detail}).done(function (detail) {
+                var lines = [responseObject.body];
+                if (detail.status) {
+                    lines.push(detail.status);
+                }
+                if (detail.failedTests && detail.failedTests.length) {
+                    var more = detail.failedTestCount - detail.failedTests.length;
+                    lines.push('Failed: ' + detail.failedTests.join(', ') + (more > 0 ? ' and ' + more + ' more' : ''));
+                }
+                if (detail.committers && detail.committers.length) {
+                    lines.push('Changes by ' + detail.committers.join(', '));
+                }
+
+                self.show($j.extend({}, responseObject, {body: lines.join('\n'), expanded: true, requireInteraction: true}));
+            }).fail(function () {
+                // opening a window outside of the click would be blocked, so leave it for the next click
+                self.show($j.extend({}, responseObject, {expanded: true}));
+            });
+        }
     };
 
     eventListener.init();
-})();
\ No newline at end of file
+
+    window.BrowserNotifier = {
+        subscribe: eventListener.subscribe.bind(eventListener)
+    };
+})();
@@ -0,0 +1,55 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+'use strict';
+
+/*
+ * Service worker showing Browser Notifier notifications delivered over Web Push, while no TeamCity page is open.
+ * Every push message carries a JSON array of notifications in the verbose wire format.
+ */
+var PLUGIN_PATH = '/plugins/teamcity-browser-notify/com/github/grundic/browser/notificator';
+var BASE_URI = self.registration.scope.substring(0, self.registration.scope.indexOf(PLUGIN_PATH));
+
+self.addEventListener('push', function (event) {
+    var notifications = [];
+    try {
+        notifications = event.data ? event.data.json() : [];
+    } catch (e) {
+        // not ours
+    }
+
+    event.waitUntil(Promise.all(notifications.map(function (notification) {
+        return self.registration.showNotification(notification.title, {
+            body: notification.body,
+            tag: notification.tag,
+            icon: BASE_URI + PLUGIN_PATH + '/img/' + notification.icon,
+            data: {url: notification.url ? BASE_URI + notification.url : BASE_URI + '/'}
+        });
+    })));
+});
+
+self.addEventListener('notificationclick', function (event) {
+    event.notification.close();
+    event.waitUntil(self.clients.openWindow(event.notification.data.url));
+});
@@ -74,5 +74,85 @@ var BrowserNotifier = {
 
     requestNotificationAccess: function(){
         this.notify.requestPermission(this.onPermissionGranted, this.onPermissionDenied);
+    },
+
+    pushPath: "/browserNotifier/push.html",
+
+    isPushSupported: function(){
+        return 'serviceWorker' in navigator && 'PushManager' in window;
+    },
+
+    getPushRegistration: function(){
+        return navigator.serviceWorker.register(base_uri + BrowserNotifier.basePath + "/js/push-sw.js");
+    },
+
+    showPushInfo: function(){
+        if (!this.isPushSupported()) {
+            return;
+        }
+
+        $j.getJSON(base_uri + this.pushPath, function(info){
+            if (!info.enabled) {
+                return;
+            }
+
+            BrowserNotifier.pushKey = info.publicKey;
+            BrowserNotifier.getPushRegistration().then(function(registration){
+                return registration.pushManager.getSubscription();
+            }).then(function(subscription){
+                BrowserNotifier.onPushState(!!subscription);
+                $j("#notification-push").show();
+            });
+        });
+    },
+
+    onPushState: function(subscribed){
+        $j("#push-enable-btn").toggle(!subscribed);
+        $j("#push-disable-btn").toggle(subscribed);
+        $j("#notification-push span").html(subscribed
+            ? 'Notifications are delivered to this browser even when no TeamCity page is open.'
+            : 'Get notifications in this browser even when no TeamCity page is open.');
+    },
+
+    enablePush: function(){
+        BrowserNotifier.getPushRegistration().then(function(registration){
+            return registration.pushManager.subscribe({
+                userVisibleOnly: true,
+                applicationServerKey: BrowserNotifier.decodeKey(BrowserNotifier.pushKey)
+            });
+        }).then(function(subscription){
+            var json = subscription.toJSON();
+            BrowserNotifier.postPush({action: 'subscribe', endpoint: json.endpoint, p256dh: json.keys.p256dh, auth: json.keys.auth});
+            BrowserNotifier.onPushState(true);
+        }).catch(function(){
+            BrowserNotifier.onPermissionDenied();
+        });
+    },
+
+    disablePush: function(){
+        BrowserNotifier.getPushRegistration().then(function(registration){
+            return registration.pushManager.getSubscription();
+        }).then(function(subscription){
+            if (subscription) {
+                BrowserNotifier.postPush({action: 'unsubscribe', endpoint: subscription.endpoint});
+                return subscription.unsubscribe();
+            }
+        }).then(function(){
+            BrowserNotifier.onPushState(false);
+        });
+    },
+
+    postPush: function(parameters){
+        BS.ajaxRequest(base_uri + this.pushPath, {parameters: parameters});
+    },
+
+    // base64url string to the byte array pushManager.subscribe() expects
+    decodeKey: function(key){
+        var raw = window.atob((key + '==='.slice((key.length + 3) % 4)).replace(/-/g, '+').replace(/_/g, '/'));
+        var bytes = new Uint8Array(raw.length);
+        for (var i = 0; i < raw.length; i++) {
+            bytes[i] = raw.charCodeAt(i);
+        }
+        return bytes;
     }
 };
\ No newline at end of file
@@ -0,0 +1,175 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+'use strict';
+
+/*
+ * Shared worker holding the only Browser Notifier connection of the browser. Every TeamCity tab connects to it,
+ * and each notification is handed to a single tab - the one the user was active in most recently - so it is
+ * shown once. The other tabs get a copy marked as not to be shown.
+ *
+ * A tab that crashed or was killed never says goodbye, so tabs are pinged and the ones that don't answer in time are
+ * left out until they send anything again.
+ *
+ * The browser counts as active while one of its tabs is visible and got some input recently. The server learns that,
+ * so a user with several browsers gets notifications only in the one in use.
+ */
+importScripts('connection.js');
+
+var ports = [];
+var connection = null;
+var memory = {};
+var IDLE_TIMEOUT = 60000;
+var PRESENCE_CHECK = 15000;
+var PING_INTERVAL = 10000;
+var PORT_TIMEOUT = 25000;
+// options of the latest tab, to open the connection again when a tab comes back after all have gone
+var init = null;
+
+function pickDisplayPort() {
+    var best = null;
+    var now = Date.now();
+    for (var i = 0; i < ports.length; i++) {
+        if (now - ports[i].seenAt > PORT_TIMEOUT) {
+            continue;
+        }
+        if (!best || ports[i].activeAt > best.activeAt) {
+            best = ports[i];
+        }
+    }
+    return best;
+}
+
+function dispatch(notification) {
+    var display = pickDisplayPort();
+    for (var i = 0; i < ports.length; i++) {
+        ports[i].port.postMessage({type: 'notification', display: ports[i] === display, notification: notification});
+    }
+}
+
+function updatePresence() {
+    if (!connection) {
+        return;
+    }
+
+    var inputAt = 0;
+    for (var i = 0; i < ports.length; i++) {
+        if (!ports[i].hidden) {
+            inputAt = Math.max(inputAt, ports[i].activeAt);
+        }
+    }
+    connection.setActive(Date.now() - inputAt < IDLE_TIMEOUT, inputAt);
+}
+
+setInterval(updatePresence, PRESENCE_CHECK);
+
+function ping() {
+    var now = Date.now();
+    ports.slice().forEach(function (entry) {
+        if (now - entry.seenAt > PORT_TIMEOUT) {
+            removePort(entry);
+        } else {
+            entry.port.postMessage({type: 'ping'});
+        }
+    });
+}
+
+setInterval(ping, PING_INTERVAL);
+
+function openConnection() {
+    if (connection || !init) {
+        return;
+    }
+
+    connection = BrowserNotifierConnection({
+        baseUri: init.baseUri,
+        browserId: init.browserId,
+        storage: {
+            get: function (key) { return memory[key]; },
+            set: function (key, value) { memory[key] = value; }
+        },
+        subscription: init.subscription,
+        onNotification: dispatch
+    });
+    connection.open();
+}
+
+function removePort(entry) {
+    var index = ports.indexOf(entry);
+    if (index >= 0) {
+        ports.splice(index, 1);
+    }
+    if (ports.length === 0 && connection) {
+        connection.close();
+        connection = null;
+    }
+    updatePresence();
+}
+
+self.onconnect = function (event) {
+    var entry = {port: event.ports[0], activeAt: Date.now(), seenAt: Date.now(), hidden: false};
+    ports.push(entry);
+
+    entry.port.onmessage = function (message) {
+        var data = message.data;
+        if (data.type === 'bye') {
+            removePort(entry);
+            return;
+        }
+
+        // a tab left out for not answering is back
+        entry.seenAt = Date.now();
+        if (ports.indexOf(entry) < 0) {
+            ports.push(entry);
+            openConnection();
+        }
+
+        switch (data.type) {
+            case 'init':
+                init = data;
+                openConnection();
+                updatePresence();
+                break;
+            case 'subscribe':
+                if (init) {
+                    init.subscription = data.subscription;
+                }
+                if (connection) {
+                    connection.subscribe(data.subscription);
+                }
+                break;
+            case 'active':
+                entry.activeAt = Date.now();
+                entry.hidden = false;
+                updatePresence();
+                break;
+            case 'hidden':
+                entry.hidden = true;
+                updatePresence();
+                break;
+        }
+    };
+    entry.port.start();
+};
@@ -0,0 +1,86 @@
+<%--
+  ~ The MIT License
+  ~
+  ~ Copyright (c) 2016 Grigory Chernyshev.
+  ~
+  ~ Permission is hereby granted, free of charge, to any person obtaining a copy
+  ~ of this software and associated documentation files (the "Software"), to deal
+  ~ in the Software without restriction, including without limitation the rights
+  ~ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  ~ copies of the Software, and to permit persons to whom the Software is
+  ~ furnished to do so, subject to the following conditions:
+  ~
+  ~ The above copyright notice and this permission notice shall be included in
+  ~ all copies or substantial portions of the Software.
+  ~
+  ~ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  ~ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  ~ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  ~ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  ~ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  ~ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  ~ THE SOFTWARE.
+  --%>
+
+<%@ include file="/include.jsp" %>
+
+<bs:linkScript>
+    /plugins/teamcity-browser-notify/com/github/grundic/browser/notificator/js/inbox.js
+</bs:linkScript>
+
+
+<script type="text/javascript">
+    $j(document).ready(function () {
+        BrowserNotifierInbox.init('<c:out value="${inboxPath}"/>');
+    });
+</script>
+
+<div id="inbox-filter" class="notifierSettings clearfix">
+    <form onsubmit="BrowserNotifierInbox.search(); return false;">
+        <table style="width: 100%">
+            <tbody>
+            <tr>
+                <th><label for="inbox-project">Project ID</label></th>
+                <td><forms:textField name="inbox-project" value=""/></td>
+                <th><label for="inbox-type">Event</label></th>
+                <td>
+                    <select id="inbox-type" name="inbox-type">
+                        <option value="">Any</option>
+                        <c:forEach items="${eventTypes}" var="eventType">
+                            <option value="<c:out value="${eventType}"/>"><c:out value="${eventType}"/></option>
+                        </c:forEach>
+                    </select>
+                </td>
+                <th><label for="inbox-from">From</label></th>
+                <td><input type="date" id="inbox-from" name="inbox-from"/></td>
+                <th><label for="inbox-to">To</label></th>
+                <td><input type="date" id="inbox-to" name="inbox-to"/></td>
+                <td align="right">
+                    <input type="submit" class="btn btn_primary" id="inbox-search-btn" value="Filter"/>
+                </td>
+            </tr>
+            </tbody>
+        </table>
+    </form>
+</div>
+
+
+<p id="inbox-empty" class="notificationRulesMessage" style="display: none">
+    <span>No notifications.</span>
+</p>
+
+<table id="inbox-entries" class="settings" style="width: 100%; display: none">
+    <thead>
+    <tr>
+        <th style="width: 12em">Time</th>
+        <th>Notification</th>
+    </tr>
+    </thead>
+    <tbody></tbody>
+</table>
+
+
+<div id="inbox-more" style="display: none" class="clearfix">
+    <input type="button" class="btn" id="inbox-more-btn" value="Older notifications"
+           onclick="BrowserNotifierInbox.more()"/>
+</div>
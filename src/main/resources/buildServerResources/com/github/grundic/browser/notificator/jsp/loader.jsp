@@ -0,0 +1,68 @@
+<%--
+  ~ The MIT License
+  ~
+  ~ Copyright (c) 2016 Grigory Chernyshev.
+  ~
+  ~ Permission is hereby granted, free of charge, to any person obtaining a copy
+  ~ of this software and associated documentation files (the "Software"), to deal
+  ~ in the Software without restriction, including without limitation the rights
+  ~ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  ~ copies of the Software, and to permit persons to whom the Software is
+  ~ furnished to do so, subject to the following conditions:
+  ~
+  ~ The above copyright notice and this permission notice shall be included in
+  ~ all copies or substantial portions of the Software.
+  ~
+  ~ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  ~ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  ~ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  ~ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  ~ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  ~ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  ~ THE SOFTWARE.
+  --%>
+
+<%@ include file="/include.jsp" %>
+
+<script type="text/javascript">
+    // Browser Notifier stub: the scripts and the connection wait until notifications are allowed and the page is idle
+    (function () {
+        if (!window.Notification) {
+            return;
+        }
+
+        var loaded = false;
+        var load = function () {
+            if (loaded || window.Notification.permission !== 'granted') {
+                return;
+            }
+            loaded = true;
+
+            var script = document.createElement('script');
+            script.src = base_uri + '<c:out value="${bundleUrl}"/>';
+            script.async = true;
+            document.head.appendChild(script);
+        };
+        var loadWhenIdle = function () {
+            if (window.requestIdleCallback) {
+                window.requestIdleCallback(load, {timeout: 5000});
+            } else {
+                setTimeout(load, 1000);
+            }
+        };
+
+        if (document.readyState === 'complete') {
+            loadWhenIdle();
+        } else {
+            window.addEventListener('load', loadWhenIdle);
+        }
+
+        // permission may be granted later, e.g. on the settings page
+        if (navigator.permissions && navigator.permissions.query) {
+            navigator.permissions.query({name: 'notifications'}).then(function (status) {
+                status.onchange = loadWhenIdle;
+            }, function () {
+            });
+        }
+    })();
+</script>
@@ -33,6 +33,7 @@
 <script type="text/javascript">
     $j(document).ready(function () {
         BrowserNotifier.showPermissionsInfo();
+        BrowserNotifier.showPushInfo();
     });
 </script>
 
@@ -74,3 +75,11 @@
            onclick="BrowserNotifier.requestNotificationAccess()"/>
 </div>
 
+
+<div id="notification-push" style="display: none" class="notifierSettings clearfix">
+    <span></span>
+    <input type="button" class="btn" id="push-enable-btn" value="Enable background notifications"
+           onclick="BrowserNotifier.enablePush()"/>
+    <input type="button" class="btn" id="push-disable-btn" value="Disable background notifications"
+           onclick="BrowserNotifier.disablePush()"/>
+</div>
@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.inbox;
+
+import com.github.grundic.browser.notificator.notifier.EventType;
+import org.jetbrains.annotations.NotNull;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+@Test
+public class InboxLogTest {
+    private File directory;
+    private InboxLog log;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("inbox").toFile();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        if (null != log) {
+            log.close();
+            log = null;
+        }
+        final File[] files = directory.listFiles();
+        if (null != files) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    public void recordsSurviveRestart() throws IOException {
+        log = new InboxLog(directory, 4096);
+        log.append(1000, EventType.BUILD_FAILED, Arrays.asList("Child", "Root"), "{\"n\":1}", new long[]{1, 2});
+        log.append(2000, null, Collections.<String>emptyList(), "{\"n\":2}", new long[]{2});
+        reopen(4096);
+
+        assertEquals(log.getUserCount(), 2);
+        assertEquals(log.getLastCreatedAt(), 2000);
+        assertEquals(jsons(log.read(2, InboxQuery.latest(10), 100)), Arrays.asList("{\"n\":2}", "{\"n\":1}"));
+
+        final List<InboxEntry> entries = log.read(1, InboxQuery.latest(10), 100).getEntries();
+        assertEquals(entries.size(), 1);
+        assertEquals(entries.get(0).getCreatedAt(), 1000);
+        assertEquals(entries.get(0).getType(), EventType.BUILD_FAILED);
+        assertEquals(entries.get(0).getProjects(), Arrays.asList("Child", "Root"));
+        assertNull(log.read(2, InboxQuery.latest(10), 100).getEntries().get(0).getType());
+    }
+
+    public void recordsSpanSegmentsAcrossRestart() throws IOException {
+        log = new InboxLog(directory, 128);
+        final List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            final String json = "{\"n\":" + i + "}";
+            log.append(1000 + i, null, Collections.<String>emptyList(), json, new long[]{1});
+            expected.add(0, json);
+        }
+        reopen(128);
+
+        assertEquals(jsons(log.read(1, InboxQuery.latest(100), 100)), expected);
+        assertEquals(log.getLastCreatedAt(), 1009);
+    }
+
+    public void recoveryStopsAtDamagedRecord() throws IOException {
+        log = new InboxLog(directory, 4096);
+        log.append(1000, null, Collections.<String>emptyList(), "{\"n\":1}", new long[]{1});
+        log.append(2000, null, Collections.<String>emptyList(), "{\"n\":2}", new long[]{1});
+        final long torn = log.append(3000, null, Collections.<String>emptyList(), "{\"n\":3}", new long[]{1});
+        log.close();
+        log = null;
+
+        // flip a byte of the last record's body, as if the crash happened while it was written
+        try (RandomAccessFile file = new RandomAccessFile(new File(directory, String.format("%020d", 0) + ".log"), "rw")) {
+            file.seek(torn + 8 + 4);
+            final int value = file.read();
+            file.seek(torn + 8 + 4);
+            file.write(value ^ 0xFF);
+        }
+        reopen(4096);
+
+        assertEquals(jsons(log.read(1, InboxQuery.latest(10), 100)), Arrays.asList("{\"n\":2}", "{\"n\":1}"));
+        assertEquals(log.getLastCreatedAt(), 2000);
+        // appends continue in place of the damaged record
+        assertEquals(log.append(4000, null, Collections.<String>emptyList(), "{\"n\":4}", new long[]{1}), torn);
+        assertEquals(jsons(log.read(1, InboxQuery.latest(10), 100)), Arrays.asList("{\"n\":4}", "{\"n\":2}", "{\"n\":1}"));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void directoryIsLockedWhileOpen() throws IOException {
+        log = new InboxLog(directory, 4096);
+        new InboxLog(directory, 4096);
+    }
+
+    private void reopen(int segmentBytes) throws IOException {
+        if (null != log) {
+            log.close();
+        }
+        log = null;
+        log = new InboxLog(directory, segmentBytes);
+    }
+
+    @NotNull
+    private static List<String> jsons(@NotNull InboxPage page) {
+        final List<String> jsons = new ArrayList<>(page.getEntries().size());
+        for (InboxEntry entry : page.getEntries()) {
+            jsons.add(entry.getJson());
+        }
+        return jsons;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.metrics;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+@Test
+public class LatencyHistogramTest {
+    private static final long MAX_VALUE = TimeUnit.HOURS.toMicros(1);
+
+    public void smallValuesAreExact() {
+        for (long value = 0; value < 128; value++) {
+            assertEquals(LatencyHistogram.highestValueAt(LatencyHistogram.indexOf(value)), value);
+        }
+    }
+
+    public void bucketsCoverEveryValueOnce() {
+        final int last = LatencyHistogram.indexOf(MAX_VALUE);
+        for (int index = 0; index < last; index++) {
+            final long highest = LatencyHistogram.highestValueAt(index);
+            assertEquals(LatencyHistogram.indexOf(highest), index, "highest value of bucket " + index);
+            assertEquals(LatencyHistogram.indexOf(highest + 1), index + 1, "value after bucket " + index);
+        }
+    }
+
+    public void bucketWidthIsWithinPrecision() {
+        for (long value = 128; value <= MAX_VALUE; value += 1 + value / 97) {
+            final long highest = LatencyHistogram.highestValueAt(LatencyHistogram.indexOf(value));
+            assertTrue(highest >= value, "bucket of " + value + " ends at " + highest);
+            assertTrue((highest - value) * 64 <= value, "bucket of " + value + " ends at " + highest);
+        }
+    }
+
+    public void percentilesAreBucketBoundsCappedByMax() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(histogram.getValueAtPercentile(50), 0);
+
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(histogram.getCount(), 1000);
+        assertEquals(histogram.getMean(), 500);
+        assertEquals(histogram.getValueAtPercentile(10), 100);
+        assertEquals(histogram.getValueAtPercentile(50), LatencyHistogram.highestValueAt(LatencyHistogram.indexOf(500)));
+        assertEquals(histogram.getValueAtPercentile(100), 1000);
+    }
+
+    public void outOfRangeValuesAreClamped() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(MAX_VALUE * 2);
+
+        assertEquals(histogram.getCount(), 2);
+        assertEquals(histogram.getValueAtPercentile(50), 0);
+        assertEquals(histogram.getMax(), MAX_VALUE);
+        assertEquals(histogram.getValueAtPercentile(100), MAX_VALUE);
+    }
+}
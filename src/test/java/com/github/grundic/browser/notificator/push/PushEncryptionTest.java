@@ -0,0 +1,76 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.push;
+
+import org.jetbrains.annotations.NotNull;
+import org.testng.annotations.Test;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.spec.ECPrivateKeySpec;
+import java.util.Base64;
+
+import static org.testng.Assert.assertEquals;
+
+@Test
+public class PushEncryptionTest {
+    // RFC 8291, section 5
+    private static final String PLAINTEXT = "When I grow up, I want to be a watermelon";
+    private static final String AS_PUBLIC = "BP4z9KsN6nGRTbVYI_c7VJSPQTBtkgcy27mlmlMoZIIgDll6e3vCYLocInmYWAmS6TlzAC8wEqKK6PBru3jl7A8";
+    private static final String AS_PRIVATE = "yfWPiYE-n46HLnH0KqZOF1fJJU3MYrct3AELtAQ-oRw";
+    private static final String UA_PUBLIC = "BCVxsr7N_eNgVRqvHtD0zTZsEc6-VV-JvLexhqUzORcxaOzi6-AYWXvTBHm4bjyPjs7Vd8pZGH6SRpkNtoIAiw4";
+    private static final String AUTH_SECRET = "BTBZMqHH6r4Tts7J_aSIgg";
+    private static final String SALT = "DGv6ra1nlYgDCS1FRnbzlw";
+    private static final String BODY = "DGv6ra1nlYgDCS1FRnbzlwAAEABBBP4z9KsN6nGRTbVYI_c7VJSPQTBtkgcy27mlmlMoZIIgDll6e3vCYLocInmYWAmS6TlzAC8wEqKK6PBru3jl7A_yl95bQpu6cVPTpK4Mqgkf1CXztLVBSt2Ks3oZwbuwXPXLWyouBWLVWGNWQexSgSxsj_Qulcy4a-fN";
+
+    public void matchesRfcExample() throws GeneralSecurityException {
+        final byte[] body = PushEncryption.encrypt(decode(UA_PUBLIC), decode(AUTH_SECRET),
+                PLAINTEXT.getBytes(StandardCharsets.UTF_8), serverKeys(), decode(SALT));
+
+        assertEquals(Base64.getUrlEncoder().withoutPadding().encodeToString(body), BODY);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void rejectsOversizedPayload() throws GeneralSecurityException {
+        PushEncryption.encrypt(decode(UA_PUBLIC), decode(AUTH_SECRET), new byte[PushEncryption.MAX_PLAINTEXT + 1],
+                serverKeys(), decode(SALT));
+    }
+
+    @NotNull
+    private static KeyPair serverKeys() throws GeneralSecurityException {
+        final PrivateKey asPrivate = KeyFactory.getInstance("EC").generatePrivate(
+                new ECPrivateKeySpec(new BigInteger(1, decode(AS_PRIVATE)), PushEncryption.getCurve()));
+        return new KeyPair(PushEncryption.decodePoint(decode(AS_PUBLIC)), asPrivate);
+    }
+
+    @NotNull
+    private static byte[] decode(@NotNull String value) {
+        return Base64.getUrlDecoder().decode(value);
+    }
+}
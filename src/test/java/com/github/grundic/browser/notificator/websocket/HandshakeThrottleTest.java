@@ -0,0 +1,92 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.websocket;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+@Test
+public class HandshakeThrottleTest {
+    // ahead of the clock, so the first call finds the bucket full and later ones are in our hands
+    private final long start = System.currentTimeMillis() + 60000;
+
+    public void burstIsAdmittedAtOnce() {
+        final HandshakeThrottle throttle = new HandshakeThrottle(10, 3, 60000);
+
+        assertEquals(throttle.tryAcquire(start), 0);
+        assertEquals(throttle.tryAcquire(start), 0);
+        assertEquals(throttle.tryAcquire(start), 0);
+        assertEquals(throttle.tryAcquire(start), 100);
+    }
+
+    public void tokensRefillAtRate() {
+        final HandshakeThrottle throttle = new HandshakeThrottle(10, 1, 60000);
+
+        assertEquals(throttle.tryAcquire(start), 0);
+        assertEquals(throttle.tryAcquire(start + 50), 100);
+        assertEquals(throttle.tryAcquire(start + 100), 0);
+        // a quiet period refills the bucket up to the burst only
+        assertEquals(throttle.tryAcquire(start + 10000), 0);
+        assertEquals(throttle.tryAcquire(start + 10000), 100);
+    }
+
+    public void rejectedClientsAreSpreadOverBacklog() {
+        final HandshakeThrottle throttle = new HandshakeThrottle(10, 1, 60000);
+
+        assertEquals(throttle.tryAcquire(start), 0);
+        assertEquals(throttle.tryAcquire(start), 100);
+        assertEquals(throttle.tryAcquire(start), 200);
+        assertEquals(throttle.tryAcquire(start), 300);
+        // time passing shortens the wait for the slots already handed out
+        assertEquals(throttle.tryAcquire(start + 50), 350);
+    }
+
+    public void backlogIsCappedByMaxRetry() {
+        final HandshakeThrottle throttle = new HandshakeThrottle(10, 1, 250);
+
+        assertEquals(throttle.tryAcquire(start), 0);
+        assertEquals(throttle.tryAcquire(start), 100);
+        assertEquals(throttle.tryAcquire(start), 200);
+        assertEquals(throttle.tryAcquire(start), 250);
+        assertEquals(throttle.tryAcquire(start), 250);
+    }
+
+    public void clockStepBackKeepsTokens() {
+        final HandshakeThrottle throttle = new HandshakeThrottle(10, 2, 60000);
+
+        assertEquals(throttle.tryAcquire(start), 0);
+        assertEquals(throttle.tryAcquire(start - 5000), 0);
+        assertEquals(throttle.tryAcquire(start - 5000), 100);
+    }
+
+    public void zeroRateDisablesLimit() {
+        final HandshakeThrottle throttle = new HandshakeThrottle(0, 1, 60000);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(throttle.tryAcquire(start), 0);
+        }
+    }
+}
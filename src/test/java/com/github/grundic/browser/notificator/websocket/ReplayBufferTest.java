@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.websocket;
+
+import com.github.grundic.browser.notificator.Constants;
+import com.github.grundic.browser.notificator.NotificationFrame;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+@Test
+public class ReplayBufferTest {
+    public void returnsFramesAfterSequenceOldestFirst() {
+        final ReplayBuffer buffer = new ReplayBuffer(new SessionRegistry());
+        buffer.track(1);
+        for (long sequence = 1; sequence <= 5; sequence++) {
+            buffer.record(1, frame(sequence), null);
+        }
+
+        assertEquals(sequences(buffer.since(1, 3, null)), Arrays.asList(4L, 5L));
+        assertEquals(sequences(buffer.since(1, 0, null)), Arrays.asList(1L, 2L, 3L, 4L, 5L));
+        assertTrue(buffer.since(1, 5, null).isEmpty());
+    }
+
+    public void leavesOutFramesSentToOtherBrowsers() {
+        final ReplayBuffer buffer = new ReplayBuffer(new SessionRegistry());
+        buffer.track(1);
+        buffer.record(1, frame(1), null);
+        buffer.record(1, frame(2), "a");
+        buffer.record(1, frame(3), "b");
+
+        assertEquals(sequences(buffer.since(1, 0, "a")), Arrays.asList(1L, 2L));
+        assertEquals(sequences(buffer.since(1, 0, "b")), Arrays.asList(1L, 3L));
+        assertEquals(sequences(buffer.since(1, 0, null)), Arrays.asList(1L));
+    }
+
+    public void keepsOnlyNewestFrames() {
+        final ReplayBuffer buffer = new ReplayBuffer(new SessionRegistry());
+        buffer.track(1);
+        final int total = Constants.DEFAULT_REPLAY_SIZE + 10;
+        for (long sequence = 1; sequence <= total; sequence++) {
+            buffer.record(1, frame(sequence), null);
+        }
+
+        final List<Long> replayed = sequences(buffer.since(1, 0, null));
+        assertEquals(replayed.size(), Constants.DEFAULT_REPLAY_SIZE);
+        assertEquals(replayed.get(0), Long.valueOf(11));
+        assertEquals(replayed.get(replayed.size() - 1), Long.valueOf(total));
+    }
+
+    public void ignoresUsersNotTracked() {
+        final ReplayBuffer buffer = new ReplayBuffer(new SessionRegistry());
+        buffer.track(1);
+        buffer.record(2, frame(1), null);
+
+        assertTrue(buffer.since(2, 0, null).isEmpty());
+        assertTrue(buffer.since(1, 0, null).isEmpty());
+        assertEquals(buffer.getUserCount(), 1);
+    }
+
+    private static NotificationFrame frame(long sequence) {
+        return NotificationFrame.fromJson("{\"title\":\"Build " + sequence + "\"}").withSequence(sequence);
+    }
+
+    private static List<Long> sequences(List<NotificationFrame> frames) {
+        final List<Long> sequences = new ArrayList<>(frames.size());
+        for (NotificationFrame frame : frames) {
+            sequences.add(frame.getSequence());
+        }
+        return sequences;
+    }
+}
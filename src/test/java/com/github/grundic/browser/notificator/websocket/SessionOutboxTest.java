@@ -0,0 +1,216 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Grigory Chernyshev.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.grundic.browser.notificator.websocket;
+
+import com.github.grundic.browser.notificator.Fakes;
+import com.github.grundic.browser.notificator.WireFormat;
+import com.github.grundic.browser.notificator.metrics.DeliveryMetrics;
+import com.github.grundic.browser.notificator.notifier.BuildDetails;
+import com.github.grundic.browser.notificator.notifier.PreferencesCache;
+import jetbrains.buildServer.serverSide.SBuildServer;
+import jetbrains.buildServer.users.UserModel;
+import org.jetbrains.annotations.NotNull;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.websocket.CloseReason;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+@Test
+public class SessionOutboxTest {
+    private RecordingTransport transport;
+    private DeliveryMetrics metrics;
+
+    @BeforeMethod
+    public void setUp() {
+        transport = new RecordingTransport();
+        metrics = new DeliveryMetrics(
+                new SessionRegistry(),
+                new PreferencesCache(Fakes.fake(UserModel.class, Collections.emptyMap())),
+                new BuildDetails(Fakes.fake(SBuildServer.class, Collections.emptyMap())));
+    }
+
+    public void dropOldestMakesRoomForNewMessage() {
+        final SessionOutbox outbox = outbox(2, OverflowPolicy.DROP_OLDEST, 0);
+        outbox.offer("a");
+        outbox.offer("b");
+        outbox.offer("c");
+
+        assertTrue(outbox.offer("d"));
+        transport.completeAll();
+        assertEquals(transport.texts, Arrays.asList("a", "c", "d"));
+        assertEquals(metrics.getDroppedMessages(), 1);
+    }
+
+    public void dropOldestShedsLowestLaneFirst() {
+        final SessionOutbox outbox = outbox(2, OverflowPolicy.DROP_OLDEST, 0);
+        outbox.offer("a");
+        outbox.offer("high", 0, 0, Priority.HIGH);
+        outbox.offer("low", 0, 0, Priority.LOW);
+
+        assertTrue(outbox.offer("normal", 0, 0, Priority.NORMAL));
+        // nothing queued is below the new message
+        assertFalse(outbox.offer("low 2", 0, 0, Priority.LOW));
+        transport.completeAll();
+        assertEquals(transport.texts, Arrays.asList("a", "high", "normal"));
+    }
+
+    public void dropNewestRejectsNewMessage() {
+        final SessionOutbox outbox = outbox(2, OverflowPolicy.DROP_NEWEST, 0);
+        outbox.offer("a");
+        outbox.offer("b");
+        outbox.offer("c");
+
+        assertFalse(outbox.offer("d"));
+        transport.completeAll();
+        assertEquals(transport.texts, Arrays.asList("a", "b", "c"));
+        assertEquals(metrics.getDroppedMessages(), 1);
+    }
+
+    public void dropNewestGivesWayToHigherPriority() {
+        final SessionOutbox outbox = outbox(2, OverflowPolicy.DROP_NEWEST, 0);
+        outbox.offer("a");
+        outbox.offer("b");
+        outbox.offer("c");
+
+        assertTrue(outbox.offer("high", 0, 0, Priority.HIGH));
+        transport.completeAll();
+        assertEquals(transport.texts, Arrays.asList("a", "high", "b"));
+    }
+
+    public void disconnectClosesSlowSession() {
+        final SessionOutbox outbox = outbox(1, OverflowPolicy.DISCONNECT, 0);
+        outbox.offer("a");
+        outbox.offer("b");
+
+        assertFalse(outbox.offer("c"));
+        assertTrue(outbox.isClosed());
+        assertEquals(transport.closed.getCloseCode(), CloseReason.CloseCodes.TRY_AGAIN_LATER);
+        assertFalse(outbox.offer("d"));
+        transport.completeAll();
+        assertEquals(transport.texts, Collections.singletonList("a"));
+    }
+
+    public void lanesAreDrainedHighestFirst() {
+        final SessionOutbox outbox = outbox(16, OverflowPolicy.DROP_OLDEST, 0);
+        outbox.offer("a");
+        outbox.offer("low", 0, 0, Priority.LOW);
+        outbox.offer("normal 1", 0, 0, Priority.NORMAL);
+        outbox.offer("high 1", 0, 0, Priority.HIGH);
+        outbox.offer("normal 2", 0, 0, Priority.NORMAL);
+        outbox.offer("high 2", 0, 0, Priority.HIGH);
+
+        transport.completeAll();
+        assertEquals(transport.texts, Arrays.asList("a", "high 1", "high 2", "normal 1", "normal 2", "low"));
+    }
+
+    public void expiredLowPriorityIsSkipped() {
+        final SessionOutbox outbox = new SessionOutbox(transport, Fakes.user(1), WireFormat.VERBOSE, null,
+                new OutboxSettings(16, OverflowPolicy.DROP_OLDEST, 0, 1000, 0, 0), metrics);
+        final long createdAt = System.nanoTime() - TimeUnit.SECONDS.toNanos(2);
+
+        assertFalse(outbox.offer("stale", 1, createdAt, Priority.LOW));
+        assertTrue(outbox.offer("urgent", 2, createdAt, Priority.HIGH));
+        transport.completeAll();
+        assertEquals(transport.texts, Collections.singletonList("urgent"));
+    }
+
+    public void batchKeepsLaneOrderAndNewestSequence() {
+        final SessionOutbox outbox = outbox(16, OverflowPolicy.DROP_OLDEST, 1024);
+        outbox.offer("{\"n\":1}", 1, 0, Priority.NORMAL);
+        outbox.offer("{\"n\":2}", 2, 0, Priority.NORMAL);
+        outbox.offer("{\"n\":3}", 3, 0, Priority.HIGH);
+
+        transport.completeAll();
+        assertEquals(transport.texts, Arrays.asList("{\"n\":1}", "[{\"n\":3},{\"n\":2}]"));
+        assertEquals(transport.sequences, Arrays.asList(1L, 3L));
+        assertEquals(outbox.getMessagesSent(), 3);
+    }
+
+    @NotNull
+    private SessionOutbox outbox(int capacity, @NotNull OverflowPolicy policy, int batchMaxBytes) {
+        return new SessionOutbox(transport, Fakes.user(1), WireFormat.VERBOSE, null,
+                new OutboxSettings(capacity, policy, 0, 0, batchMaxBytes, 0), metrics);
+    }
+
+    /**
+     * Keeps writes outstanding until completed by the test.
+     */
+    private static final class RecordingTransport implements Transport {
+        private final List<String> texts = new ArrayList<>();
+        private final List<Long> sequences = new ArrayList<>();
+        private SendHandler pending;
+        private CloseReason closed;
+
+        @NotNull
+        @Override
+        public String getId() {
+            return "test";
+        }
+
+        @Override
+        public boolean isOpen() {
+            return null == closed;
+        }
+
+        @Override
+        public void sendText(@NotNull String text, long sequence, @NotNull SendHandler handler) {
+            assertNull(pending, "only one write may be outstanding");
+            texts.add(text);
+            sequences.add(sequence);
+            pending = handler;
+        }
+
+        @Override
+        public void ping(@NotNull Runnable alive) {
+            alive.run();
+        }
+
+        @Override
+        public void close(@NotNull CloseReason reason) {
+            closed = reason;
+        }
+
+        // completing a write starts the next one
+        void completeAll() {
+            while (null != pending) {
+                final SendHandler handler = pending;
+                pending = null;
+                handler.onResult(new SendResult());
+            }
+        }
+    }
+}